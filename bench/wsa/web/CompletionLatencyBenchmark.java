@@ -0,0 +1,213 @@
+package wsa.web;
+
+import wsa.web.html.Parsed;
+import wsa.web.html.ParsedFactory;
+
+import java.lang.management.ManagementFactory;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Misura il tempo che passa tra la fine del download di una pagina e la pubblicazione del relativo risultato,
+ * confrontando il Crawler guidato dai completamenti ({@link SimpleCrawler}) con la vecchia pipeline a polling,
+ * riprodotta qui fedelmente: una coda di Future ruotata finché il primo non è completato e una pausa di 50 ms
+ * quando entrambe le code sono vuote. Entrambe esplorano lo stesso sito sintetico di {@link #PAGES} pagine con
+ * lo stesso Loader, che simula un download di durata casuale e registra l'istante in cui termina; il risultato
+ * è considerato pubblicato quando il consumatore, che interroga la coda dei risultati senza pause, lo riceve.
+ * Per ogni esplorazione sono riportati anche il tempo totale e il tempo di CPU usato da tutti i thread tranne
+ * il consumatore: la vecchia pipeline non dorme mai finché ci sono download in corso, ma ruota la coda dei
+ * Future a vuoto. Il primo giro serve a scaldare la JVM e non è riportato.
+ * <p>
+ * Si esegue compilando insieme i sorgenti di src e bench, con JavaFX nel classpath come per l'applicazione:
+ * <pre>
+ * javac -d out $(find src bench -name "*.java")
+ * java -cp out wsa.web.CompletionLatencyBenchmark
+ * </pre>
+ */
+class CompletionLatencyBenchmark {
+    /* Nested Classes */
+    /** Un Loader che simula il download di una pagina del sito sintetico e registra quando termina */
+    private static class SyntheticLoader implements Loader {
+        @Override
+        public LoadResult load(URL url) {
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextInt(MIN_LOAD_MILLIS, MAX_LOAD_MILLIS + 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new LoadResult(url, null, e);
+            }
+            Parsed parsed = ParsedFactory.getFromHtml(pageOf(url.getPath()));
+            FINISHED.put(url.toString(), System.nanoTime());
+            return new LoadResult(url, parsed, null);
+        }
+
+        @Override
+        public Exception check(URL url) {
+            return null;
+        }
+    }
+
+    /** La vecchia pipeline del Crawler: ruota la coda dei Future e dorme 50 ms quando non ha niente da fare */
+    private static class PollingPipeline {
+        private final Queue<URI> downloadQueue = new LinkedList<>();
+        private final Queue<Future<LoadResult>> futureQueue = new LinkedList<>();
+        private final Set<URI> seen = new HashSet<>();
+        final Queue<URI> published = new ConcurrentLinkedQueue<>();
+
+        void run(URI seed, int pages) {
+            AsyncLoader loader = WebFactory.getAsyncLoader();
+            seen.add(seed);
+            downloadQueue.add(seed);
+            int done = 0;
+            while (done < pages) {
+                URI uri = downloadQueue.poll();
+                if (uri != null) {
+                    try {
+                        futureQueue.add(loader.submit(uri.toURL()));
+                    } catch (MalformedURLException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                Future<LoadResult> future = futureQueue.poll();
+                if (future != null) {
+                    if (future.isDone()) {
+                        try {
+                            LoadResult lr = future.get();
+                            URI page = lr.url.toURI();
+                            for (String link : lr.parsed.getLinks()) {
+                                URI linkURI = new URI(link);
+                                if (!linkURI.isAbsolute())
+                                    linkURI = page.resolve(linkURI);
+                                linkURI = linkURI.toURL().toURI();
+                                if (seen.add(linkURI)) {
+                                    downloadQueue.add(linkURI);
+                                }
+                            }
+                            published.add(page);
+                            done++;
+                        } catch (ExecutionException | InterruptedException | URISyntaxException
+                                 | MalformedURLException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    } else {
+                        futureQueue.add(future);
+                    }
+                }
+                if (uri == null && future == null) {
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+            }
+            loader.shutdown();
+        }
+    }
+
+    /* Static Methods */
+    public static void main(String[] args) throws Exception {
+        WebFactory.setLoaderFactory(SyntheticLoader::new);
+        URI seed = new URI(SITE + "0");
+        measureCompletions(seed);
+        measurePolling(seed);
+        for (int round = 1; round <= ROUNDS; round++) {
+            System.out.println("giro " + round);
+            report("  completamenti", measureCompletions(seed));
+            report("  polling      ", measurePolling(seed));
+        }
+    }
+
+    /** Esplora il sito con SimpleCrawler e ritorna le latenze in nanosecondi */
+    private static long[] measureCompletions(URI seed) {
+        FINISHED.clear();
+        Crawler crawler = WebFactory.getCrawler(null, Collections.singletonList(seed), null, null);
+        long[] latencies = new long[PAGES];
+        int count = 0;
+        long start = System.nanoTime();
+        long cpuStart = otherThreadsCpu();
+        crawler.start();
+        while (count < PAGES) {
+            Optional<CrawlerResult> result = crawler.get();
+            if (result.isPresent() && result.get().uri != null) {// un uri null indica che non c'è un risultato pronto
+                long now = System.nanoTime();
+                latencies[count++] = now - FINISHED.get(result.get().uri.toString());
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+        elapsed = System.nanoTime() - start;
+        cpu = otherThreadsCpu() - cpuStart;
+        crawler.cancel();
+        return latencies;
+    }
+
+    /** Esplora il sito con la vecchia pipeline a polling e ritorna le latenze in nanosecondi */
+    private static long[] measurePolling(URI seed) throws InterruptedException {
+        FINISHED.clear();
+        PollingPipeline pipeline = new PollingPipeline();
+        Thread thread = new Thread(() -> pipeline.run(seed, PAGES));
+        thread.setDaemon(true);
+        long[] latencies = new long[PAGES];
+        int count = 0;
+        long start = System.nanoTime();
+        long cpuStart = otherThreadsCpu();
+        thread.start();
+        while (count < PAGES) {
+            URI uri = pipeline.published.poll();
+            if (uri != null) {
+                long now = System.nanoTime();
+                latencies[count++] = now - FINISHED.get(uri.toString());
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+        elapsed = System.nanoTime() - start;
+        cpu = otherThreadsCpu() - cpuStart;
+        thread.join();
+        return latencies;
+    }
+
+    private static void report(String name, long[] latencies) {
+        Arrays.sort(latencies);
+        double mean = Arrays.stream(latencies).average().orElse(0) / 1e6;
+        System.out.printf("%s pagine=%d tempo=%d ms cpu=%d ms latenza media=%.2f ms p50=%.2f ms p99=%.2f ms "
+                          + "max=%.2f ms%n", name, latencies.length, elapsed / 1000000, cpu / 1000000, mean, latencies[latencies.length / 2] / 1e6,
+                latencies[(int) (latencies.length * 0.99)] / 1e6, latencies[latencies.length - 1] / 1e6);
+    }
+
+    /** @return il tempo di CPU in nanosecondi usato finora dal processo, tolto quello del thread corrente */
+    private static long otherThreadsCpu() {
+        com.sun.management.OperatingSystemMXBean os =
+                (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        return os.getProcessCpuTime() - ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime();
+    }
+
+    /** @return il testo della pagina del sito sintetico con il percorso path: la pagina i punta alle pagine
+     * da FANOUT * i + 1 a FANOUT * i + FANOUT, quindi il sito è un albero di PAGES pagine */
+    private static String pageOf(String path) {
+        int i = Integer.parseInt(path.substring(path.lastIndexOf('/') + 1));
+        StringBuilder html = new StringBuilder("<html><body>");
+        for (int k = FANOUT * i + 1; k <= FANOUT * i + FANOUT && k < PAGES; k++) {
+            html.append("<a href=\"").append(k).append("\">").append(k).append("</a>");
+        }
+        return html.append("</body></html>").toString();
+    }
+
+    /* Static Fields */
+    private static final String SITE = "http://bench.invalid/p/";
+    private static final int PAGES = 2000;
+    private static final int FANOUT = 4;
+    private static final int ROUNDS = 3;
+    private static final int MIN_LOAD_MILLIS = 1;
+    private static final int MAX_LOAD_MILLIS = 20;
+    /** L'istante in cui è terminato il download di ogni URL */
+    private static final Map<String, Long> FINISHED = new ConcurrentHashMap<>();
+    /** Il tempo totale e il tempo di CPU degli altri thread dell'ultima esplorazione, in nanosecondi */
+    private static long elapsed;
+    private static long cpu;
+}
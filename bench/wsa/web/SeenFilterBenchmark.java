@@ -0,0 +1,157 @@
+package wsa.web;
+
+import wsa.web.html.Parsed;
+import wsa.web.html.ParsedFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Misura quanti URI al secondo un SiteCrawler ripristinato da un archivio con indice riesce ad aggiungere con
+ * {@link SiteCrawler#addSeed(URI)}, senza il filtro degli URI già elaborati e con il filtro attivato da
+ * {@link CrawlerOptions#seenFilter(long, boolean)} in modalità esatta e approssimata. Ogni aggiunta passa per
+ * {@link SimpleCrawler#add(URI)}, che per un URI mai visto chiede all'archivio se è già stato elaborato. Prima
+ * è archiviato un sito sintetico di {@link #PAGES} pagine, scaricate da un Loader che non accede alla rete;
+ * poi, per ogni modalità, una copia dell'archivio è ripristinata senza avviare l'esplorazione e vi sono
+ * aggiunti {@link #ADDS} URI, dei quali uno ogni {@link #ARCHIVED_EVERY} è già nell'archivio e gli altri sono
+ * nuovi, come i link trovati nelle pagine. Il primo giro serve a scaldare la JVM e non è riportato.
+ * <p>
+ * Si esegue compilando insieme i sorgenti di src e bench, con JavaFX nel classpath come per l'applicazione:
+ * <pre>
+ * javac -d out $(find src bench -name "*.java")
+ * java -cp out wsa.web.SeenFilterBenchmark
+ * </pre>
+ */
+class SeenFilterBenchmark {
+    /* Nested Classes */
+    /** Un Loader che ritorna subito la pagina del sito sintetico */
+    private static class SyntheticLoader implements Loader {
+        @Override
+        public LoadResult load(URL url) {
+            Parsed parsed = ParsedFactory.getFromHtml(pageOf(url.getPath()));
+            return new LoadResult(url, parsed, null);
+        }
+
+        @Override
+        public Exception check(URL url) {
+            return null;
+        }
+    }
+
+    /* Static Methods */
+    public static void main(String[] args) throws Exception {
+        WebFactory.setLoaderFactory(SyntheticLoader::new);
+        Path archive = Files.createTempDirectory("seen-filter-bench");
+        try {
+            archiveSite(archive);
+            for (int round = 0; round <= ROUNDS; round++) {
+                if (round > 0) {
+                    System.out.println("giro " + round);
+                }
+                report(round, "  senza filtro       ", measure(archive, new CrawlerOptions(), round));
+                report(round, "  filtro esatto      ", measure(archive, new CrawlerOptions().seenFilter(PAGES, false), round));
+                report(round, "  filtro approssimato", measure(archive, new CrawlerOptions().seenFilter(PAGES, true), round));
+            }
+        } finally {
+            delete(archive);
+        }
+    }
+
+    /** Esplora tutto il sito sintetico archiviandolo in dir e chiude il SiteCrawler, che scrive l'indice */
+    private static void archiveSite(Path dir) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        SiteCrawler sc = WebFactory.getSiteCrawler(URI.create(SITE), dir);
+        sc.addSeed(URI.create(SITE + "p/0"));
+        sc.start();
+        int count = 0;
+        while (count < PAGES) {
+            Optional<CrawlerResult> result = sc.get();
+            if (result.isPresent() && result.get().uri != null) {// un uri null indica che non c'è un risultato pronto
+                count++;
+            } else {
+                Thread.sleep(1);
+            }
+        }
+        sc.suspend();
+        sc.cancel();
+        if (ArchiveIndex.current(dir) == null) {
+            throw new IllegalStateException("l'archivio non ha l'indice");
+        }
+        System.out.printf("archiviate %d pagine in %d ms%n", PAGES, (System.nanoTime() - start) / 1000000);
+    }
+
+    /** Ripristina una copia dell'archivio con le opzioni date e vi aggiunge ADDS URI
+     * @param round  il giro, perché gli URI nuovi siano diversi in ogni giro
+     * @return il tempo impiegato dalle aggiunte in nanosecondi */
+    private static long measure(Path archive, CrawlerOptions options, int round) throws IOException {
+        Path copy = Files.createTempDirectory("seen-filter-bench");
+        try {
+            try (Stream<Path> files = Files.list(archive)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.copy(file, copy.resolve(file.getFileName()));
+                }
+            }
+            SiteCrawler sc = WebFactory.getSiteCrawler(null, copy, options);
+            URI[] uris = new URI[ADDS];
+            for (int i = 0; i < ADDS; i++) {
+                uris[i] = i % ARCHIVED_EVERY == 0 ? URI.create(SITE + "p/" + (i % PAGES))
+                                                  : URI.create(SITE + "new/" + round + "/" + i);
+            }
+            System.gc();// la memoria lasciata dal ripristino non deve essere raccolta durante la misura
+            long start = System.nanoTime();
+            for (URI uri : uris) {
+                sc.addSeed(uri);
+            }
+            long elapsed = System.nanoTime() - start;
+            sc.cancel();
+            return elapsed;
+        } finally {
+            delete(copy);
+        }
+    }
+
+    private static void report(int round, String name, long elapsed) {
+        if (round > 0) {
+            System.out.printf("%s aggiunte=%d tempo=%d ms aggiunte/s=%.0f%n", name, ADDS, elapsed / 1000000,
+                              ADDS / (elapsed / 1e9));
+        }
+    }
+
+    /** @return il testo della pagina del sito sintetico con il percorso path: la pagina i punta alle pagine
+     * da FANOUT * i + 1 a FANOUT * i + FANOUT, quindi il sito è un albero di PAGES pagine */
+    private static String pageOf(String path) {
+        int i = Integer.parseInt(path.substring(path.lastIndexOf('/') + 1));
+        StringBuilder html = new StringBuilder("<html><body>");
+        for (int k = FANOUT * i + 1; k <= FANOUT * i + FANOUT && k < PAGES; k++) {
+            html.append("<a href=\"").append(k).append("\">").append(k).append("</a>");
+        }
+        return html.append("</body></html>").toString();
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach((p) -> {
+                try {
+                    Files.delete(p);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+    /* Static Fields */
+    private static final String SITE = "http://bench.invalid/";
+    private static final int PAGES = 50000;
+    private static final int FANOUT = 4;
+    private static final int ADDS = 200000;
+    private static final int ARCHIVED_EVERY = 10;
+    private static final int ROUNDS = 5;
+}
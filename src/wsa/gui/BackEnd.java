@@ -1,11 +1,14 @@
 package wsa.gui;
 
+import javafx.animation.AnimationTimer;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.concurrent.Service;
 import javafx.concurrent.Task;
 import javafx.concurrent.Worker;
 import wsa.web.CrawlerResult;
+import wsa.web.GraphSiteCrawler;
+import wsa.web.LinkGraph;
 import wsa.web.SiteCrawler;
 import wsa.web.WebFactory;
 
@@ -14,7 +17,14 @@ import java.io.ObjectInputStream;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
 /**
@@ -32,18 +42,43 @@ public class BackEnd {
     private final MainFrame frame;
 
     private final ObservableList<CrawlerResult> resultObservableList = FXCollections.observableArrayList();
+    /** Il buffer limitato in cui il Worker deposita i risultati in attesa che il pump li aggiunga alla lista */
+    private final BlockingQueue<CrawlerResult> staging = new ArrayBlockingQueue<>(STAGING_CAPACITY);
+    private volatile boolean discarded = false;
+    /** Il thread che aggiunge alla lista i risultati di un'esplorazione ripristinata, null se non ce n'è uno */
+    private final Thread restorer;
+    /** Ad ogni impulso del thread JavaFX aggiunge alla lista, con un solo addAll, i risultati depositati dal Worker,
+     * così i listener della lista sono invocati una volta per fotogramma e sempre nel thread JavaFX. Si ferma da
+     * solo quando l'esplorazione non è in corso, il ripristino è terminato e non ci sono più risultati da aggiungere. */
+    private final AnimationTimer pump = new AnimationTimer() {
+        private final List<CrawlerResult> batch = new ArrayList<>();
+
+        @Override public void handle(long now) {
+            staging.drainTo(batch, MAX_BATCH);
+            if ( !batch.isEmpty() ) {
+                resultObservableList.addAll(batch);
+                batch.clear();
+            } else if ( !service.isRunning() && (restorer == null || !restorer.isAlive()) ) {
+                stop();
+            }
+        }
+    };
 
     private final Service<Void> service = new Service<Void>() {
         @Override protected Task<Void> createTask() {
             return new Task<Void>() {
                 @Override protected Void call() throws Exception {
+                    // i risultati ripristinati precedono quelli nuovi e non sono letti mentre il SiteCrawler scrive
+                    if (restorer != null) {
+                        restorer.join();
+                    }
                     siteCrawler.start();
                     boolean mustStop = false;
                     while (!siteCrawler.getToLoad().isEmpty() && !mustStop) {
                         try {
                             CrawlerResult crawlerResult = siteCrawler.get().get(); // può lanciare NoSuchElementException
                             while (crawlerResult.uri != null) {
-                                resultObservableList.add(crawlerResult);
+                                stage(crawlerResult);
                                 crawlerResult = siteCrawler.get().get();
                         }
                             Thread.sleep(50);
@@ -69,7 +104,7 @@ public class BackEnd {
                     // Fa il get di eventuali risultati rimasti prima di sospendere il SiteCrawler
                     CrawlerResult crawlerResult = siteCrawler.get().get();
                     while (crawlerResult.uri != null) {
-                        resultObservableList.add(crawlerResult);
+                        stage(crawlerResult);
                         crawlerResult = siteCrawler.get().get();
                     }
                     siteCrawler.suspend();
@@ -100,10 +135,16 @@ public class BackEnd {
                                                    "o che non contiene un oggetto valido");
             }
         }
-        // Riempie la lista dei risultati già esplorati
-        Stream<URI> loadedStream = siteCrawler.getLoaded().stream();
-        Stream<URI> errorsStream = siteCrawler.getErrors().stream();
-        Stream.concat(loadedStream, errorsStream).forEach(  (u) -> resultObservableList.add( siteCrawler.get(u) )  );
+        // Riempie la lista dei risultati già esplorati a blocchi, in background: i risultati sono letti
+        // dall'archivio solo mano a mano che il buffer del pump si svuota, quindi l'apertura è immediata
+        if ( siteCrawler.getLoaded().isEmpty() && siteCrawler.getErrors().isEmpty() ) {
+            restorer = null;
+        } else {
+            restorer = new Thread(this::restore);
+            restorer.setDaemon(true);
+            restorer.start();
+            pump.start();
+        }
     }
 
     /* Instance Methods */
@@ -118,6 +159,7 @@ public class BackEnd {
                 service.reset();
             }
             service.start();
+            pump.start();
         }
     }
 
@@ -133,10 +175,46 @@ public class BackEnd {
      * potrà comunque essere ripristinata dalla cartella dove è stata archiviata */
     public void cancel() {
         service.cancel();
+        discarded = true;
+        pump.stop();
+        staging.clear();
         resultObservableList.clear();
         siteCrawler.cancel();
     }
 
+    /** Deposita nel buffer del pump i risultati dell'esplorazione ripristinata, prima gli URI scaricati e poi
+     * quelli con errori, finché non sono finiti o l'esplorazione non è cancellata */
+    private void restore() {
+        Stream<URI> uris = Stream.concat( siteCrawler.getLoaded().stream(), siteCrawler.getErrors().stream() );
+        Iterator<URI> iterator = uris.iterator();
+        try {
+            while ( !discarded && iterator.hasNext() ) {
+                stage( siteCrawler.get(iterator.next()) );
+            }
+        } catch (IllegalStateException e) {
+            // il SiteCrawler è stato cancellato durante il ripristino
+        }
+    }
+
+    /** Deposita un risultato nel buffer del pump, aspettando se è pieno. Le interruzioni non fanno perdere il
+     * risultato, sono solo ripristinate alla fine; se l'esplorazione è stata cancellata il risultato è scartato.
+     * @param cr il risultato da aggiungere alla lista */
+    private void stage(CrawlerResult cr) {
+        boolean interrupted = false;
+        while (!discarded) {
+            try {
+                if ( staging.offer(cr, 100, TimeUnit.MILLISECONDS) ) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /** Ritorna il dominio dell'esplorazione
      * @return il dominio dell'esplorazione */
     public URI getDomain(){
@@ -155,10 +233,36 @@ public class BackEnd {
         return siteCrawler;
     }
 
+    /** Ritorna il grafo dei link dell'esplorazione, aggiornato mano a mano che arrivano i risultati
+     * @throws IllegalStateException se il SiteCrawler non mantiene il grafo dei link
+     * @return il grafo dei link dell'esplorazione */
+    public LinkGraph getLinkGraph() {
+        if ( !(siteCrawler instanceof GraphSiteCrawler) ) {
+            throw new IllegalStateException("il SiteCrawler non mantiene il grafo dei link");
+        }
+        return ((GraphSiteCrawler) siteCrawler).getLinkGraph();
+    }
+
+    /** Ritorna un future che si completa con il grafo dei link dell'esplorazione quando contiene anche i risultati
+     * ripristinati dall'archivio, che sono letti dal disco in background
+     * @throws IllegalStateException se il SiteCrawler non mantiene il grafo dei link
+     * @return il future del grafo dei link dell'esplorazione */
+    public CompletableFuture<LinkGraph> getLinkGraphAsync() {
+        if ( !(siteCrawler instanceof GraphSiteCrawler) ) {
+            throw new IllegalStateException("il SiteCrawler non mantiene il grafo dei link");
+        }
+        return ((GraphSiteCrawler) siteCrawler).getLinkGraphAsync();
+    }
+
     /** Ritorna il Worker che esegue il background l'esplorazione del dominio
      * @return  il Worker che esegue il background l'esplorazione del dominio*/
     public Worker<Void> getWorker(){
         return service;
     }
 
-}
\ No newline at end of file
+    /* Static Fields */
+    /** La capacità del buffer tra il Worker e il thread JavaFX */
+    private static final int STAGING_CAPACITY = 16384;
+    /** Il numero massimo di risultati aggiunti alla lista in un fotogramma */
+    private static final int MAX_BATCH = 4096;
+}
@@ -3,6 +3,8 @@ package wsa.gui.scene;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
@@ -18,6 +20,7 @@ import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
 import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
 import javafx.beans.value.WeakChangeListener;
 import javafx.collections.FXCollections;
 import javafx.collections.ListChangeListener;
@@ -31,12 +34,12 @@ import javafx.scene.Parent;
 import javafx.scene.chart.BarChart;
 import javafx.scene.chart.CategoryAxis;
 import javafx.scene.chart.NumberAxis;
-import javafx.scene.chart.XYChart;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListCell;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.TextField;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
@@ -48,9 +51,12 @@ import wsa.gui.util.Distances;
 import wsa.gui.util.Extras;
 import wsa.gui.util.Nodes;
 import wsa.gui.util.Pointings;
+import wsa.gui.util.StreamingHistogram;
 import wsa.gui.util.TaskFactory;
 import wsa.web.CrawlerResult;
+import wsa.web.LinkGraph;
 import wsa.web.SiteCrawler;
+import wsa.web.html.PageStats;
 
 /** Rappresenta un pannello su cui vengono mostrate sia informazioni generali riguardo il dominio
  * di un {@link wsa.gui.BackEnd}, sia informazioni specifiche riguardo le singole pagine del dominio
@@ -84,67 +90,82 @@ public class InfoPane  {
             }
             return node;
         }
-        /**@return un istogramma che mostra la distribuzione dei link tra le varie pagine */
+        /**@return un istogramma che mostra la distribuzione dei link tra le varie pagine, o a scelta dei link
+         * entranti tra gli URI o della lunghezza del testo delle pagine */
         private Node getGraphic() {
             CategoryAxis xAxis = new CategoryAxis();
             NumberAxis yAxis = new NumberAxis();
             BarChart<String, Number> barChart = new BarChart<>(xAxis, yAxis);
-            barChart.setTitle("Distribuzione dei link nelle pagine");
-            xAxis.setLabel("links");
+            barChart.setAnimated(false);
             yAxis.setLabel("pagine");
-            // Crea le classi di equivalenza delle pagine in base al numero dei link
-            XYChart.Data<String, Number> class0_5 = new XYChart.Data<>("0-5", 0);
-            XYChart.Data<String, Number> class6_15 = new XYChart.Data<>("6-15", 0);
-            XYChart.Data<String, Number> class16_30 = new XYChart.Data<>("16-30", 0);
-            XYChart.Data<String, Number> class31_50 = new XYChart.Data<>("31-50", 0);
-            XYChart.Data<String, Number> class51_80 = new XYChart.Data<>("51-80", 0);
-            XYChart.Data<String, Number> class81_100 = new XYChart.Data<>("81-100", 0);
-            XYChart.Data<String, Number> class101_150 = new XYChart.Data<>("101-150", 0);
-            XYChart.Data<String, Number> class151_300 = new XYChart.Data<>("151-300", 0);
-            XYChart.Data<String, Number> class301_500 = new XYChart.Data<>("301-500", 0);
-            XYChart.Data<String, Number> class501_1000 = new XYChart.Data<>("501-1000", 0);
-            XYChart.Data<String, Number> classOver1000 = new XYChart.Data<>("1000+", 0);
+            // Le classi di equivalenza delle pagine in base al numero dei link
+            StreamingHistogram linksHistogram = new StreamingHistogram(5, 15, 30, 50, 80, 100, 150, 300, 500, 1000);
+            // Le classi di equivalenza degli URI in base al numero di pagine che li puntano, in scala logaritmica
+            StreamingHistogram inDegreeHistogram = new StreamingHistogram(StreamingHistogram.logScale(100000));
+            // Le classi di equivalenza delle pagine in base ai byte di testo, in scala logaritmica
+            StreamingHistogram textHistogram = new StreamingHistogram(StreamingHistogram.logScale(10000000));
+            // Il grafo dei link è null finché non contiene i risultati ripristinati dall'archivio
+            ObjectProperty<LinkGraph> graphProperty = new SimpleObjectProperty<>(null);
+            Runnable updateInDegree = () -> {
+                LinkGraph graph = graphProperty.getValue();
+                for (int i = 0; graph != null && i < inDegreeHistogram.size(); i++) {
+                    long from = i == 0 ? 0 : inDegreeHistogram.upperEdge(i - 1) + 1;
+                    long to = inDegreeHistogram.upperEdge(i);
+                    long atLeastTo = to == Long.MAX_VALUE ? 0 : graph.countInDegreeAtLeast(to + 1);
+                    inDegreeHistogram.set(i, graph.countInDegreeAtLeast(from) - atLeastTo);
+                }
+            };
             // Assegna ogni CrawlerResult alla sua classe di equivalenza
             Consumer<CrawlerResult> consumer = (cr) -> {
-                if (cr.links.size() <= 5) {
-                    class0_5.setYValue(class0_5.getYValue().intValue() + 1);
-                } else if (cr.links.size() <= 15) {
-                    class6_15.setYValue(class6_15.getYValue().intValue() + 1);
-                } else if (cr.links.size() <= 30) {
-                    class16_30.setYValue(class16_30.getYValue().intValue() + 1);
-                } else if (cr.links.size() <= 50) {
-                    class31_50.setYValue(class31_50.getYValue().intValue() + 1);
-                } else if (cr.links.size() <= 80) {
-                    class51_80.setYValue(class51_80.getYValue().intValue() + 1);
-                } else if (cr.links.size() <= 100) {
-                    class81_100.setYValue(class81_100.getYValue().intValue() + 1);
-                } else if (cr.links.size() <= 150) {
-                    class101_150.setYValue(class101_150.getYValue().intValue() + 1);
-                } else if (cr.links.size() <= 300) {
-                    class151_300.setYValue(class151_300.getYValue().intValue() + 1);
-                } else if (cr.links.size() <= 500) {
-                    class301_500.setYValue(class301_500.getYValue().intValue() + 1);
-                } else if (cr.links.size() <= 1000) {
-                    class501_1000.setYValue(class501_1000.getYValue().intValue() + 1);
-                } else {
-                    classOver1000.setYValue(classOver1000.getYValue().intValue() + 1);
+                if (cr.linkPage && cr.links != null) {
+                    linksHistogram.add(cr.links.size());
+                }
+                if (cr.stats != null) {
+                    textHistogram.add(cr.stats.textBytes);
                 }
             };
-            backEnd.resultObservableList().stream()
-                    .filter( (cr) -> cr.linkPage )
-                    .forEach(consumer);
+            backEnd.resultObservableList().forEach(consumer);
+            updateInDegree.run();
             backEnd.resultObservableList().addListener( (ListChangeListener.Change<? extends CrawlerResult> c) -> {
                 while ( c.next() ) {
-                    c.getAddedSubList().stream()
-                            .filter( (cr) -> cr.linkPage )
-                            .forEach(consumer);
+                    c.getAddedSubList().forEach(consumer);
+                }
+                updateInDegree.run();
+            });
+            ComboBox<String> metric = new ComboBox<>();
+            metric.getItems().addAll("link nelle pagine", "link entranti negli URI", "testo delle pagine");
+            metric.valueProperty().addListener( (o, ov, nv) -> {
+                switch (metric.getItems().indexOf(nv)) {
+                    case 0:
+                        barChart.setTitle("Distribuzione dei link nelle pagine");
+                        xAxis.setLabel("links");
+                        yAxis.setLabel("pagine");
+                        barChart.getData().setAll( Collections.singletonList(linksHistogram.getSeries()) );
+                        break;
+                    case 1:
+                        barChart.setTitle("Distribuzione dei link entranti negli URI"
+                                          + (graphProperty.getValue() == null ? " (non ancora disponibile)" : ""));
+                        xAxis.setLabel("link entranti");
+                        yAxis.setLabel("URI");
+                        barChart.getData().setAll( Collections.singletonList(inDegreeHistogram.getSeries()) );
+                        break;
+                    default:
+                        barChart.setTitle("Distribuzione della lunghezza del testo delle pagine");
+                        xAxis.setLabel("byte di testo");
+                        yAxis.setLabel("pagine");
+                        barChart.getData().setAll( Collections.singletonList(textHistogram.getSeries()) );
                 }
             });
-            XYChart.Series<String, Number> series1 = new XYChart.Series<>();
-            series1.getData().addAll(class0_5, class6_15, class16_30, class31_50, class51_80, class81_100, class101_150,
-                                     class151_300, class301_500, class501_1000, classOver1000);
-            barChart.getData().add(series1);
-            return barChart;
+            metric.setValue(metric.getItems().get(0));
+            // Quando il grafo è pronto calcola l'istogramma dei link entranti e aggiorna il titolo
+            graphProperty.addListener( (o, ov, nv) -> {
+                updateInDegree.run();
+                if (metric.getItems().indexOf(metric.getValue()) == 1) {
+                    barChart.setTitle("Distribuzione dei link entranti negli URI");
+                }
+            });
+            backEnd.getLinkGraphAsync().thenAccept( (g) -> Platform.runLater(() -> graphProperty.setValue(g)) );
+            return new VBox(metric, barChart);
         }
 
         /** @return  un Node che visualizza il numero di uri scaricati */
@@ -204,11 +225,14 @@ public class InfoPane  {
             return new VBox() {
                 private ChangeListener<URI> uriListener;
                 private ChangeListener<Number> numListener;
+                private ChangeListener<Boolean> readyListener;
                 {
                     getStyleClass().add("information-box");
                     String text = "URI a cui puntano il maggior numero di pagine: ";
                     Integer nPointings = pointings.maxPointingsProperty.getValue();
-                    Label numberOfMostPointingsLabel = new Label(text + nPointings.toString());
+                    Label numberOfMostPointingsLabel = new Label(text + (pointings.readyProperty.getValue()
+                                                                         ? nPointings.toString()
+                                                                         : NOT_AVAILABLE));
                     URI uri = pointings.maxPointingURIProperty.getValue();
                     Label uriWithMaxPointingsLabel = new Label();
                     if (uri != null) {
@@ -232,6 +256,12 @@ public class InfoPane  {
                                 numberOfMostPointingsLabel.setText(text + pointingsNumber) );
                     };
                     pointings.maxPointingsProperty.addListener( new WeakChangeListener<>(numListener) );
+                    readyListener = (o, ov, nv) -> {
+                        String pointingsNumber = pointings.maxPointingsProperty.getValue().toString();
+                        Platform.runLater( () ->
+                                numberOfMostPointingsLabel.setText(text + pointingsNumber) );
+                    };
+                    pointings.readyProperty.addListener( new WeakChangeListener<>(readyListener) );
                     getChildren().addAll(numberOfMostPointingsLabel, uriWithMaxPointingsLabel);
                 }
             };
@@ -241,63 +271,26 @@ public class InfoPane  {
             return new VBox() {
                 private ChangeListener<Boolean> runningPropertyListener;
                 private Task<Distances.URIDistance> task = null;
+                private final HBox buttons = new HBox();
                 {
                     Button maxDistanceCompuationButton = new Button("calcola massima distanza");
-                    getChildren().add(maxDistanceCompuationButton);
-                    // Quando il bottone viene premuto inizia a calcolare la massima distanza
-                    maxDistanceCompuationButton.setOnAction( (e) -> {
-                        task = distances.newMaxURIDistanceTask();
-                        task.stateProperty().addListener( (o, ov, nv) -> {
-                            if (nv == Worker.State.RUNNING) {
-                                getChildren().clear();
-                                getChildren().addAll(
-                                        new Label("calcolo in corso..."),
-                                        new Button() {
-                                            {
-                                                setText("cancel");
-                                                setOnAction( (e) -> task.cancel() );
-                                            }
-                                        }
-                                );
-                            } else if (nv == Worker.State.SUCCEEDED) {
-                                Distances.URIDistance uriDist = task.getValue();
-                                getChildren().clear();
-                                getChildren().add( new VBox() {
-                                    {
-                                        getStyleClass().add("information-box");
-                                        getChildren().addAll(
-                                                new Label("Massima distanza: " + uriDist.distance),
-                                                new HBox( new Label("da: " + uriDist.from),
-                                                          Nodes.getSplitPane(),
-                                                          nodes.getGoButton(backEnd.getCrawler().get(uriDist.from)) ),
-                                                new HBox( new Label("a:  " + uriDist.to),
-                                                          Nodes.getSplitPane(),
-                                                          nodes.getGoButton(backEnd.getCrawler().get(uriDist.to)) )
-                                        );
-                                    }
-                                });
-                            } else if (nv == Worker.State.CANCELLED) {
-                                getChildren().clear();
-                                getChildren().add(maxDistanceCompuationButton);
-                            } else if (nv == Worker.State.FAILED) {
-                                Throwable exc = task.getException();
-                                getChildren().add(new Label(exc.toString()));
-                                exc.printStackTrace();
-
-                            }
-                        });
-                        Thread th = new Thread(task);
-                        th.setDaemon(true);
-                        th.start();
-                    });
-                    // se l'esplorazione viene cominciata o ripresa ripropone il bottone per effettuare il calcolo
+                    // la stima si ferma quando l'errore è al più MAX_DISTANCE_ERROR, in pochi secondi anche su
+                    // domini molto grandi
+                    Button approxMaxDistanceButton = new Button("stima massima distanza");
+                    buttons.getChildren().addAll(maxDistanceCompuationButton, approxMaxDistanceButton);
+                    getChildren().add(buttons);
+                    // Quando un bottone viene premuto inizia a calcolare la massima distanza
+                    maxDistanceCompuationButton.setOnAction( (e) -> start(distances.newMaxURIDistanceTask()) );
+                    approxMaxDistanceButton.setOnAction(
+                            (e) -> start(distances.newApproxMaxURIDistanceTask(MAX_DISTANCE_ERROR)) );
+                    // se l'esplorazione viene cominciata o ripresa ripropone i bottoni per effettuare il calcolo
                     runningPropertyListener = (o, ov, nv) -> {
                         if (nv) {
                             if (task != null) {
                                 task.cancel();
                             }
                             getChildren().clear();
-                            getChildren().add(maxDistanceCompuationButton);
+                            getChildren().add(buttons);
                         }
                     };
                     backEnd.getWorker().runningProperty().addListener( new WeakChangeListener<>(runningPropertyListener) );
@@ -309,6 +302,65 @@ public class InfoPane  {
                         return !backEnd.getWorker().isRunning() && hasLoadedSomething;
                     }, backEnd.getWorker().runningProperty()));
                 }
+
+                /** Esegue in background un task che calcola la massima distanza e ne mostra il risultato */
+                private void start(Task<Distances.URIDistance> newTask) {
+                    task = newTask;
+                    task.stateProperty().addListener( (o, ov, nv) -> {
+                        if (nv == Worker.State.RUNNING) {
+                            Label message = new Label("calcolo in corso...");
+                            ProgressBar progressBar = new ProgressBar();
+                            progressBar.progressProperty().bind(task.progressProperty());
+                            task.messageProperty().addListener( (mo, mov, mnv) -> message.setText(mnv) );
+                            getChildren().clear();
+                            getChildren().addAll(
+                                    message,
+                                    progressBar,
+                                    new Button() {
+                                        {
+                                            setText("cancel");
+                                            setOnAction( (e) -> task.cancel() );
+                                        }
+                                    }
+                            );
+                        } else if (nv == Worker.State.SUCCEEDED) {
+                            Distances.URIDistance uriDist = task.getValue();
+                            getChildren().clear();
+                            if (uriDist == null) {
+                                getChildren().addAll(new Label("nessuna pagina del dominio"), buttons);
+                                return;
+                            }
+                            String value = uriDist.upperBound > uriDist.distance
+                                           ? "tra " + uriDist.distance + " e " + uriDist.upperBound
+                                           : String.valueOf(uriDist.distance);
+                            getChildren().add( new VBox() {
+                                {
+                                    getStyleClass().add("information-box");
+                                    getChildren().addAll(
+                                            new Label("Massima distanza: " + value),
+                                            new HBox( new Label("da: " + uriDist.from),
+                                                      Nodes.getSplitPane(),
+                                                      nodes.getGoButton(backEnd.getCrawler().get(uriDist.from)) ),
+                                            new HBox( new Label("a:  " + uriDist.to),
+                                                      Nodes.getSplitPane(),
+                                                      nodes.getGoButton(backEnd.getCrawler().get(uriDist.to)) )
+                                    );
+                                }
+                            });
+                        } else if (nv == Worker.State.CANCELLED) {
+                            getChildren().clear();
+                            getChildren().add(buttons);
+                        } else if (nv == Worker.State.FAILED) {
+                            Throwable exc = task.getException();
+                            getChildren().add(new Label(exc.toString()));
+                            exc.printStackTrace();
+
+                        }
+                    });
+                    Thread th = new Thread(task);
+                    th.setDaemon(true);
+                    th.start();
+                }
             };
         }
         /** @return un node che permette di calcolare i link di un dominio verso un altro dominio */
@@ -403,13 +455,25 @@ public class InfoPane  {
         /** @return un Box che, a richiesta, visualizza i link che puntano all'URI di cr */
         private Node getPointingURIsBox(CrawlerResult cr) {
             ObservableList<CrawlerResult> pointingURIsList = pointings.getPointingObservableList(cr.uri);
-            StringProperty pointingURIsBoxTitle =
-                    new SimpleStringProperty("URI che puntano a questa pagina: " + pointingURIsList.size());
+            String text = "URI che puntano a questa pagina: ";
+            StringProperty pointingURIsBoxTitle = new SimpleStringProperty(text + (pointings.readyProperty.getValue()
+                                                                                   ? pointingURIsList.size()
+                                                                                   : NOT_AVAILABLE));
             pointingURIsList.addListener((ListChangeListener.Change<? extends CrawlerResult> c) -> {
                 Platform.runLater(() ->
-                                pointingURIsBoxTitle.setValue("URI che puntano a questa pagina: " + pointingURIsList.size())
+                                pointingURIsBoxTitle.setValue(text + pointingURIsList.size())
                 );
             });
+            // Se il grafo non è pronto il titolo è aggiornato quando lo diventa, anche se non ci sono pagine
+            if ( !pointings.readyProperty.getValue() ) {
+                pointings.readyProperty.addListener(new ChangeListener<Boolean>() {
+                    @Override
+                    public void changed(ObservableValue<? extends Boolean> o, Boolean ov, Boolean nv) {
+                        pointings.readyProperty.removeListener(this);
+                        Platform.runLater(() -> pointingURIsBoxTitle.setValue(text + pointingURIsList.size()));
+                    }
+                });
+            }
             return Nodes.getViewBox( pointingURIsBoxTitle,
                                      pointingURIsList.sorted( (o1, o2) -> o1.uri.compareTo(o2.uri) ),
                                      (lv) -> new ListCell<CrawlerResult>() {
@@ -565,10 +629,10 @@ public class InfoPane  {
                 }
             };
         }
-        /** @return un node che permette, riscaricando una pagina, di calcolare quanti nodi e quante immagini sono
-         * presenti */
+        /** @return un node che mostra quanti nodi e quante immagini sono presenti in una pagina, ricavati dalle
+         * statistiche dell'esplorazione o, se mancano, riscaricando la pagina */
         private Node getExtraInfoBox(CrawlerResult cr) {
-            Extras.ExtraInfo extraInfo = extras.getExtraInfoOrNull(cr.uri);
+            Extras.ExtraInfo extraInfo = extras.getExtraInfoOrNull(cr);
             if (extraInfo != null) {
                 return getExtraInfos(extraInfo);
             } else {
@@ -614,6 +678,18 @@ public class InfoPane  {
                     Text numberOfNodes = new Text("Numero di nodi: " + extraInfo.numberOfNodes);
                     Text numberOfImages = new Text("Numero di immagini: " + extraInfo.numberOfImages);
                     getChildren().addAll(numberOfNodes, numberOfImages);
+                    if (extraInfo.stats != null) {
+                        PageStats stats = extraInfo.stats;
+                        Integer[] order = new Integer[stats.distinctTags()];
+                        for (int i = 0; i < order.length; i++) order[i] = i;
+                        Arrays.sort(order, (a, b) -> Integer.compare(stats.tagCount(b), stats.tagCount(a)));
+                        StringBuilder tags = new StringBuilder("Tag più usati:");
+                        for (int i = 0; i < Math.min(order.length, TOP_TAGS); i++) {
+                            tags.append(' ').append(stats.tag(order[i])).append(" (")
+                                .append(stats.tagCount(order[i])).append(')');
+                        }
+                        getChildren().addAll(new Text("Byte di testo: " + stats.textBytes), new Text(tags.toString()));
+                    }
                 }
             };
         }
@@ -775,4 +851,12 @@ public class InfoPane  {
     public Parent getNode() {
         return node;
     }
+
+    /* Static Fields */
+    /** La massima differenza tra i limiti con cui viene stimata la massima distanza */
+    private static final int MAX_DISTANCE_ERROR = 2;
+    /** Il numero di tag più usati mostrati per una pagina */
+    private static final int TOP_TAGS = 5;
+    /** Il testo mostrato al posto dei valori calcolati sul grafo dei link finché questo non è pronto */
+    private static final String NOT_AVAILABLE = "non ancora disponibile";
 }
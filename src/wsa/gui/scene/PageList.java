@@ -1,15 +1,14 @@
 package wsa.gui.scene;
 
-import javafx.application.Platform;
 import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
-import javafx.collections.transformation.FilteredList;
 import javafx.scene.Node;
 import javafx.scene.control.ListCell;
 import javafx.scene.control.ListView;
 import javafx.scene.control.Tab;
 import javafx.scene.control.TabPane;
 import wsa.gui.BackEnd;
+import wsa.gui.util.SortedResultList;
 import wsa.web.CrawlerResult;
 
 /** /** Una componente grafica per un {@link BackEnd} che mostra
@@ -28,16 +27,16 @@ public class PageList {
         infoPane = ip;
         synchronized ( owner.resultObservableList() ) {
             // Crea la Tab degli uri interni al dominio
-            ObservableList<CrawlerResult> internalURIs = new FilteredList<>( owner.resultObservableList(),
-                                                                             (cr) -> cr.linkPage           );
+            ObservableList<CrawlerResult> internalURIs = new SortedResultList( owner.resultObservableList(),
+                                                                               (cr) -> cr.linkPage           );
             Tab internalURIsTab = newResultsTab("Interni: ", internalURIs);
             // Crea la Tab degli uri esterni al dominio
-            ObservableList<CrawlerResult> externalURIs = new FilteredList<>( owner.resultObservableList(),
-                                                                             (cr) -> !cr.linkPage          );
+            ObservableList<CrawlerResult> externalURIs = new SortedResultList( owner.resultObservableList(),
+                                                                               (cr) -> !cr.linkPage          );
             Tab externalURIsTab = newResultsTab("Esterni: ", externalURIs);
             // Crea la Tab degli uri che non è stato possibile scaricare
-            ObservableList<CrawlerResult> errors = new FilteredList<>( owner.resultObservableList(),
-                                                                       (cr) -> cr.exc != null        );
+            ObservableList<CrawlerResult> errors = new SortedResultList( owner.resultObservableList(),
+                                                                         (cr) -> cr.exc != null        );
             Tab errorsTab = newResultsTab("Errori: ", errors);
             // Visualizza tutti i tabs in un TabPane
             node = new TabPane() {
@@ -59,19 +58,19 @@ public class PageList {
     }
 
     /** Genera un Tab che visualizza in una ListView tutti i CrawlerResult in observableList e da la possibilità
-     * di visualizzarli sull'InfoPane
+     * di visualizzarli sull'InfoPane. La lista è già ordinata e la ListView ne legge solo gli elementi visibili.
      * @param tabName il nome con cui visualizzare questo tab
-     * @param observableList ObservableList dei risultati da mostrare nel tab
+     * @param observableList ObservableList ordinata dei risultati da mostrare nel tab
      * @return un Tab che visualizza gli uri in observableList */
     private Tab newResultsTab(String tabName, ObservableList<CrawlerResult> observableList) {
         Node listView = new ListView<CrawlerResult>() {
             {
-                setItems(observableList.sorted((o1, o2) -> o1.uri.compareTo(o2.uri)));
+                setItems(observableList);
                 setCellFactory(lv -> new ListCell<CrawlerResult>() {
                     @Override
                     protected void updateItem(CrawlerResult item, boolean empty) {
                         super.updateItem(item, empty);
-                        Platform.runLater(() -> setText(item == null ? "" : item.uri.toString()));
+                        setText(item == null || empty ? "" : item.uri.toString());
                     }
                 });
                 getFocusModel().focusedItemProperty().addListener( (o, ov, nv) -> {
@@ -84,9 +83,10 @@ public class PageList {
         return new Tab() {
             {
                 setText(tabName + observableList.size());
-                // Aggiorna il titolo ogni volta che cambiano gli elementi da visualizzare
+                // Aggiorna il titolo ogni volta che cambiano gli elementi da visualizzare, una volta per ogni
+                // gruppo di risultati aggiunti dal BackEnd nel thread JavaFX
                 observableList.addListener( (ListChangeListener.Change<? extends CrawlerResult> c) ->
-                        Platform.runLater(() -> setText(tabName + observableList.size())) );
+                        setText(tabName + observableList.size()) );
 
                 selectedProperty().addListener(
                         (o, ov, isSelected) -> setContent(isSelected ? listView : null)
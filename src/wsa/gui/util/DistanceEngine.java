@@ -0,0 +1,453 @@
+package wsa.gui.util;
+
+import wsa.web.LinkGraph;
+import wsa.web.SiteCrawler;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/** Calcola le distanze tra le pagine interne ad un dominio sul grafo dei link di un'esplorazione.
+ * Come nelle visite fatte finora da {@link Distances}, i nodi sono le pagine interne al dominio che hanno un
+ * risultato (scaricate o con errori) e un link è percorso solamente se porta ad una pagina interna scaricata.
+ * Alla creazione il sottografo è copiato in forma CSR con identificativi compatti (da 0 a size() - 1), poi ogni
+ * visita in ampiezza (BFS) usa solo array di interi e insiemi di bit: ad ogni livello sceglie se espandere la
+ * frontiera in avanti (top-down) o cercare per ogni nodo non visitato un predecessore nella frontiera
+ * (bottom-up), a seconda di quale dei due passi tocca meno archi. Le eccentricità di tutti i nodi sono calcolate
+ * in parallelo su un {@link ForkJoinPool}, tenendo in memoria per ogni nodo solo l'eccentricità e il nodo più
+ * lontano. Un oggetto di questa classe è immutabile e può essere usato da più thread contemporaneamente. */
+public class DistanceEngine {
+    /* Nested Classes */
+    /** Le eccentricità di tutti i nodi: eccentricity[u] è la massima distanza di un nodo raggiungibile da u e
+     * farthest[u] il nodo con identificativo minimo a quella distanza */
+    public static class Eccentricities {
+        public final int[] eccentricity;
+        public final int[] farthest;
+        Eccentricities(int[] eccentricity, int[] farthest) {
+            this.eccentricity = eccentricity;
+            this.farthest = farthest;
+        }
+    }
+
+    /** I limiti della massima distanza tra due nodi: lower è la distanza da from a to, la massima trovata
+     * finora, e la massima distanza non supera upper */
+    public static class DiameterBounds {
+        public final int lower;
+        public final int upper;
+        public final int from;
+        public final int to;
+        DiameterBounds(int lower, int upper, int from, int to) {
+            this.lower = lower;
+            this.upper = upper;
+            this.from = from;
+            this.to = to;
+        }
+
+        /** @return i limiti con la coppia (from, to) se la loro distanza supera il limite inferiore */
+        private DiameterBounds improve(int distance, int from, int to) {
+            return distance > lower ? new DiameterBounds(distance, Math.max(upper, distance), from, to) : this;
+        }
+
+        /** @return i limiti con un nuovo limite superiore, mai minore di quello inferiore */
+        private DiameterBounds withUpper(int bound) {
+            return new DiameterBounds(lower, Math.max(lower, Math.min(upper, bound)), from, to);
+        }
+    }
+
+    /** Gli array di lavoro di una visita, riusati dallo stesso thread per più visite */
+    private class Buffers {
+        final long[] visited = new long[words];
+        final long[] frontierBits = new long[words];
+        int[] frontier = new int[Math.max(size, 1)];
+        int[] next = new int[Math.max(size, 1)];
+    }
+
+    /* Instance Fields */
+    private final LinkGraph.Snapshot graph;
+    /** node[i] è il nodo del grafo con identificativo compatto i, index il viceversa (-1 se escluso) */
+    private final int[] node;
+    private final int[] index;
+    private final int size;
+    private final int words;
+    private final int[] outOffsets;
+    private final int[] outTargets;
+    private final int[] inOffsets;
+    private final int[] inSources;
+    private final ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(Buffers::new);
+
+    /* Constructors */
+    /** Estrae dal grafo il sottografo delle pagine interne al dominio
+     * @param graph  un'istantanea del grafo dei link
+     * @param domain  il dominio dell'esplorazione */
+    public DistanceEngine(LinkGraph.Snapshot graph, URI domain) {
+        this.graph = graph;
+        int n = graph.size();
+        index = new int[n];
+        boolean[] loaded = new boolean[n];
+        int count = 0;
+        for (int u = 0; u < n; u++) {
+            index[u] = -1;
+            if (graph.hasResult(u) && SiteCrawler.checkSeed(domain, graph.uri(u))) {
+                index[u] = count++;
+                loaded[u] = graph.isLoaded(u);
+            }
+        }
+        size = count;
+        words = (size + 63) >>> 6;
+        node = new int[size];
+        for (int u = 0; u < n; u++) {
+            if (index[u] >= 0) {
+                node[index[u]] = u;
+            }
+        }
+        // archi uscenti verso pagine interne scaricate
+        outOffsets = new int[size + 1];
+        int edges = 0;
+        for (int i = 0; i < size; i++) {
+            int u = node[i];
+            for (int k = graph.outBegin(u); k < graph.outEnd(u); k++) {
+                if (loaded[graph.outTarget(k)]) {
+                    edges++;
+                }
+            }
+            outOffsets[i + 1] = edges;
+        }
+        outTargets = new int[edges];
+        for (int i = 0, e = 0; i < size; i++) {
+            int u = node[i];
+            for (int k = graph.outBegin(u); k < graph.outEnd(u); k++) {
+                int v = graph.outTarget(k);
+                if (loaded[v]) {
+                    outTargets[e++] = index[v];
+                }
+            }
+        }
+        // archi entranti, per i passi bottom-up
+        inOffsets = new int[size + 1];
+        for (int v : outTargets) {
+            inOffsets[v + 1]++;
+        }
+        for (int i = 0; i < size; i++) {
+            inOffsets[i + 1] += inOffsets[i];
+        }
+        inSources = new int[edges];
+        int[] fill = Arrays.copyOf(inOffsets, size);
+        for (int i = 0; i < size; i++) {
+            for (int k = outOffsets[i]; k < outOffsets[i + 1]; k++) {
+                inSources[fill[outTargets[k]]++] = i;
+            }
+        }
+    }
+
+    /* Instance Methods */
+    /** @return il numero di nodi */
+    public int size() {
+        return size;
+    }
+
+    /** @return l'URI del nodo con identificativo compatto i */
+    public URI uri(int i) {
+        return graph.uri(node[i]);
+    }
+
+    /** @return l'identificativo compatto dell'URI o -1 se non è un nodo */
+    public int indexOf(URI uri) {
+        int u = graph.nodeOf(uri);
+        return u < 0 ? -1 : index[u];
+    }
+
+    /** Calcola le distanze da un nodo verso tutti gli altri
+     * @param source  l'identificativo compatto del nodo di partenza
+     * @return dist, dove dist[v] è la distanza da source a v o -1 se v non è raggiungibile */
+    public int[] distances(int source) {
+        int[] dist = new int[size];
+        Arrays.fill(dist, -1);
+        bfs(source, true, buffers.get(), dist);
+        return dist;
+    }
+
+    /** Calcola in parallelo le eccentricità di tutti i nodi
+     * @param pool  il pool su cui eseguire le visite
+     * @param cancelled  interrompe il calcolo appena ritorna true
+     * @param progress  riceve il numero di nodi elaborati mano a mano che il calcolo avanza
+     * @return le eccentricità o null se il calcolo è stato interrotto */
+    public Eccentricities eccentricities(ForkJoinPool pool, BooleanSupplier cancelled, IntConsumer progress) {
+        int[] sources = new int[size];
+        for (int s = 0; s < size; s++) {
+            sources[s] = s;
+        }
+        long[] results = bfs(sources, true, pool, cancelled, progress);
+        if (results == null) {
+            return null;
+        }
+        int[] eccentricity = new int[size];
+        int[] farthest = new int[size];
+        for (int s = 0; s < size; s++) {
+            eccentricity[s] = (int) (results[s] >>> 32);
+            farthest[s] = (int) results[s];
+        }
+        return new Eccentricities(eccentricity, farthest);
+    }
+
+    /** Stima la massima distanza tra due nodi con l'algoritmo iFUB nella versione per grafi orientati (DiFUB):
+     * invece di una visita per ogni nodo, visita solo i nodi più lontani da un perno e si ferma quando il limite
+     * inferiore e il limite superiore della massima distanza differiscono al più di maxError. Le distanze tra
+     * nodi che non raggiungono il perno o che il perno non raggiunge sono calcolate con visite esatte, così i
+     * limiti sono corretti anche se il grafo non è fortemente connesso. Nel caso peggiore visita tutti i nodi.
+     * @param pool  il pool su cui eseguire le visite
+     * @param cancelled  interrompe il calcolo appena ritorna true
+     * @param maxError  la massima differenza ammessa tra i due limiti, 0 per il valore esatto
+     * @param progress  riceve i limiti ogni volta che vengono migliorati
+     * @return i limiti finali, o null se il calcolo è stato interrotto o non ci sono nodi */
+    public DiameterBounds diameter(ForkJoinPool pool, BooleanSupplier cancelled, int maxError,
+                                   Consumer<DiameterBounds> progress) {
+        if (maxError < 0) {
+            throw new IllegalArgumentException("l'errore massimo non può essere negativo");
+        }
+        if (size == 0) {
+            return null;
+        }
+        // il perno è il nodo con più archi, da cui partono e arrivano i cammini più corti
+        int pivot = 0;
+        for (int v = 1; v < size; v++) {
+            if (degree(v) > degree(pivot)) {
+                pivot = v;
+            }
+        }
+        Buffers b = buffers.get();
+        int[] forwardDist = new int[size];
+        int[] backwardDist = new int[size];
+        Arrays.fill(forwardDist, -1);
+        Arrays.fill(backwardDist, -1);
+        long forward = bfs(pivot, true, b, forwardDist);
+        long backward = bfs(pivot, false, b, backwardDist);
+        int forwardEcc = (int) (forward >>> 32);
+        int backwardEcc = (int) (backward >>> 32);
+        DiameterBounds best = new DiameterBounds(forwardEcc, Integer.MAX_VALUE, pivot, (int) forward);
+        best = best.improve(backwardEcc, (int) backward, pivot);
+        // doppia visita dal nodo più lontano dal perno, per partire da un buon limite inferiore
+        long sweep = bfs((int) forward, false, b, null);
+        best = best.improve((int) (sweep >>> 32), (int) sweep, (int) forward);
+        int s1 = (int) sweep;
+        sweep = bfs(s1, true, b, null);
+        best = best.improve((int) (sweep >>> 32), s1, (int) sweep);
+        // visite esatte dai nodi che non raggiungono il perno e verso quelli che il perno non raggiunge
+        int[] unreaching = select(backwardDist, -1, outOffsets);
+        int[] unreached = select(forwardDist, -1, inOffsets);
+        best = improve(best, unreaching, true, pool, cancelled);
+        best = improve(best, unreached, false, pool, cancelled);
+        if (best == null) {
+            return null;
+        }
+        // un cammino da x a y passa per il perno, quindi d(x, y) <= backwardDist[x] + forwardDist[y]: dopo aver
+        // visitato i nodi a distanza almeno i dal perno, le coppie rimaste sono a distanza al più 2(i - 1)
+        int bound = backwardEcc + forwardEcc;
+        best = best.withUpper(bound);
+        progress.accept(best);
+        for (int i = Math.max(forwardEcc, backwardEcc); i >= 1 && best.upper - best.lower > maxError; i--) {
+            best = improve(best, select(forwardDist, i, inOffsets), false, pool, cancelled);
+            best = improve(best, select(backwardDist, i, outOffsets), true, pool, cancelled);
+            if (best == null) {
+                return null;
+            }
+            bound = Math.min(i - 1, backwardEcc) + Math.min(i - 1, forwardEcc);
+            best = best.withUpper(bound);
+            progress.accept(best);
+        }
+        return best;
+    }
+
+    /** @return il numero di archi uscenti ed entranti di un nodo */
+    private int degree(int v) {
+        return outOffsets[v + 1] - outOffsets[v] + inOffsets[v + 1] - inOffsets[v];
+    }
+
+    /** @return i nodi v con dist[v] == level che hanno almeno un arco secondo offsets */
+    private int[] select(int[] dist, int level, int[] offsets) {
+        int count = 0;
+        for (int v = 0; v < size; v++) {
+            if (dist[v] == level && offsets[v + 1] > offsets[v]) {
+                count++;
+            }
+        }
+        int[] nodes = new int[count];
+        for (int v = 0, k = 0; v < size; v++) {
+            if (dist[v] == level && offsets[v + 1] > offsets[v]) {
+                nodes[k++] = v;
+            }
+        }
+        return nodes;
+    }
+
+    /** Visita in parallelo i nodi dati e migliora il limite inferiore con le loro eccentricità
+     * @return i limiti migliorati o null se best è null o il calcolo è stato interrotto */
+    private DiameterBounds improve(DiameterBounds best, int[] sources, boolean forward, ForkJoinPool pool,
+                                   BooleanSupplier cancelled) {
+        if (best == null || sources.length == 0) {
+            return best;
+        }
+        long[] results = bfs(sources, forward, pool, cancelled, (done) -> {});
+        if (results == null) {
+            return null;
+        }
+        for (int k = 0; k < sources.length; k++) {
+            int ecc = (int) (results[k] >>> 32);
+            int far = (int) results[k];
+            best = forward ? best.improve(ecc, sources[k], far) : best.improve(ecc, far, sources[k]);
+        }
+        return best;
+    }
+
+    /** Esegue in parallelo una visita da ciascuno dei nodi dati
+     * @return per ogni nodo il risultato di {@link #bfs(int, boolean, Buffers, int[])}, o null se il calcolo è
+     * stato interrotto */
+    private long[] bfs(int[] sources, boolean forward, ForkJoinPool pool, BooleanSupplier cancelled,
+                       IntConsumer progress) {
+        long[] results = new long[sources.length];
+        AtomicInteger done = new AtomicInteger();
+        int step = Math.max(1, sources.length / 100);
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                run(0, sources.length);
+            }
+
+            private void run(int from, int to) {
+                if (to - from > LEAF_SIZE) {
+                    int middle = (from + to) >>> 1;
+                    invokeAll(new RecursiveAction() {
+                        @Override
+                        protected void compute() {
+                            run(from, middle);
+                        }
+                    }, new RecursiveAction() {
+                        @Override
+                        protected void compute() {
+                            run(middle, to);
+                        }
+                    });
+                    return;
+                }
+                Buffers b = buffers.get();
+                for (int k = from; k < to && !cancelled.getAsBoolean(); k++) {
+                    results[k] = bfs(sources[k], forward, b, null);
+                    int d = done.incrementAndGet();
+                    if (d % step == 0 || d == sources.length) {
+                        progress.accept(d);
+                    }
+                }
+            }
+        });
+        return cancelled.getAsBoolean() ? null : results;
+    }
+
+    /** Visita in ampiezza a partire da source
+     * @param forward  se true segue gli archi nel loro verso, altrimenti all'indietro
+     * @param dist  se non è null vi sono scritte le distanze dei nodi raggiunti
+     * @return l'eccentricità di source nei 32 bit alti e il nodo più lontano con identificativo minimo nei bassi */
+    private long bfs(int source, boolean forward, Buffers b, int[] dist) {
+        int[] outOffsets = forward ? this.outOffsets : this.inOffsets;
+        int[] outTargets = forward ? this.outTargets : this.inSources;
+        int[] inOffsets = forward ? this.inOffsets : this.outOffsets;
+        int[] inSources = forward ? this.inSources : this.outTargets;
+        long[] visited = b.visited;
+        long[] frontierBits = b.frontierBits;
+        Arrays.fill(visited, 0);
+        int[] frontier = b.frontier;
+        int[] next = b.next;
+        int frontierSize = 1;
+        frontier[0] = source;
+        visited[source >>> 6] |= 1L << source;
+        if (dist != null) {
+            dist[source] = 0;
+        }
+        int level = 0;
+        int farthest = source;
+        long unexploredEdges = outTargets.length - (outOffsets[source + 1] - outOffsets[source]);
+        boolean bottomUp = false;
+        while (true) {
+            long frontierEdges = 0;
+            for (int i = 0; i < frontierSize; i++) {
+                frontierEdges += outOffsets[frontier[i] + 1] - outOffsets[frontier[i]];
+            }
+            if (!bottomUp && frontierEdges > unexploredEdges / ALPHA) {
+                bottomUp = true;
+            } else if (bottomUp && frontierSize < size / BETA) {
+                bottomUp = false;
+            }
+            int nextSize = 0;
+            if (bottomUp) {
+                for (int i = 0; i < frontierSize; i++) {
+                    frontierBits[frontier[i] >>> 6] |= 1L << frontier[i];
+                }
+                for (int w = 0; w < words; w++) {
+                    long unvisited = ~visited[w];
+                    while (unvisited != 0) {
+                        int v = (w << 6) + Long.numberOfTrailingZeros(unvisited);
+                        unvisited &= unvisited - 1;
+                        if (v >= size) {
+                            break;
+                        }
+                        for (int k = inOffsets[v]; k < inOffsets[v + 1]; k++) {
+                            int u = inSources[k];
+                            if ((frontierBits[u >>> 6] & (1L << u)) != 0) {
+                                next[nextSize++] = v;
+                                break;
+                            }
+                        }
+                    }
+                }
+                for (int i = 0; i < frontierSize; i++) {
+                    frontierBits[frontier[i] >>> 6] = 0;
+                }
+                for (int i = 0; i < nextSize; i++) {
+                    visited[next[i] >>> 6] |= 1L << next[i];
+                }
+            } else {
+                for (int i = 0; i < frontierSize; i++) {
+                    int u = frontier[i];
+                    for (int k = outOffsets[u]; k < outOffsets[u + 1]; k++) {
+                        int v = outTargets[k];
+                        long bit = 1L << v;
+                        if ((visited[v >>> 6] & bit) == 0) {
+                            visited[v >>> 6] |= bit;
+                            next[nextSize++] = v;
+                        }
+                    }
+                }
+            }
+            if (nextSize == 0) {
+                break;
+            }
+            level++;
+            farthest = Integer.MAX_VALUE;
+            for (int i = 0; i < nextSize; i++) {
+                int v = next[i];
+                unexploredEdges -= outOffsets[v + 1] - outOffsets[v];
+                if (v < farthest) {
+                    farthest = v;
+                }
+                if (dist != null) {
+                    dist[v] = level;
+                }
+            }
+            int[] swap = frontier;
+            frontier = next;
+            next = swap;
+            frontierSize = nextSize;
+        }
+        return ((long) level << 32) | farthest;
+    }
+
+    /* Static Fields */
+    /** Le soglie con cui la visita passa da top-down a bottom-up e viceversa (Beamer et al.) */
+    private static final int ALPHA = 14;
+    private static final int BETA = 24;
+    /** Il numero di nodi di partenza sotto il quale un compito non è più suddiviso */
+    private static final int LEAF_SIZE = 16;
+}
@@ -2,34 +2,87 @@ package wsa.gui.util;
 
 import javafx.concurrent.Task;
 import wsa.gui.BackEnd;
-import wsa.web.SiteCrawler;
 
 import java.net.URI;
 import java.util.*;
-import java.util.concurrent.*;
-import java.util.stream.Stream;
+import java.util.concurrent.ForkJoinPool;
 
 /** Una classe che fornisce Task per calcolare la mappa delle distanze di un URI verso tutti gli altri uri di un
- * BackEnd e la massima distanza tra tutte le coppie di URI. Salva ogni mappa delle distanze calcolata in modo
- * da poter accedere al risultato in futuro senza inizializzare di nuovo un Task. Tutti i metodi devono essere chiamati
- * quando il SiteCrawler non è in esplorazione. */
+ * BackEnd e la massima distanza tra tutte le coppie di URI. Le visite sono eseguite da un {@link DistanceEngine}
+ * sul grafo dei link dell'esplorazione, che è costruito una volta sola finché l'esplorazione non viene ripresa.
+ * Le ultime mappe delle distanze calcolate sono salvate in modo da poter accedere al risultato in futuro senza
+ * inizializzare di nuovo un Task. Tutti i metodi devono essere chiamati quando il SiteCrawler non è in esplorazione. */
 public class Distances {
     /* Nested Classes */
-    /** Rappresenta la distanza tra una coppia di uri */
+    /** Rappresenta la distanza tra una coppia di uri. Se è il risultato di una stima, upperBound è il limite
+     * superiore della massima distanza, altrimenti è uguale a distance */
     public static class URIDistance {
         public final URI from;
         public final URI to;
         public final int distance;
+        public final int upperBound;
         public URIDistance(URI uri1, URI uri2, int distance){
+            this(uri1, uri2, distance, distance);
+        }
+        public URIDistance(URI uri1, URI uri2, int distance, int upperBound){
             this.from = uri1;
             this.to = uri2;
             this.distance = distance;
+            this.upperBound = upperBound;
+        }
+    }
+
+    /** Una mappa delle distanze in sola lettura sull'array calcolato da un DistanceEngine: contiene solo gli URI
+     * raggiungibili e non crea alcun oggetto finché non viene iterata */
+    private static class DistanceMap extends AbstractMap<URI, Integer> {
+        private final DistanceEngine engine;
+        private final int[] dist;
+        private Set<Entry<URI, Integer>> entrySet = null;
+
+        DistanceMap(DistanceEngine engine, int[] dist) {
+            this.engine = engine;
+            this.dist = dist;
+        }
+
+        @Override
+        public Integer get(Object key) {
+            if ( !(key instanceof URI) ) {
+                return null;
+            }
+            int v = engine.indexOf((URI) key);
+            return v < 0 || dist[v] < 0 ? null : dist[v];
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Set<Entry<URI, Integer>> entrySet() {
+            if (entrySet == null) {
+                Map<URI, Integer> map = new HashMap<>();
+                for (int v = 0; v < dist.length; v++) {
+                    if (dist[v] >= 0) {
+                        map.put(engine.uri(v), dist[v]);
+                    }
+                }
+                entrySet = Collections.unmodifiableMap(map).entrySet();
+            }
+            return entrySet;
         }
     }
 
     /* Instance Fields */
     private final BackEnd backEnd;
-    private final Map<URI, Map<URI, Integer>> distanceMap = new HashMap<>();
+    private DistanceEngine engine = null;
+    /** Le ultime mappe delle distanze calcolate, dalla meno recente */
+    private final Map<URI, Map<URI, Integer>> distanceMap = new LinkedHashMap<URI, Map<URI, Integer>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<URI, Map<URI, Integer>> eldest) {
+            return size() > MAP_CACHE_SIZE;
+        }
+    };
 
     /* Constructors */
     /** Metodo Costruttore */
@@ -37,7 +90,10 @@ public class Distances {
         backEnd = owner;
         backEnd.getWorker().runningProperty().addListener((o, ov, nv) -> {
             if (nv) {// se l'esplorazione viene cominciata o ripresa
-                distanceMap.clear();// Cancella la mappa delle distanze
+                synchronized (this) {
+                    distanceMap.clear();// Cancella la mappa delle distanze
+                    engine = null;
+                }
             }
         });
     }
@@ -55,132 +111,115 @@ public class Distances {
         return new Task<Map<URI, Integer>>() {
             @Override
             protected Map<URI, Integer> call() throws Exception {
-                return getDistancesCalculationCallable(uri, this).call();
+                DistanceEngine engine = getEngine();
+                int source = engine.indexOf(uri);
+                if (source < 0) {// un uri esterno o senza risultato raggiunge solo se stesso
+                    return Collections.singletonMap(uri, 0);
+                }
+                Map<URI, Integer> dist = new DistanceMap(engine, engine.distances(source));
+                synchronized (Distances.this) {
+                    if (engine == Distances.this.engine) {
+                        distanceMap.put(uri, dist);
+                    }
+                }
+                return dist;
             }
         };
     }
     /** Ritorna un task per calcolare la massima distanza tra tutte le coppie di uri appartenenti al dominio di un
-     *  BackEnd.
+     *  BackEnd. Le visite sono eseguite in parallelo su tutti i processori disponibili e il progresso del task è
+     *  il numero di uri da cui è già stata calcolata la massima distanza.
      *  @throws IllegalStateException se il SiteCrawler è in esplorazione
      * @return  un task per calcolare la distanza tra tutte le coppie di uri appartenenti al dominio di crawler*/
     public Task<URIDistance> newMaxURIDistanceTask() {
         if( backEnd.getWorker().isRunning() ) {
             throw new IllegalStateException("l'esplorazione è ancora in corso");
         }
-        SiteCrawler crawler = backEnd.getCrawler();
-        URI domain = backEnd.getDomain();
         return new Task<URIDistance>() {
             @Override
             protected URIDistance call() throws Exception {
-                ExecutorService executor = Executors.newCachedThreadPool((runnable) -> {
-                    Thread thread = Executors.defaultThreadFactory().newThread(runnable);
-                    thread.setDaemon(true);
-                    return thread;
-                });
-                // per prima cosa popola la mappa delle distanze tra tutte le coppie
-                Map<URI, Future<Map<URI, Integer>>> futureMap = new HashMap<>();
-                Stream<URI> loaded = crawler.getLoaded().stream();
-                Stream<URI> errors = crawler.getErrors().stream();
-                Stream.concat(loaded, errors)// Stream di tutti gli uri visitati
-                        .filter((u) -> SiteCrawler.checkSeed(domain, u))// mantiene solo quelli interni
-                        .forEach((u) -> {
-                            if (!distanceMap.containsKey(u)) {
-                                FutureTask<Map<URI, Integer>> task =
-                                        new FutureTask<>( getDistancesCalculationCallable(u, this) );
-                                executor.submit(task);
-                                futureMap.put(u, task);
-                            }
-                        });
-                for (URI uri : futureMap.keySet()){
-                    try {
-                        Map<URI, Integer> distMap = futureMap.get(uri).get();
-                        // Se questo task è stato interrotto #getDistancesCalculationCallable potrebbe ritornare null
-                        // e passare questo valore alla futureMap
-                        if (distMap != null) {
-                            distanceMap.put(uri, distMap);
-                        }
-                    } catch (InterruptedException ex) {
-                        System.out.println("calcolo massima distanza interrotto");
-                    } catch (ExecutionException ex) {
-                        System.out.println("ExecutionException in wsa.gui.util.Distances - codice 1");
-                    }
+                DistanceEngine engine = getEngine();
+                int n = engine.size();
+                if (n == 0) {
+                    return null;
                 }
-                // Una volta popolata la mappa, calcola la massima distanza tra tutte le coppie!
-                List<URIDistance> maxDistsPerURI = new ArrayList<>();
-                for ( URI fromURI : distanceMap.keySet() ) {
-                    if ( isCancelled() ) {
-                        break;
-                    }
-                    Map<URI, Integer> distMap = distanceMap.get(fromURI);
-                    URI currentMaxURI = null;
-                    int currentMaxDist = -1;
-                    for ( URI toURI : distMap.keySet() ) {
-                        int dist = distMap.get(toURI);
-                        if (dist > currentMaxDist) {
-                            currentMaxDist = dist;
-                            currentMaxURI = toURI;
-                        }
+                ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+                DistanceEngine.Eccentricities ecc;
+                try {
+                    ecc = engine.eccentricities(pool, this::isCancelled, (done) -> updateProgress(done, n));
+                } finally {
+                    pool.shutdownNow();
+                }
+                if (ecc == null) {
+                    return null;
+                }
+                // a parità di distanza vince l'uri di partenza con identificativo minimo
+                int max = 0;
+                for (int s = 1; s < n; s++) {
+                    if (ecc.eccentricity[s] > ecc.eccentricity[max]) {
+                        max = s;
                     }
-                    maxDistsPerURI.add(new URIDistance(fromURI, currentMaxURI, currentMaxDist));
                 }
-                Optional<URIDistance> optional = maxDistsPerURI.stream().max((URIDistance o1, URIDistance o2) ->
-                                                                             Integer.compare(o1.distance, o2.distance));
-                return optional.isPresent() ? optional.get() : null;
+                return new URIDistance(engine.uri(max), engine.uri(ecc.farthest[max]), ecc.eccentricity[max]);
+            }
+        };
+    }
+    /** Ritorna un task che stima la massima distanza tra tutte le coppie di uri appartenenti al dominio di un
+     * BackEnd, senza visitare il grafo da ogni uri (vedi {@link DistanceEngine#diameter}). Mentre il task è in
+     * esecuzione il messaggio riporta i limiti inferiore e superiore trovati e il progresso è il loro rapporto; il
+     * task termina quando i limiti differiscono al più di maxError. La distanza del risultato è il limite
+     * inferiore, raggiunto dalla coppia from, to, e upperBound è il limite superiore.
+     * @param maxError la massima differenza ammessa tra i limiti, 0 per calcolare il valore esatto
+     * @throws IllegalStateException se il SiteCrawler è in esplorazione
+     * @throws IllegalArgumentException se maxError è negativo
+     * @return un task per stimare la massima distanza tra tutte le coppie di uri del dominio */
+    public Task<URIDistance> newApproxMaxURIDistanceTask(int maxError) {
+        if( backEnd.getWorker().isRunning() ) {
+            throw new IllegalStateException("l'esplorazione è ancora in corso");
+        }
+        if (maxError < 0) {
+            throw new IllegalArgumentException("l'errore massimo non può essere negativo");
+        }
+        return new Task<URIDistance>() {
+            @Override
+            protected URIDistance call() throws Exception {
+                DistanceEngine engine = getEngine();
+                ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+                DistanceEngine.DiameterBounds bounds;
+                try {
+                    bounds = engine.diameter(pool, this::isCancelled, maxError, (b) -> {
+                        updateMessage("massima distanza tra " + b.lower + " e " + b.upper);
+                        updateProgress(b.lower, Math.max(b.upper, 1));
+                    });
+                } finally {
+                    pool.shutdownNow();
+                }
+                if (bounds == null) {
+                    return null;
+                }
+                return new URIDistance(engine.uri(bounds.from), engine.uri(bounds.to), bounds.lower, bounds.upper);
             }
         };
     }
     /** Ritorna a mappa delle distanze di un dato uri se è stata calcolata da un precedente task, altrimenti null
      * @throws IllegalStateException se il SiteCrawler è in esplorazione
      * @return la mappa delle distanze di uri o null */
-    public Map<URI, Integer> getMapOrNull(URI uri) {
+    public synchronized Map<URI, Integer> getMapOrNull(URI uri) {
         if( backEnd.getWorker().isRunning() ) {
             throw new IllegalStateException("l'esplorazione è ancora in corso");
         }
         return distanceMap.get(uri);
     }
 
-    /** Ritorna un Callable che calcola la mappa delle distanze di un dato uri.
-     * Questo metodo è scritto per essere chiamato da un Task.
-     * @param uri l'uri di cui calcolare la mappa delle distanze
-     * @param caller il task chiamante
-     * @return la mappa delle distanze di uri*/
-    private Callable<Map<URI, Integer>> getDistancesCalculationCallable(URI uri, Task<?> caller) {
-        return () -> {
-            SiteCrawler crawler = backEnd.getCrawler();
-            URI domain = backEnd.getDomain();
-            // Un ringrazziamento al prof Pellacini per l'algoritmo di visita BFS!
-            // http://pellacini.di.uniroma1.it/teaching/fondamenti14/lectures/lecture20/notes.html
-            Set<URI> visited = new HashSet<>();
-            Stack<URI> active = new Stack<>();
-            visited.add(uri);
-            active.add(uri);
-            Map<URI, Integer> dist = new HashMap<>();
-            dist.put(uri, 0);
-            while ( !active.isEmpty() && !caller.isCancelled() ) {
-                Stack<URI> newActive = new Stack<>();
-                while ( !active.isEmpty() && !caller.isCancelled() ) {
-                    URI visitingURI = active.pop();
-                    if ( crawler.getLoaded().contains(visitingURI)
-                          || crawler.getErrors().contains(visitingURI) )
-                    {
-                        crawler.get(visitingURI).links.stream()// Stream di tutti i link del visitingURI
-                                .filter((u) -> SiteCrawler.checkSeed(domain, u) && (
-                                                crawler.getLoaded().contains(u) || crawler.getLoaded().contains(u))
-                                ).forEach((u) -> {// e per ognuno
-                                    if ( !visited.contains(u) ) {// se non è già stato visitato
-                                        visited.add(u);// lo visita
-                                        newActive.add(u);
-                                        dist.put(u, dist.get(visitingURI) + 1);
-                                    }
-                                });
-                    }
-                }
-                active = newActive;
-            }
-            if ( !caller.isCancelled() ) {
-                distanceMap.put(uri, dist);
-            }
-            return caller.isCancelled() ? null : dist;
-        };
+    /** Ritorna il DistanceEngine sul grafo dei link attuale, costruendolo se necessario */
+    private synchronized DistanceEngine getEngine() {
+        if (engine == null) {
+            engine = new DistanceEngine(backEnd.getLinkGraph().snapshot(), backEnd.getDomain());
+        }
+        return engine;
     }
+
+    /* Static Fields */
+    /** Il numero di mappe delle distanze salvate */
+    private static final int MAP_CACHE_SIZE = 64;
 }
@@ -1,8 +1,10 @@
 package wsa.gui.util;
 
 import javafx.concurrent.Task;
+import wsa.web.CrawlerResult;
 import wsa.web.Loader;
 import wsa.web.WebFactory;
+import wsa.web.html.PageStats;
 import wsa.web.html.Parsed;
 
 import java.net.MalformedURLException;
@@ -11,21 +13,30 @@ import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
 
-/** Una classe che fornisce strumenti per scaricare informazioni da un URI che non possono essere prese direttamente da
- * un {@link wsa.web.CrawlerResult}, ma che potrebbe essere utile visualizzare. Una volta che queste
- * informazioni sono scaricate vengono salvate in un oggetto {@link Extras.ExtraInfo} e sono accessibili
- * tramite il metodo {@link Extras#getExtraInfoOrNull(URI)} senza bisogno di doverle riscaricare. */
+/** Una classe che fornisce alcune informazioni su una pagina che potrebbe essere utile visualizzare. Se il
+ * {@link wsa.web.CrawlerResult} della pagina ha le statistiche calcolate durante l'esplorazione le informazioni
+ * sono ricavate da queste, altrimenti (ad esempio per i risultati di un archivio scritto senza statistiche) la
+ * pagina deve essere riscaricata. Una volta che queste informazioni sono scaricate vengono salvate in un oggetto
+ * {@link Extras.ExtraInfo} e sono accessibili tramite il metodo {@link Extras#getExtraInfoOrNull(URI)} senza
+ * bisogno di doverle riscaricare. */
 public class Extras {
     /* Nested Classes */
-    /** Rappresenta alcune informazioni riguardo un link che non possono essere ricavate da un
-     * {@link wsa.web.CrawlerResult}, ma che un BackEnd potrebbe proporre di visualizzare
-     * riscaricando la pagina. */
+    /** Rappresenta alcune informazioni riguardo un link che non sono tra i link e gli errori di un
+     * {@link wsa.web.CrawlerResult}, ma che un BackEnd potrebbe proporre di visualizzare. Se sono state ricavate
+     * da delle statistiche stats le contiene, altrimenti stats è null. */
     public static class ExtraInfo {
         public final int numberOfNodes;
         public final int numberOfImages;
+        public final PageStats stats;
         public ExtraInfo(int nodes, int images){
             numberOfNodes = nodes;
             numberOfImages = images;
+            stats = null;
+        }
+        public ExtraInfo(PageStats stats){
+            numberOfNodes = stats.nodeCount;
+            numberOfImages = stats.imageCount();
+            this.stats = stats;
         }
     }
 
@@ -45,15 +56,10 @@ public class Extras {
                     Loader loader = WebFactory.getLoader();
                     Parsed parsed = loader.load(url).parsed;
                     if (parsed != null){
-                        int[] numberOfNodes = {0};
-                        parsed.visit((n) -> numberOfNodes[0]++);
-                        int[] numberOfImages = {0};
-                        parsed.visit((n) -> {
-                            if (n.tag != null && n.tag.equals("IMG"))
-                                numberOfImages[0]++;
-                        });
-                        ExtraInfo extraInfo = new ExtraInfo(numberOfNodes[0], numberOfImages[0]);
-                        map.put(uri, extraInfo);
+                        ExtraInfo extraInfo = new ExtraInfo(PageStats.of(parsed));
+                        synchronized (map) {
+                            map.put(uri, extraInfo);
+                        }
                         return extraInfo;
                     } else {
                         return null;
@@ -67,6 +73,16 @@ public class Extras {
     }
     /** Ritorna l'oggetto ExtraInfo di un uri se è già stato scaricato da un Task, altrimenti null */
     public ExtraInfo getExtraInfoOrNull(URI uri) {
-        return map.get(uri);
+        synchronized (map) {
+            return map.get(uri);
+        }
+    }
+    /** Ritorna l'oggetto ExtraInfo della pagina di un risultato, ricavandolo dalle sue statistiche se le ha,
+     * altrimenti come {@link #getExtraInfoOrNull(URI)} */
+    public ExtraInfo getExtraInfoOrNull(CrawlerResult cr) {
+        if (cr.stats != null) {
+            return new ExtraInfo(cr.stats);
+        }
+        return getExtraInfoOrNull(cr.uri);
     }
 }
@@ -1,118 +1,124 @@
 package wsa.gui.util;
 
 import java.net.URI;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Optional;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
-import javafx.beans.binding.ListBinding;
+import javafx.application.Platform;
+import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.IntegerProperty;
 import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleIntegerProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
-import javafx.collections.ObservableSet;
-import javafx.collections.SetChangeListener;
-import javafx.collections.WeakSetChangeListener;
 import javafx.collections.transformation.SortedList;
 import wsa.gui.BackEnd;
 import wsa.web.CrawlerResult;
+import wsa.web.LinkGraph;
 
 /** Una classe di utilità che monitora le pagine che puntano ad ogni URI esplorato da un BackEnd.
  * Tiene traccia dell'URI a cui puntano più pagine (e quante),  permette di ricavare la lista
- * delle pagine che puntano ad ogni URI sotto forma di CrawlerResult*/
+ * delle pagine che puntano ad ogni URI sotto forma di CrawlerResult. I conteggi sono letti dal grafo dei link
+ * dell'esplorazione ({@link LinkGraph}), che li mantiene per identificativo intero; solo la lista dell'ultimo URI
+ * richiesto, quello mostrato, è mantenuta aggiornata in tempo reale. Se l'esplorazione è stata ripristinata da un
+ * archivio il grafo è completato in background: finché non è pronto ({@link #readyProperty}) non ci sono URI
+ * puntati e le liste sono vuote, poi sono riempite sul thread dell'interfaccia grafica. */
 public class Pointings {
     /* Instance Fields */
     public final IntegerProperty maxPointingsProperty = new SimpleIntegerProperty(0);
     public final ObjectProperty<URI> maxPointingURIProperty = new SimpleObjectProperty<>(null);
-    private final Map<URI, ObservableSet<CrawlerResult>> map = new HashMap<URI, ObservableSet<CrawlerResult>>() {
-        @Override public ObservableSet<CrawlerResult> get(Object key) {
-            ObservableSet<CrawlerResult> value = super.get(key);
-            if (value == null) {
-                value = FXCollections.observableSet();
-                put( (URI)key, value );
-            }
-            return value;
-        }
-    };
+    public final BooleanProperty readyProperty = new SimpleBooleanProperty(false);
+    private final BackEnd backEnd;
+    /** Il grafo dei link, null finché non contiene i risultati ripristinati */
+    private LinkGraph graph = null;
+    /** L'URI mostrato, la lista (non ordinata) delle pagine che lo puntano e i loro URI */
+    private URI shownURI = null;
+    private ObservableList<CrawlerResult> shownList = null;
+    private final Set<URI> shownPointers = new HashSet<>();
 
     /* Constructors */
     /** Metodo costruttore
      * @param owner il BackEnd che rappresenta l'esplorazione di un dominio */
     public Pointings(BackEnd owner) {
-        synchronized ( owner.resultObservableList() ) {
-            // Calcola la mappa di tutti i link che puntano ad ogni URI
-            owner.resultObservableList().stream()
-                    .filter((cr) -> cr.links != null && cr.exc == null)
-                    .forEach((cr) ->
-                                    cr.links.stream().forEach((u) ->
-                                            map.get(u).add(cr))
-                    );
-            // Calcola il risultato a cui puntano più link, se è presente
-            Optional<CrawlerResult> optional = owner.resultObservableList().stream().max((o1, o2) -> {
-                int linksPointingToO1 = map.get(o1.uri).size();
-                int linksPointingToO2 = map.get(o2.uri).size();
-                return Integer.compare(linksPointingToO1, linksPointingToO2);
-            });
-            if (optional.isPresent()) {
-                maxPointingURIProperty.setValue(optional.get().uri);
-            }
-            // Listener che mantiene aggiornati tutti i valori
-            owner.resultObservableList().addListener( (ListChangeListener.Change<? extends CrawlerResult> c) -> {
-                while ( c.next() ) {
-                    c.getAddedSubList().forEach( (cr) -> {
-                        if (cr.links != null) {
-                            // Mantiene aggiornata la mappa di tutti i link che puntano ad ogni URI
-                            cr.links.stream().forEach( (u) ->
-                                    addPointer(u, cr) );
-                        }
-                    });
-                }
-            });
-        }
+        backEnd = owner;
+        // Il grafo potrebbe essere ancora in costruzione: i valori sono calcolati quando è pronto
+        owner.getLinkGraphAsync().thenAccept( (g) -> Platform.runLater(() -> setGraph(g)) );
     }
 
     /* Instance Methods */
-    /** Ritorna un ObservableList che si aggiorna costantemente da sola in tempo reale e contiene tutti i CrawlerResult
-     * dell'esplorazione che hanno un certo uri tra i links
+    /** Ritorna un ObservableList che contiene tutti i CrawlerResult dell'esplorazione che hanno un certo uri tra i
+     * links, ordinati per URI. La lista si aggiorna da sola in tempo reale finché non viene richiesta la lista di un
+     * altro uri.
      * @param uri l'uri a cui puntano tutte le pagine della lista ritornata
      * @return un'ObservableList di tutte le pagine che puntano ad uri*/
-    public ObservableList<CrawlerResult> getPointingObservableList(URI uri) {
-        return new ListBinding<CrawlerResult>() {
-            private final ObservableList<CrawlerResult> backEndList;
-            private final SetChangeListener<CrawlerResult> listener;
-            { // Initializer block
-                ObservableList<CrawlerResult> list = FXCollections.observableArrayList();
-                listener = (SetChangeListener.Change<? extends CrawlerResult> c) -> {
-                    if ( c.wasAdded() )
-                        list.add( c.getElementAdded() );
-                    else
-                        list.remove( c.getElementRemoved() );
-                };
-                ObservableSet<CrawlerResult> items = map.get(uri);
-                synchronized (items) {
-                    list.addAll(items);
-                    items.addListener( new WeakSetChangeListener<>(listener) );
-                }
-                backEndList = new SortedList<>(list, (o1, o2) -> o1.uri.compareTo(o2.uri));
-                bind(items);
+    public synchronized ObservableList<CrawlerResult> getPointingObservableList(URI uri) {
+        ObservableList<CrawlerResult> list = FXCollections.observableArrayList();
+        shownPointers.clear();
+        if (graph != null) {
+            for (URI pointer : graph.pointers(uri)) {
+                shownPointers.add(pointer);
+                list.add( backEnd.getCrawler().get(pointer) );
             }
-            @Override
-            protected ObservableList<CrawlerResult> computeValue() {
-                return backEndList;
+        }
+        shownURI = uri;
+        shownList = list;
+        return new SortedList<>(list, (o1, o2) -> o1.uri.compareTo(o2.uri));
+    }
+
+    /** Ritorna gli URI a cui puntano più pagine
+     * @param k il numero massimo di URI da ritornare
+     * @return al più k URI in ordine decrescente di pagine che li puntano */
+    public synchronized List<URI> getMostPointed(int k) {
+        return graph == null ? Collections.emptyList() : graph.topInDegree(k);
+    }
+
+    /** Metodo helper del costruttore: usa il grafo completo, riempie la lista mostrata e registra il listener che
+     * mantiene aggiornati tutti i valori */
+    private void setGraph(LinkGraph g) {
+        synchronized ( backEnd.resultObservableList() ) {
+            synchronized (this) {
+                graph = g;
+                if (shownURI != null) {
+                    for (URI pointer : graph.pointers(shownURI)) {
+                        if ( shownPointers.add(pointer) ) {
+                            shownList.add( backEnd.getCrawler().get(pointer) );
+                        }
+                    }
+                }
             }
-        };
+            // Calcola il risultato a cui puntano più link, se è presente
+            updateMax();
+            backEnd.resultObservableList().addListener( (ListChangeListener.Change<? extends CrawlerResult> c) -> {
+                while ( c.next() ) {
+                    c.getAddedSubList().forEach(this::addPointer);
+                }
+                updateMax();
+            });
+        }
+        readyProperty.setValue(true);
+    }
+
+    /** Metodo helper di setGraph: aggiunge pointer alla lista mostrata se punta all'uri mostrato */
+    private synchronized void addPointer(CrawlerResult pointer) {
+        if ( shownURI != null && pointer.links != null && !shownPointers.contains(pointer.uri)
+             && graph.hasLink(pointer.uri, shownURI) )
+        {
+            shownPointers.add(pointer.uri);
+            shownList.add(pointer);
+        }
     }
 
-    /** Metodo helper del costruttore */
-    private void addPointer(URI uri, CrawlerResult pointer) {
-        Set<CrawlerResult> pointings = map.get(uri);
-        pointings.add(pointer);
-        if ( pointings.size() > maxPointingsProperty.getValue() ) {
-            maxPointingsProperty.setValue( pointings.size() );
+    /** Metodo helper di setGraph: aggiorna l'uri a cui puntano più pagine */
+    private void updateMax() {
+        List<URI> top = graph.topInDegree(1);
+        if ( !top.isEmpty() ) {
+            URI uri = top.get(0);
+            maxPointingsProperty.setValue( graph.inDegree(uri) );
             maxPointingURIProperty.setValue(uri);
         }
     }
@@ -0,0 +1,264 @@
+package wsa.gui.util;
+
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import javafx.collections.ObservableListBase;
+import wsa.web.CrawlerResult;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/** Una vista osservabile, in sola lettura e ordinata per URI dei CrawlerResult di una lista che soddisfano un filtro.
+ * Sostituisce la coppia FilteredList e SortedList: gli elementi sono tenuti in un treap (un albero binario di ricerca
+ * bilanciato con priorità casuali) in cui ogni nodo conosce la dimensione del suo sottoalbero, così l'inserimento,
+ * la rimozione e l'accesso per posizione costano tempo logaritmico e una ListView può scorrere la lista leggendo solo
+ * gli elementi visibili. L'ordine è quello del testo degli URI. I nodi sono memorizzati in array paralleli, senza un
+ * oggetto per nodo. Come ogni ObservableList deve essere usata da un solo thread, quello della lista sorgente. */
+public class SortedResultList extends ObservableListBase<CrawlerResult> {
+    /* Instance Fields */
+    /** I nodi dell'albero vanno da 1 in poi, 0 indica l'assenza di un nodo */
+    private String[] keys = new String[64];
+    private CrawlerResult[] values = new CrawlerResult[64];
+    private int[] left = new int[64];
+    private int[] right = new int[64];
+    private int[] count = new int[64];
+    private int[] priority = new int[64];
+    private int root = 0;
+    private int used = 0;
+    /** I nodi liberati, concatenati tramite left */
+    private int free = 0;
+    private int seed = 0x9E3779B9;
+
+    /* Constructors */
+    /** Crea la vista e la mantiene aggiornata con i cambiamenti di source
+     * @param source la lista di cui mostrare i risultati
+     * @param filter i risultati da mostrare */
+    public SortedResultList(ObservableList<? extends CrawlerResult> source, Predicate<CrawlerResult> filter) {
+        for (CrawlerResult cr : source) {
+            if ( filter.test(cr) ) {
+                insert(cr);
+            }
+        }
+        source.addListener( (ListChangeListener.Change<? extends CrawlerResult> c) -> {
+            beginChange();
+            while ( c.next() ) {
+                if ( c.wasPermutated() || c.wasUpdated() ) {
+                    continue;
+                }
+                for (CrawlerResult cr : c.getRemoved()) {
+                    if ( filter.test(cr) ) {
+                        int index = remove(cr.uri.toString());
+                        if (index >= 0) {
+                            nextRemove(index, cr);
+                        }
+                    }
+                }
+                for (CrawlerResult cr : c.getAddedSubList()) {
+                    if ( filter.test(cr) ) {
+                        String key = cr.uri.toString();
+                        int node = find(key);
+                        if (node != 0) {
+                            CrawlerResult old = values[node];
+                            values[node] = cr;
+                            nextSet(rank(key), old);
+                        } else {
+                            insert(cr);
+                            nextAdd(rank(key), rank(key) + 1);
+                        }
+                    }
+                }
+            }
+            endChange();
+        });
+    }
+
+    /* Instance Methods */
+    @Override
+    public CrawlerResult get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("posizione non valida: " + index);
+        }
+        int t = root;
+        while (true) {
+            int l = count[left[t]];
+            if (index < l) {
+                t = left[t];
+            } else if (index == l) {
+                return values[t];
+            } else {
+                index -= l + 1;
+                t = right[t];
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return count[root];
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        if ( !(o instanceof CrawlerResult) || ((CrawlerResult) o).uri == null ) {
+            return -1;
+        }
+        String key = ((CrawlerResult) o).uri.toString();
+        int node = find(key);
+        return node != 0 && values[node].equals(o) ? rank(key) : -1;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) >= 0;
+    }
+
+    /** @return il nodo con chiave key o 0 se non c'è */
+    private int find(String key) {
+        int t = root;
+        while (t != 0) {
+            int cmp = key.compareTo(keys[t]);
+            if (cmp == 0) {
+                return t;
+            }
+            t = cmp < 0 ? left[t] : right[t];
+        }
+        return 0;
+    }
+
+    /** @return il numero di elementi con chiave minore di key */
+    private int rank(String key) {
+        int rank = 0;
+        int t = root;
+        while (t != 0) {
+            int cmp = key.compareTo(keys[t]);
+            if (cmp <= 0) {
+                if (cmp == 0) {
+                    return rank + count[left[t]];
+                }
+                t = left[t];
+            } else {
+                rank += count[left[t]] + 1;
+                t = right[t];
+            }
+        }
+        return rank;
+    }
+
+    /** Inserisce un risultato la cui chiave non è presente */
+    private void insert(CrawlerResult cr) {
+        int node = newNode(cr);
+        root = insert(root, node);
+    }
+
+    private int insert(int t, int node) {
+        if (t == 0) {
+            return node;
+        }
+        count[t]++;
+        if (keys[node].compareTo(keys[t]) < 0) {
+            left[t] = insert(left[t], node);
+            if (priority[left[t]] > priority[t]) {
+                t = rotateRight(t);
+            }
+        } else {
+            right[t] = insert(right[t], node);
+            if (priority[right[t]] > priority[t]) {
+                t = rotateLeft(t);
+            }
+        }
+        return t;
+    }
+
+    /** Rimuove il risultato con chiave key
+     * @return la posizione che aveva o -1 se non c'era */
+    private int remove(String key) {
+        int node = find(key);
+        if (node == 0) {
+            return -1;
+        }
+        int index = rank(key);
+        root = remove(root, key);
+        keys[node] = null;
+        values[node] = null;
+        left[node] = free;
+        free = node;
+        return index;
+    }
+
+    private int remove(int t, String key) {
+        int cmp = key.compareTo(keys[t]);
+        if (cmp < 0) {
+            left[t] = remove(left[t], key);
+        } else if (cmp > 0) {
+            right[t] = remove(right[t], key);
+        } else {
+            return merge(left[t], right[t]);
+        }
+        count[t]--;
+        return t;
+    }
+
+    /** Unisce due alberi in cui tutte le chiavi di a sono minori di quelle di b */
+    private int merge(int a, int b) {
+        if (a == 0 || b == 0) {
+            return a == 0 ? b : a;
+        }
+        if (priority[a] > priority[b]) {
+            right[a] = merge(right[a], b);
+            count[a] = count[left[a]] + count[right[a]] + 1;
+            return a;
+        }
+        left[b] = merge(a, left[b]);
+        count[b] = count[left[b]] + count[right[b]] + 1;
+        return b;
+    }
+
+    private int rotateRight(int t) {
+        int l = left[t];
+        left[t] = right[l];
+        right[l] = t;
+        count[l] = count[t];
+        count[t] = count[left[t]] + count[right[t]] + 1;
+        return l;
+    }
+
+    private int rotateLeft(int t) {
+        int r = right[t];
+        right[t] = left[r];
+        left[r] = t;
+        count[r] = count[t];
+        count[t] = count[left[t]] + count[right[t]] + 1;
+        return r;
+    }
+
+    /** Alloca un nodo foglia per cr, riusando un nodo liberato se c'è */
+    private int newNode(CrawlerResult cr) {
+        int node;
+        if (free != 0) {
+            node = free;
+            free = left[node];
+        } else {
+            node = ++used;
+            if (node == keys.length) {
+                int capacity = keys.length * 2;
+                keys = Arrays.copyOf(keys, capacity);
+                values = Arrays.copyOf(values, capacity);
+                left = Arrays.copyOf(left, capacity);
+                right = Arrays.copyOf(right, capacity);
+                count = Arrays.copyOf(count, capacity);
+                priority = Arrays.copyOf(priority, capacity);
+            }
+        }
+        keys[node] = cr.uri.toString();
+        values[node] = cr;
+        left[node] = 0;
+        right[node] = 0;
+        count[node] = 1;
+        // xorshift: priorità pseudo-casuali, ma riproducibili
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        priority[node] = seed;
+        return node;
+    }
+}
@@ -0,0 +1,164 @@
+package wsa.gui.util;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.scene.chart.XYChart;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Un istogramma che conta dei valori interi man mano che arrivano e li mostra in una serie di un grafico.
+ * Le classi sono definite da un array crescente di estremi: la classe i contiene i valori maggiori dell'estremo
+ * i - 1 e minori o uguali all'estremo i, l'ultima classe tutti i valori maggiori dell'ultimo estremo. La classe di
+ * un valore è trovata con una ricerca binaria e i conteggi sono in un array di long, quindi aggiungere un valore
+ * non crea oggetti. La serie del grafico è aggiornata nel thread JavaFX al più una volta per fotogramma, qualunque
+ * sia il numero di valori aggiunti nel frattempo. I metodi che modificano i conteggi sono thread-safe. */
+public class StreamingHistogram {
+    /* Static Methods */
+    /** Ritorna gli estremi di una scala logaritmica 0, 1, 2, 5, 10, 20, 50, ... fino al primo estremo maggiore o
+     * uguale a max
+     * @param max il valore massimo da distinguere
+     * @return gli estremi delle classi */
+    public static long[] logScale(long max) {
+        List<Long> edges = new ArrayList<>();
+        edges.add(0L);
+        for (long decade = 1; edges.get(edges.size() - 1) < max; decade *= 10) {
+            for (long step : new long[]{1, 2, 5}) {
+                if (edges.get(edges.size() - 1) < max) {
+                    edges.add(step * decade);
+                }
+            }
+        }
+        return edges.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /* Instance Fields */
+    private final long[] edges;
+    private final long[] counts;
+    private final XYChart.Series<String, Number> series = new XYChart.Series<>();
+    private boolean pending = false;
+    /** Pubblica i conteggi nella serie al prossimo impulso del thread JavaFX e si ferma */
+    private final AnimationTimer publisher = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            stop();
+            publish();
+        }
+    };
+
+    /* Constructors */
+    /** Crea un istogramma vuoto
+     * @param edges gli estremi delle classi, in ordine strettamente crescente
+     * @throws IllegalArgumentException se gli estremi non sono in ordine strettamente crescente */
+    public StreamingHistogram(long... edges) {
+        if (edges.length == 0) {
+            throw new IllegalArgumentException("serve almeno un estremo");
+        }
+        for (int i = 1; i < edges.length; i++) {
+            if (edges[i] <= edges[i - 1]) {
+                throw new IllegalArgumentException("gli estremi devono essere strettamente crescenti");
+            }
+        }
+        this.edges = edges.clone();
+        counts = new long[edges.length + 1];
+        for (int i = 0; i < counts.length; i++) {
+            series.getData().add(new XYChart.Data<>(label(i), 0L));
+        }
+    }
+
+    /* Instance Methods */
+    /** @return il numero di classi */
+    public int size() {
+        return counts.length;
+    }
+
+    /** @return la classe che contiene value */
+    public int bucketOf(long value) {
+        int i = Arrays.binarySearch(edges, value);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    /** @return il nome della classe i, ad esempio "6-15", "0" o "1000+" */
+    public String label(int i) {
+        if (i == edges.length) {
+            return edges[i - 1] + "+";
+        }
+        long from = i == 0 ? Math.min(0, edges[0]) : edges[i - 1] + 1;
+        return from == edges[i] ? String.valueOf(from) : from + "-" + edges[i];
+    }
+
+    /** Conta un valore */
+    public void add(long value) {
+        int i = bucketOf(value);
+        synchronized (this) {
+            counts[i]++;
+        }
+        changed();
+    }
+
+    /** Toglie un valore contato in precedenza */
+    public void remove(long value) {
+        int i = bucketOf(value);
+        synchronized (this) {
+            counts[i]--;
+        }
+        changed();
+    }
+
+    /** Imposta il conteggio di una classe, per metriche di cui si conosce già la distribuzione */
+    public void set(int bucket, long count) {
+        synchronized (this) {
+            if (counts[bucket] == count) {
+                return;
+            }
+            counts[bucket] = count;
+        }
+        changed();
+    }
+
+    /** @return il conteggio della classe i */
+    public synchronized long count(int i) {
+        return counts[i];
+    }
+
+    /** @return il valore massimo della classe i, o Long.MAX_VALUE per l'ultima classe */
+    public long upperEdge(int i) {
+        return i < edges.length ? edges[i] : Long.MAX_VALUE;
+    }
+
+    /** @return la serie del grafico che mostra l'istogramma, da usare solo nel thread JavaFX */
+    public XYChart.Series<String, Number> getSeries() {
+        return series;
+    }
+
+    /** Programma la pubblicazione dei conteggi se non è già programmata */
+    private void changed() {
+        synchronized (this) {
+            if (pending) {
+                return;
+            }
+            pending = true;
+        }
+        if (Platform.isFxApplicationThread()) {
+            publisher.start();
+        } else {
+            Platform.runLater(publisher::start);
+        }
+    }
+
+    /** Copia nella serie i conteggi cambiati */
+    private void publish() {
+        long[] snapshot;
+        synchronized (this) {
+            pending = false;
+            snapshot = counts.clone();
+        }
+        for (int i = 0; i < snapshot.length; i++) {
+            XYChart.Data<String, Number> data = series.getData().get(i);
+            if (data.getYValue().longValue() != snapshot[i]) {
+                data.setYValue(snapshot[i]);
+            }
+        }
+    }
+}
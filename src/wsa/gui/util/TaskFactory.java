@@ -2,6 +2,8 @@ package wsa.gui.util;
 
 import javafx.concurrent.Task;
 import wsa.web.CrawlerResult;
+import wsa.web.GraphSiteCrawler;
+import wsa.web.LinkGraph;
 import wsa.web.SiteCrawler;
 
 import java.net.URI;
@@ -12,7 +14,9 @@ import java.util.*;
  * informazioni, mantenendo la gui reattiva durante il calcolo
  */
 public class TaskFactory {
-    /** Ritorna un task che calcola i link di un SiteCrawler verso un altro dominio
+    /** Ritorna un task che calcola i link di un SiteCrawler verso un altro dominio. Se il SiteCrawler mantiene il
+     * grafo dei link ({@link GraphSiteCrawler}) il calcolo è fatto sul grafo e ogni URI è confrontato con i domini
+     * una volta sola, altrimenti sono letti i link di ogni pagina scaricata.
      * @param crawler il crawler da cui prendere i dati
      * @param crawlerDomain il dominio di crawler
      * @param domain il dominio dei link della lista ritornata
@@ -21,6 +25,10 @@ public class TaskFactory {
         return new Task<Set<URI>>() {
             @Override
             protected Set<URI> call() throws Exception {
+                if (crawler instanceof GraphSiteCrawler) {
+                    return linksToDomain(((GraphSiteCrawler) crawler).getLinkGraph().snapshot(),
+                                         crawlerDomain, domain, this);
+                }
                 // Non prende i link da getLoaded e getErrors perchè il crawler potrebbe
                 // essere in pausa,ma non aver ancora terminato l'esplorazione
                 Set<URI> linkToDomainSet = new HashSet<>();
@@ -36,4 +44,27 @@ public class TaskFactory {
             }
         };
     }
+
+    /** Metodo helper di linksToDomainTask che lavora sul grafo dei link */
+    private static Set<URI> linksToDomain(LinkGraph.Snapshot graph, URI crawlerDomain, URI domain, Task<?> caller) {
+        Set<URI> linkToDomainSet = new HashSet<>();
+        // ogni nodo è confrontato con domain una volta sola
+        BitSet checked = new BitSet(graph.size());
+        for (int u = 0; u < graph.size() && !caller.isCancelled(); u++) {
+            if ( graph.isLoaded(u) && graph.outDegree(u) > 0
+                 && SiteCrawler.checkSeed(crawlerDomain, graph.uri(u)) ) {
+                for (int k = graph.outBegin(u); k < graph.outEnd(u); k++) {
+                    int v = graph.outTarget(k);
+                    if ( !checked.get(v) ) {
+                        checked.set(v);
+                        URI uri = graph.uri(v);
+                        if ( SiteCrawler.checkSeed(domain, uri) ) {
+                            linkToDomainSet.add(uri);
+                        }
+                    }
+                }
+            }
+        }
+        return linkToDomainSet;
+    }
 }
@@ -0,0 +1,408 @@
+package wsa.web;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.IntConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * L'indice di un {@link ArchiveLog}, scritto accanto all'archivio nei file "archive.idx.N" e letto tramite
+ * {@link MappedFile}. Descrive l'archivio fino ad una certa lunghezza: per ogni identificativo della tabella
+ * degli URI contiene la posizione del testo dell'URI e la posizione del suo ultimo risultato, più una tabella
+ * hash (indirizzamento aperto, sondaggio lineare) che associa ad ogni URI il suo identificativo. Così un
+ * archivio può essere aperto senza rileggerlo e i risultati sono ricostruiti dall'archivio solamente quando
+ * vengono richiesti. Il file ha la forma
+ * <pre>  [magic: int] [versione: int] [lunghezza dell'archivio coperta: long] [numero di URI: int]
+ *   [scaricati: int] [errori: int] [capacità della tabella hash: int]
+ *   [posizione del testo di ogni URI: long * numero di URI]
+ *   [posizione del risultato di ogni URI: long * numero di URI]
+ *   [tabella hash: long * capacità]</pre>
+ * La posizione di un risultato è 0 se l'URI non ha risultati ed è negata se il risultato è un errore.
+ * Ogni elemento della tabella hash contiene l'hash dell'URI ({@link UriDictionary#hash(URI)}) nei 32 bit alti e l'identificativo
+ * più uno nei 32 bit bassi (0 indica un elemento vuoto). L'indice è immutabile: è riscritto per intero
+ * su un nuovo file, con il numero N successivo, che compare atomicamente solo quando è completo. Il file di un
+ * indice che è ancora mappato non viene mai sostituito, perché su alcuni sistemi (Windows) un file mappato
+ * non può essere sostituito né cancellato: gli indici precedenti sono cancellati quando possibile e quello
+ * valido è sempre quello con il numero più alto.
+ */
+class ArchiveIndex {
+    /* Static Methods */
+    /** Apre l'indice dell'archivio nella directory dir
+     * @param dir  la directory dell'archivio
+     * @return l'indice o null se non esiste o non corrisponde all'archivio */
+    static ArchiveIndex open(Path dir) throws IOException {
+        Path path = current(dir);
+        Path archivePath = dir.resolve(ArchiveLog.FILE_NAME);
+        if (path == null || !Files.isRegularFile(path) || !Files.isRegularFile(archivePath)) {
+            return null;
+        }
+        MappedFile index;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                return null;
+            }
+            index = MappedFile.map(channel, FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        long archiveLength = index.getLong(8);
+        int uriCount = index.getInt(16);
+        int capacity = index.getInt(28);
+        boolean valid = index.getInt(0) == MAGIC && index.getInt(4) == VERSION
+                        && uriCount >= 0 && capacity > uriCount && Integer.bitCount(capacity) == 1
+                        && index.size() == HEADER_SIZE + 16L * uriCount + 8L * capacity
+                        && archiveLength <= Files.size(archivePath);
+        if (!valid) {
+            return null;
+        }
+        MappedFile archive;
+        try (FileChannel channel = FileChannel.open(archivePath, StandardOpenOption.READ)) {
+            archive = MappedFile.map(channel, FileChannel.MapMode.READ_ONLY, 0, archiveLength);
+        }
+        return new ArchiveIndex(index, archive, archiveLength, uriCount, index.getInt(20), index.getInt(24), capacity);
+    }
+
+    /** Scrive l'indice dell'archivio nella directory dir unendo un indice precedente con le variazioni
+     * avvenute dopo la parte di archivio che questo copre, e sostituisce atomicamente l'indice esistente.
+     * @param dir  la directory dell'archivio
+     * @param old  l'indice precedente o null
+     * @param archiveLength  la lunghezza dell'archivio coperta dal nuovo indice
+     * @param newUris  gli URI aggiunti alla tabella dopo quelli di old: quello con identificativo i nel
+     *                 dizionario ha identificativo i più il numero di URI di old
+     * @param newUriOffsets  le posizioni dei testi di newUris
+     * @param newResults  le posizioni dei risultati aggiunti dopo old, per identificativo */
+    static void write(Path dir, ArchiveIndex old, long archiveLength, UriDictionary newUris, long[] newUriOffsets,
+                      Map<Integer, Long> newResults) throws IOException {
+        int oldCount = old == null ? 0 : old.uriCount;
+        int newCount = newUris.size();
+        int uriCount = oldCount + newCount;
+        int capacity = Integer.highestOneBit(Math.max(16, uriCount * 2 - 1)) << 1;
+        Path last = current(dir);
+        long generation = last == null ? 1 : generation(last) + 1;
+        Path tmp = dir.resolve(FILE_NAME + "." + generation + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            out.write(new byte[HEADER_SIZE]); // l'intestazione è scritta alla fine
+            for (int id = 0; id < oldCount; id++) {
+                out.writeLong(old.uriOffset(id));
+            }
+            for (int i = 0; i < newCount; i++) {
+                out.writeLong(newUriOffsets[i]);
+            }
+            int loadedCount = 0, errorCount = 0;
+            for (int id = 0; id < uriCount; id++) {
+                Long offset = newResults.get(id);
+                long value = offset != null ? offset : (id < oldCount ? old.resultOffset(id) : 0);
+                if (value > 0) {
+                    loadedCount++;
+                } else if (value < 0) {
+                    errorCount++;
+                }
+                out.writeLong(value);
+            }
+            out.flush();
+            // la tabella hash è costruita direttamente nel file mappato
+            MappedFile table = MappedFile.map(channel, FileChannel.MapMode.READ_WRITE,
+                                              HEADER_SIZE + 16L * uriCount, 8L * capacity);
+            if (old != null) {
+                for (int i = 0; i < old.capacity; i++) {
+                    long slot = old.slot(i);
+                    if (slot != 0) {
+                        insert(table, capacity, slot);
+                    }
+                }
+            }
+            for (int i = 0; i < newCount; i++) {
+                int hash = newUris.hashOf(i);
+                insert(table, capacity, ((long) hash << 32) | (oldCount + i + 1));
+            }
+            table.force();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(archiveLength).putInt(uriCount)
+                  .putInt(loadedCount).putInt(errorCount).putInt(capacity).flip();
+            channel.write(header, 0);
+            channel.force(true);
+        }
+        Files.move(tmp, dir.resolve(FILE_NAME + "." + generation), StandardCopyOption.ATOMIC_MOVE);
+        delete(dir, generation);
+    }
+
+    /** Ritorna il file dell'indice più recente nella directory dir
+     * @param dir  la directory dell'archivio
+     * @return il percorso del file o null se non c'è un indice */
+    static Path current(Path dir) throws IOException {
+        Path current = null;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, FILE_NAME + "*")) {
+            for (Path file : files) {
+                if (generation(file) > (current == null ? -1 : generation(current))) {
+                    current = file;
+                }
+            }
+        }
+        return current;
+    }
+
+    /** Cancella i file degli indici nella directory dir con un numero minore di generation, compresi quelli
+     * incompleti. I file che non possono essere cancellati, ad esempio perché sono ancora mappati, sono lasciati
+     * dove sono e saranno cancellati alla prossima scrittura.
+     * @param dir  la directory dell'archivio
+     * @param generation  il numero del primo indice da tenere, {@link Long#MAX_VALUE} per cancellarli tutti */
+    static void delete(Path dir, long generation) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, FILE_NAME + "*")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                // un file incompleto ha il numero dell'indice che stava diventando
+                long g = name.endsWith(".tmp") ? generation(file.resolveSibling(name.substring(0, name.length() - 4)))
+                                               : generation(file);
+                if (g >= 0 && g < generation) {
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch (IOException e) {
+                        // ancora mappato da questo processo
+                    }
+                }
+            }
+        }
+    }
+
+    /** @return il numero del file di un indice, 0 per il file "archive.idx" senza numero, o -1 se il file
+     * non è un indice completo */
+    private static long generation(Path file) {
+        String name = file.getFileName().toString();
+        if (name.equals(FILE_NAME)) {
+            return 0;
+        }
+        if (!name.startsWith(FILE_NAME + ".")) {
+            return -1;
+        }
+        String suffix = name.substring(FILE_NAME.length() + 1);
+        if (suffix.isEmpty() || suffix.length() > 18 || !suffix.chars().allMatch(Character::isDigit)) {
+            return -1;
+        }
+        return Long.parseLong(suffix);
+    }
+
+    /** Inserisce un elemento nella tabella hash in costruzione */
+    private static void insert(MappedFile table, int capacity, long slot) {
+        int i = bucket((int) (slot >>> 32), capacity);
+        while (table.getLong(8L * i) != 0) {
+            i = (i + 1) & (capacity - 1);
+        }
+        table.putLong(8L * i, slot);
+    }
+
+    private static int bucket(int hash, int capacity) {
+        return (hash ^ (hash >>> 16)) & (capacity - 1);
+    }
+
+    /* Instance Fields */
+    private final MappedFile index;
+    private final MappedFile archive;
+    private final long archiveLength;
+    private final int uriCount;
+    private final int loadedCount;
+    private final int errorCount;
+    private final int capacity;
+
+    /* Constructors */
+    private ArchiveIndex(MappedFile index, MappedFile archive, long archiveLength,
+                         int uriCount, int loadedCount, int errorCount, int capacity) {
+        this.index = index;
+        this.archive = archive;
+        this.archiveLength = archiveLength;
+        this.uriCount = uriCount;
+        this.loadedCount = loadedCount;
+        this.errorCount = errorCount;
+        this.capacity = capacity;
+    }
+
+    /* Instance Methods */
+    /** @return la lunghezza dell'archivio descritta da questo indice */
+    long archiveLength() {
+        return archiveLength;
+    }
+
+    /** @return il numero di URI nella tabella */
+    int uriCount() {
+        return uriCount;
+    }
+
+    /** @return il numero di URI scaricati */
+    int loadedCount() {
+        return loadedCount;
+    }
+
+    /** @return il numero di URI che hanno prodotto errori */
+    int errorCount() {
+        return errorCount;
+    }
+
+    /** Ritorna l'identificativo di un URI
+     * @param uri  un URI
+     * @return l'identificativo di uri o -1 se non è nella tabella */
+    int idOf(URI uri) {
+        String s = uri.toString();
+        int hash = UriDictionary.hash(uri);
+        int i = bucket(hash, capacity);
+        long slot = slot(i);
+        while (slot != 0) {
+            int id = (int) slot - 1;
+            if ((int) (slot >>> 32) == hash) {
+                String other = uriString(id);
+                if (other.equals(s) || uri(id).equals(uri)) {
+                    return id;
+                }
+            }
+            i = (i + 1) & (capacity - 1);
+            slot = slot(i);
+        }
+        return -1;
+    }
+
+    /** @return l'URI con l'identificativo id */
+    URI uri(int id) {
+        String s = uriString(id);
+        try {
+            return new URI(s);
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException("URI non valido nell'archivio: " + s);
+        }
+    }
+
+    /** @return true se l'URI con l'identificativo id è stato scaricato */
+    boolean isLoaded(int id) {
+        return id >= 0 && resultOffset(id) > 0;
+    }
+
+    /** @return true se l'URI con l'identificativo id ha prodotto un errore */
+    boolean isError(int id) {
+        return id >= 0 && resultOffset(id) < 0;
+    }
+
+    /** @return true se l'URI con l'identificativo id ha un risultato */
+    boolean hasResult(int id) {
+        return id >= 0 && resultOffset(id) != 0;
+    }
+
+    /** Ricostruisce dall'archivio il risultato di un URI
+     * @param id  l'identificativo dell'URI
+     * @throws IllegalStateException se il record nell'archivio è corrotto
+     * @return il risultato o null se l'URI non ha risultati */
+    CrawlerResult result(int id) {
+        long offset = Math.abs(resultOffset(id));
+        if (offset == 0) {
+            return null;
+        }
+        int length = archive.getInt(offset - 5);
+        byte[] payload = new byte[length];
+        archive.get(offset, payload, length);
+        CRC32 crc = new CRC32();
+        crc.update(archive.get(offset - 1));
+        crc.update(payload, 0, length);
+        if (archive.getInt(offset + length) != (int) crc.getValue()) {
+            throw new IllegalStateException("archivio corrotto");
+        }
+        try {
+            return ArchiveLog.readResult(new DataInputStream(new ByteArrayInputStream(payload)), this::uri);
+        } catch (IOException e) {
+            throw new IllegalStateException("archivio corrotto");
+        }
+    }
+
+    /** Ritorna un iteratore sugli URI scaricati o su quelli che hanno prodotto errori
+     * @param errors  true per gli URI che hanno prodotto errori
+     * @return l'iteratore, nell'ordine degli identificativi */
+    Iterator<URI> iterator(boolean errors) {
+        return new Iterator<URI>() {
+            private int next = advance(0);
+
+            private int advance(int id) {
+                while (id < uriCount && (errors ? !isError(id) : !isLoaded(id))) {
+                    id++;
+                }
+                return id;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next < uriCount;
+            }
+
+            @Override
+            public URI next() {
+                if (next >= uriCount) {
+                    throw new NoSuchElementException();
+                }
+                URI uri = uri(next);
+                next = advance(next + 1);
+                return uri;
+            }
+        };
+    }
+
+    /** Ritorna gli identificativi degli URI che non hanno risultati, cioè quelli ancora da scaricare
+     * @param action  invocata per ogni identificativo, in ordine crescente */
+    void forEachPending(IntConsumer action) {
+        for (int id = 0; id < uriCount; id++) {
+            if (resultOffset(id) == 0) {
+                action.accept(id);
+            }
+        }
+    }
+
+    /** Passa l'hash ({@link UriDictionary#hash(URI)}) di ogni URI che ha un risultato, leggendolo dalla tabella
+     * hash senza ricostruire gli URI
+     * @param action  invocata per ogni hash, in nessun ordine particolare */
+    void forEachResultHash(IntConsumer action) {
+        for (int i = 0; i < capacity; i++) {
+            long slot = slot(i);
+            if (slot != 0 && hasResult((int) slot - 1)) {
+                action.accept((int) (slot >>> 32));
+            }
+        }
+    }
+
+    private String uriString(int id) {
+        long offset = uriOffset(id);
+        int length = archive.getInt(offset);
+        byte[] bytes = new byte[length];
+        archive.get(offset + 4, bytes, length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private long uriOffset(int id) {
+        return index.getLong(HEADER_SIZE + 8L * id);
+    }
+
+    private long resultOffset(int id) {
+        return index.getLong(HEADER_SIZE + 8L * uriCount + 8L * id);
+    }
+
+    private long slot(int i) {
+        return index.getLong(HEADER_SIZE + 16L * uriCount + 8L * i);
+    }
+
+    /* Static Fields */
+    static final String FILE_NAME = "archive.idx";
+
+    private static final int MAGIC = 0x57534958; // "WSIX"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+}
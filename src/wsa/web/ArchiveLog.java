@@ -0,0 +1,457 @@
+package wsa.web;
+
+import wsa.web.html.PageStats;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.zip.CRC32;
+
+/**
+ * Il registro (log) in cui un {@link SimpleSiteCrawler} archivia la sua esplorazione. È un file binario
+ * a cui si aggiungono solamente record in coda. Ogni record ha la forma
+ * <pre>  [lunghezza: int] [tipo: byte] [contenuto: lunghezza byte] [crc32 di tipo e contenuto: int]</pre>
+ * e può essere di tre tipi:
+ * <ul>
+ *     <li>URI: definisce il testo (UTF-8) del prossimo identificativo della tabella degli URI. Tutti
+ *     gli altri record si riferiscono agli URI tramite questi identificativi, così il testo di ogni URI
+ *     è scritto una sola volta;</li>
+ *     <li>RESULT: un {@link CrawlerResult}, dell'eccezione sono salvati solamente il nome della classe e
+ *     il messaggio. Le statistiche della pagina, se presenti, seguono in fondo al record e sono segnalate da
+ *     un bit dei flag, così gli archivi scritti senza di esse restano leggibili. Un risultato toglie il suo URI dagli URI da scaricare e, se la pagina è seguita,
+ *     vi aggiunge i suoi link (esattamente quello che fa il Crawler);</li>
+ *     <li>SEED: un URI aggiunto agli URI da scaricare tramite {@link SiteCrawler#addSeed(URI)}.</li>
+ * </ul>
+ * Lo stato degli URI da scaricare è quindi descritto dalle sole variazioni e non deve mai essere riscritto
+ * per intero. Se l'ultimo record è incompleto o corrotto (ad esempio per un'interruzione durante la
+ * scrittura) la rilettura si ferma all'ultimo record valido e il file è troncato in quel punto.
+ * <p>
+ * Ad ogni {@link #writeIndex()} l'archivio aggiorna il suo {@link ArchiveIndex}. Alla riapertura sono riletti
+ * solamente i record successivi alla parte coperta dall'indice, gli altri restano sul disco e sono letti
+ * dall'indice quando servono. Un URI ancora da scaricare è esattamente un URI della tabella senza risultato.
+ */
+class ArchiveLog implements Closeable {
+    /* Nested Classes */
+    /** Riceve il contenuto dell'archivio durante la rilettura */
+    interface Visitor {
+        /** Invocato per ogni risultato archiviato, nell'ordine di archiviazione */
+        void result(CrawlerResult cr);
+        /** Invocato per ogni seed archiviato, nell'ordine di archiviazione */
+        void seed(URI uri);
+    }
+
+    /* Static Methods */
+    /** Crea un nuovo archivio vuoto nella directory dir, sovrascrivendo quello eventualmente presente
+     * @param dir  la directory dell'archivio
+     * @return l'archivio pronto per aggiungere record */
+    static ArchiveLog create(Path dir) throws IOException {
+        Path path = dir.resolve(FILE_NAME);
+        ArchiveIndex.delete(dir, Long.MAX_VALUE);
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(path))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+        return new ArchiveLog(dir, null, HEADER_SIZE);
+    }
+
+    /** Apre l'archivio nella directory dir. I record coperti da index non sono riletti, i successivi sono
+     * riletti sequenzialmente notificando a visitor il loro contenuto. Tronca l'eventuale coda non valida e
+     * ritorna l'archivio pronto per aggiungere nuovi record.
+     * @param dir  la directory dell'archivio
+     * @param index  l'indice dell'archivio, ottenuto con {@link ArchiveIndex#open(Path)}, o null per
+     *               rileggere tutto l'archivio
+     * @param visitor  chi riceve il contenuto dell'archivio non coperto dall'indice
+     * @throws IllegalArgumentException se dir non contiene un archivio valido
+     * @return l'archivio pronto per aggiungere record */
+    static ArchiveLog open(Path dir, ArchiveIndex index, Visitor visitor) throws IOException {
+        Path path = dir.resolve(FILE_NAME);
+        if (!Files.isRegularFile(path)) {
+            throw new IllegalArgumentException("archivio non valido!");
+        }
+        ArchiveLog log = new ArchiveLog(dir, index, index == null ? HEADER_SIZE : index.archiveLength());
+        log.replay(visitor);
+        return log;
+    }
+
+    /** Helper di open, rilegge i record successivi alla parte coperta dall'indice */
+    private void replay(Visitor visitor) throws IOException {
+        long validLength = length;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IllegalArgumentException("archivio non valido!");
+            }
+            if (validLength > HEADER_SIZE) {
+                channel.position(validLength);
+                in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+            }
+            byte[] buffer = new byte[256];
+            CRC32 crc = new CRC32();
+            while (true) {
+                int recordLength;
+                byte type;
+                try {
+                    recordLength = in.readInt();
+                    if (recordLength < 0 || recordLength > MAX_RECORD_SIZE) {
+                        break;
+                    }
+                    type = in.readByte();
+                    if (buffer.length < recordLength) {
+                        buffer = new byte[Math.max(recordLength, buffer.length * 2)];
+                    }
+                    in.readFully(buffer, 0, recordLength);
+                    crc.reset();
+                    crc.update(type);
+                    crc.update(buffer, 0, recordLength);
+                    if (in.readInt() != (int) crc.getValue()) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(buffer, 0, recordLength));
+                long payloadOffset = validLength + 5;
+                switch (type) {
+                    case TYPE_URI:
+                        addUri(toURI(readString(record)), payloadOffset);
+                        break;
+                    case TYPE_RESULT:
+                        CrawlerResult cr = readResult(record, this::uri);
+                        addResult(cr, payloadOffset);
+                        visitor.result(cr);
+                        break;
+                    case TYPE_SEED:
+                        visitor.seed(uri(record.readInt()));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("archivio non valido!");
+                }
+                validLength += RECORD_OVERHEAD + recordLength;
+            }
+        } catch (EOFException e) {
+            throw new IllegalArgumentException("archivio non valido!");
+        }
+        // elimina l'eventuale record incompleto in coda lasciato da un'interruzione
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            if (channel.size() > validLength) {
+                channel.truncate(validLength);
+            }
+        }
+        length = validLength;
+    }
+
+    /** Legge il contenuto di un record RESULT
+     * @param in  il contenuto del record
+     * @param uris  ritorna l'URI corrispondente ad un identificativo
+     * @return il risultato */
+    static CrawlerResult readResult(DataInputStream in, IntFunction<URI> uris) throws IOException {
+        URI uri = uris.apply(in.readInt());
+        int flags = in.readByte();
+        List<URI> links = null;
+        if ((flags & FLAG_LINKS) != 0) {
+            int n = in.readInt();
+            links = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                links.add(uris.apply(in.readInt()));
+            }
+        }
+        List<String> errRawLinks = null;
+        if ((flags & FLAG_ERR_RAW_LINKS) != 0) {
+            int n = in.readInt();
+            errRawLinks = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                errRawLinks.add(readString(in));
+            }
+        }
+        Exception exc = null;
+        if ((flags & FLAG_EXCEPTION) != 0) {
+            exc = new ArchivedException(readString(in), readString(in));
+        }
+        PageStats stats = null;
+        if ((flags & FLAG_STATS) != 0) {
+            int nodeCount = in.readInt();
+            long textBytes = in.readLong();
+            int n = in.readInt();
+            String[] tags = new String[n];
+            int[] counts = new int[n];
+            for (int i = 0; i < n; i++) {
+                tags[i] = readString(in).intern();
+                counts[i] = in.readInt();
+            }
+            stats = new PageStats(nodeCount, textBytes, tags, counts);
+        }
+        return new CrawlerResult(uri, (flags & FLAG_LINK_PAGE) != 0, links, errRawLinks, exc, stats);
+    }
+
+    /** Legge una stringa UTF-8 preceduta dalla sua lunghezza in byte (-1 per null) */
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Scrive una stringa UTF-8 preceduta dalla sua lunghezza in byte (-1 per null) */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static URI toURI(String s) throws IOException {
+        try {
+            return new URI(s);
+        } catch (URISyntaxException e) {
+            throw new IOException("URI non valido nell'archivio: " + s, e);
+        }
+    }
+
+    /* Instance Fields */
+    private final Path directory;
+    private final Path path;
+    /** L'indice che copre la parte iniziale dell'archivio o null */
+    private final ArchiveIndex index;
+    /** Il numero di URI della tabella coperti dall'indice: gli URI successivi hanno identificativo base + i */
+    private final int base;
+    /** La parte della tabella degli URI non coperta dall'indice: l'URI con identificativo base + i ha
+     * identificativo i nel dizionario, che conserva ogni testo una volta sola */
+    private final UriDictionary uris = new UriDictionary();
+    /** Le posizioni dei testi di uris */
+    private long[] uriOffsets = new long[64];
+    /** Le posizioni dei risultati non coperti dall'indice, negate per gli errori */
+    private final Map<Integer, Long> resultOffsets = new HashMap<>();
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(256);
+    private final DataOutputStream record = new DataOutputStream(recordBytes);
+    private final CRC32 crc = new CRC32();
+    private FileChannel channel = null;
+    private DataOutputStream out = null;
+    private long length;
+
+    /* Constructors */
+    private ArchiveLog(Path dir, ArchiveIndex index, long length) {
+        directory = dir;
+        path = dir.resolve(FILE_NAME);
+        this.index = index;
+        base = index == null ? 0 : index.uriCount();
+        this.length = length;
+    }
+
+    /* Instance Methods */
+    /** Aggiunge in coda il record di un seed
+     * @param uri  l'uri del seed */
+    void appendSeed(URI uri) throws IOException {
+        int id = idOf(uri);
+        record.writeInt(id);
+        writeRecord(TYPE_SEED);
+    }
+
+    /** Aggiunge in coda il record di un risultato
+     * @param cr  il risultato */
+    void appendResult(CrawlerResult cr) throws IOException {
+        // Per prima cosa definisce gli URI che non sono ancora nella tabella
+        int uriId = idOf(cr.uri);
+        int[] linkIds = null;
+        if (cr.links != null) {
+            linkIds = new int[cr.links.size()];
+            int i = 0;
+            for (URI link : cr.links) {
+                linkIds[i++] = idOf(link);
+            }
+        }
+        int flags = (cr.linkPage ? FLAG_LINK_PAGE : 0)
+                    | (cr.links != null ? FLAG_LINKS : 0)
+                    | (cr.errRawLinks != null ? FLAG_ERR_RAW_LINKS : 0)
+                    | (cr.exc != null ? FLAG_EXCEPTION : 0)
+                    | (cr.stats != null ? FLAG_STATS : 0);
+        record.writeInt(uriId);
+        record.writeByte(flags);
+        if (linkIds != null) {
+            record.writeInt(linkIds.length);
+            for (int id : linkIds) {
+                record.writeInt(id);
+            }
+        }
+        if (cr.errRawLinks != null) {
+            record.writeInt(cr.errRawLinks.size());
+            for (String raw : cr.errRawLinks) {
+                writeString(record, raw);
+            }
+        }
+        if (cr.exc != null) {
+            String className = cr.exc instanceof ArchivedException ? ((ArchivedException) cr.exc).getClassName()
+                                                                   : cr.exc.getClass().getName();
+            writeString(record, className);
+            writeString(record, cr.exc.getMessage());
+        }
+        if (cr.stats != null) {
+            record.writeInt(cr.stats.nodeCount);
+            record.writeLong(cr.stats.textBytes);
+            record.writeInt(cr.stats.distinctTags());
+            for (int i = 0; i < cr.stats.distinctTags(); i++) {
+                writeString(record, cr.stats.tag(i));
+                record.writeInt(cr.stats.tagCount(i));
+            }
+        }
+        long offset = writeRecord(TYPE_RESULT);
+        resultOffsets.put(uriId, cr.exc != null ? -offset : offset);
+    }
+
+    /** Scrive su disco i record aggiunti che sono ancora nel buffer */
+    void flush() throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    /** Scrive i record nel buffer e forza il sistema operativo a renderli persistenti sul disco (fsync) */
+    void sync() throws IOException {
+        if (out != null) {
+            out.flush();
+            channel.force(false);
+        }
+    }
+
+    /** Scrive su disco i record nel buffer e aggiorna l'indice in modo che copra tutto l'archivio. L'indice
+     * è riscritto per intero, quindi questo metodo è da usare nei punti di sincronizzazione e non ad ogni
+     * record. */
+    void writeIndex() throws IOException {
+        flush();
+        int count = uris.size();
+        long[] offsets = uriOffsets.length == count ? uriOffsets : Arrays.copyOf(uriOffsets, count);
+        ArchiveIndex.write(directory, index, length, uris, offsets, resultOffsets);
+    }
+
+    /** Scrive su disco i record nel buffer e li chiude. L'archivio può essere comunque riaperto in
+     * scrittura aggiungendo nuovi record. */
+    @Override
+    public void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+            channel = null;
+        }
+    }
+
+    /** @return la lunghezza in byte dell'archivio, compresi i record ancora nel buffer */
+    long length() {
+        return length;
+    }
+
+    /** Ritorna l'URI con l'identificativo id */
+    private URI uri(int id) {
+        return id < base ? index.uri(id) : uris.uri(id - base);
+    }
+
+    /** Ritorna l'identificativo di uri, aggiungendo un record URI se non è ancora nella tabella */
+    private int idOf(URI uri) throws IOException {
+        int id = uris.idOf(uri);
+        if (id >= 0) {
+            return base + id;
+        }
+        if (index != null) {
+            int indexed = index.idOf(uri);
+            if (indexed >= 0) {
+                return indexed;
+            }
+        }
+        // il record URI è scritto subito, prima del record che lo usa e che si sta componendo,
+        // quindi usa un buffer separato
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        writeString(new DataOutputStream(bytes), uri.toString());
+        return addUri(uri, writeFrame(TYPE_URI, bytes.toByteArray(), bytes.size()));
+    }
+
+    /** Aggiunge un URI alla parte della tabella non coperta dall'indice
+     * @param uri  l'URI
+     * @param offset  la posizione del suo testo nell'archivio
+     * @return il suo identificativo */
+    private int addUri(URI uri, long offset) {
+        int i = uris.intern(uri);
+        if (i == uriOffsets.length) {
+            uriOffsets = Arrays.copyOf(uriOffsets, uriOffsets.length * 2);
+        }
+        uriOffsets[i] = offset;
+        return base + i;
+    }
+
+    /** Registra la posizione di un risultato riletto */
+    private void addResult(CrawlerResult cr, long offset) throws IOException {
+        int id = uris.idOf(cr.uri);
+        int uriId = id >= 0 ? base + id : index.idOf(cr.uri);
+        resultOffsets.put(uriId, cr.exc != null ? -offset : offset);
+    }
+
+    /** Scrive il record composto in record e svuota il buffer
+     * @return la posizione del contenuto del record nell'archivio */
+    private long writeRecord(byte type) throws IOException {
+        record.flush();
+        long offset = writeFrame(type, recordBytes.toByteArray(), recordBytes.size());
+        recordBytes.reset();
+        return offset;
+    }
+
+    /** Scrive un record completo di lunghezza e crc
+     * @return la posizione del contenuto del record nell'archivio */
+    private long writeFrame(byte type, byte[] payload, int size) throws IOException {
+        if (out == null) {
+            channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+        }
+        crc.reset();
+        crc.update(type);
+        crc.update(payload, 0, size);
+        out.writeInt(size);
+        out.writeByte(type);
+        out.write(payload, 0, size);
+        out.writeInt((int) crc.getValue());
+        long offset = length + 5;
+        length += RECORD_OVERHEAD + size;
+        return offset;
+    }
+
+    /* Static Fields */
+    static final String FILE_NAME = "archive";
+
+    private static final int MAGIC = 0x57534131; // "WSA1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_OVERHEAD = 4 + 1 + 4;
+    private static final int MAX_RECORD_SIZE = 1 << 28;
+
+    private static final byte TYPE_URI = 1;
+    private static final byte TYPE_RESULT = 2;
+    private static final byte TYPE_SEED = 3;
+
+    private static final int FLAG_LINK_PAGE = 1;
+    private static final int FLAG_LINKS = 1 << 1;
+    private static final int FLAG_ERR_RAW_LINKS = 1 << 2;
+    private static final int FLAG_EXCEPTION = 1 << 3;
+    private static final int FLAG_STATS = 1 << 4;
+}
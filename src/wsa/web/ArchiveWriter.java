@@ -0,0 +1,264 @@
+package wsa.web;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scrive un {@link ArchiveLog} su un thread dedicato, così chi produce i risultati non si ferma mai durante
+ * la scrittura. Risultati e seed sono accodati in una coda limitata: se la coda è piena chi accoda aspetta
+ * (back-pressure) invece di far crescere la memoria senza limiti. Il thread di scrittura preleva dalla coda
+ * tutto quello che trova e lo scrive in un unico blocco (group commit), poi rende persistente il blocco
+ * secondo la {@link CrawlerOptions.SyncPolicy} impostata. Se il thread di scrittura termina per un errore
+ * imprevisto lo scrittore è inutilizzabile: chi accoda o aspetta un flush riceve subito una
+ * {@link IllegalStateException} invece di aspettare per sempre.
+ */
+class ArchiveWriter {
+    /* Nested Classes */
+    /** Un elemento della coda: un risultato, un seed o una richiesta di flush */
+    private static class Entry {
+        final CrawlerResult result;
+        final URI seed;
+        final CountDownLatch flushed;
+        Entry(CrawlerResult r, URI s, CountDownLatch f) {
+            result = r;
+            seed = s;
+            flushed = f;
+        }
+    }
+
+    /* Static Fields */
+    /** L'elemento che chiede al thread di scrittura di chiudere l'archivio e terminare */
+    private static final Entry CLOSE = new Entry(null, null, null);
+    /** Ogni quanti millisecondi chi aspetta che la coda si liberi controlla che il thread di scrittura sia vivo */
+    private static final long DEAD_CHECK_MILLIS = 100;
+
+    /* Instance Fields */
+    private final ArchiveLog log;
+    private final BlockingQueue<Entry> queue;
+    private final CrawlerOptions.SyncPolicy syncPolicy;
+    private final long syncInterval;
+    private final Thread thread;
+    private volatile boolean closed = false;
+    /** true quando il thread di scrittura è terminato: da quel momento niente viene più scritto */
+    private volatile boolean dead = false;
+    private volatile Throwable failure = null;
+
+    /* Constructors */
+    /** Crea lo scrittore e avvia il suo thread
+     * @param log  l'archivio su cui scrivere
+     * @param options  le opzioni che specificano capacità della coda e politica di sincronizzazione */
+    ArchiveWriter(ArchiveLog log, CrawlerOptions options) {
+        this.log = log;
+        queue = new ArrayBlockingQueue<>(options.getArchiveQueueCapacity());
+        syncPolicy = options.getArchiveSyncPolicy();
+        syncInterval = options.getArchiveSyncInterval();
+        thread = new Thread(this::run, "wsa-archive-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /* Instance Methods */
+    /** Accoda un risultato da archiviare. Se la coda è piena aspetta che si liberi spazio.
+     * @param cr  il risultato */
+    void put(CrawlerResult cr) {
+        enqueue(new Entry(cr, null, null));
+    }
+
+    /** Accoda un seed da archiviare. Se la coda è piena aspetta che si liberi spazio.
+     * @param uri  il seed */
+    void putSeed(URI uri) {
+        enqueue(new Entry(null, uri, null));
+    }
+
+    /** Aspetta che tutto quello che è stato accodato finora sia scritto e reso persistente sul disco e che
+     * l'indice dell'archivio sia aggiornato
+     * @throws IllegalStateException se la scrittura dell'archivio è fallita */
+    void flush() {
+        CountDownLatch flushed = new CountDownLatch(1);
+        enqueue(new Entry(null, null, flushed));
+        boolean interrupted = false;
+        while (true) {
+            try {
+                flushed.await();// il thread di scrittura conta anche i flush rimasti in coda quando termina
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw new IllegalStateException("impossibile scrivere sull'archivio", failure);
+        }
+        if (dead) {
+            throw new IllegalStateException("il thread di scrittura dell'archivio è terminato");
+        }
+    }
+
+    /** Scrive quello che è ancora in coda, chiude l'archivio e termina il thread di scrittura
+     * @throws IllegalStateException se la scrittura dell'archivio è fallita */
+    void close() {
+        if (!closed) {
+            try {
+                flush();
+            } finally {
+                // anche se il flush è fallito il thread di scrittura deve chiudere l'archivio e terminare
+                closed = true;
+                if (offer(CLOSE)) {
+                    try {
+                        thread.join();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+    }
+
+    /** Accoda un elemento, aspettando se la coda è piena
+     * @throws IllegalStateException se l'archivio è chiuso o il thread di scrittura è terminato */
+    private void enqueue(Entry entry) {
+        if (closed) {
+            throw new IllegalStateException("l'archivio è chiuso");
+        }
+        if (!offer(entry)) {
+            throw new IllegalStateException("il thread di scrittura dell'archivio è terminato", failure);
+        }
+    }
+
+    /** Accoda un elemento, aspettando se la coda è piena finché il thread di scrittura è vivo
+     * @return true se l'elemento è stato accodato, false se il thread di scrittura è terminato */
+    private boolean offer(Entry entry) {
+        boolean interrupted = false;
+        boolean queued = false;
+        while (!dead && !queued) {
+            try {
+                queued = queue.offer(entry, DEAD_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        // il thread può essere terminato dopo aver svuotato la coda un'ultima volta: l'elemento non sarebbe
+        // mai elaborato
+        return queued && !(dead && queue.remove(entry));
+    }
+
+    /** Ciclo del thread di scrittura */
+    private void run() {
+        List<Entry> batch = new ArrayList<>();
+        long lastSync = System.currentTimeMillis();
+        boolean dirty = false;
+        boolean indexStale = false;
+        boolean stop = false;
+        try {
+            while (!stop) {
+                Entry first = syncPolicy == CrawlerOptions.SyncPolicy.INTERVAL && dirty
+                              ? queue.poll(syncInterval, TimeUnit.MILLISECONDS)
+                              : queue.take();
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch);
+                    boolean written = write(batch);
+                    dirty |= written;
+                    indexStale |= written;
+                }
+                boolean mustFlush = batch.stream().anyMatch((e) -> e.flushed != null);
+                stop = batch.contains(CLOSE);
+                long now = System.currentTimeMillis();
+                boolean mustSync = mustFlush
+                                   || syncPolicy == CrawlerOptions.SyncPolicy.EVERY_BATCH
+                                   || (syncPolicy == CrawlerOptions.SyncPolicy.INTERVAL && now - lastSync >= syncInterval);
+                if (dirty && mustSync) {
+                    sync();
+                    lastSync = now;
+                    dirty = false;
+                }
+                if (mustFlush && indexStale) {
+                    writeIndex();
+                    indexStale = false;
+                }
+                batch.forEach((e) -> {
+                    if (e.flushed != null) e.flushed.countDown();
+                });
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // il thread è terminato senza chiusura esplicita: chiude comunque l'archivio
+        } catch (RuntimeException | Error e) {
+            System.out.println(e);
+            failure = e;
+        } finally {
+            dead = true;
+            try {
+                log.close();
+            } catch (IOException | RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+            // sblocca chi aspetta un flush ancora in coda: lo troverà fallito
+            queue.drainTo(batch);
+            batch.forEach((e) -> {
+                if (e.flushed != null) e.flushed.countDown();
+            });
+        }
+    }
+
+    /** Scrive un blocco di elementi nell'archivio
+     * @return true se è stato scritto qualcosa */
+    private boolean write(List<Entry> batch) {
+        boolean written = false;
+        try {
+            for (Entry e : batch) {
+                if (e.result != null) {
+                    log.appendResult(e.result);
+                    written = true;
+                } else if (e.seed != null) {
+                    log.appendSeed(e.seed);
+                    written = true;
+                }
+            }
+            if (written) {
+                log.flush();
+            }
+        } catch (IOException e) {
+            System.out.println(e);
+            failure = e;
+        }
+        return written;
+    }
+
+    /** Aggiorna l'indice dell'archivio, così alla riapertura non deve essere riletto */
+    private void writeIndex() {
+        try {
+            log.writeIndex();
+        } catch (IOException e) {
+            System.out.println(e);
+            failure = e;
+        }
+    }
+
+    /** Rende persistente sul disco quello che è stato scritto, se la politica lo prevede */
+    private void sync() {
+        try {
+            if (syncPolicy == CrawlerOptions.SyncPolicy.NONE) {
+                log.flush();
+            } else {
+                log.sync();
+            }
+        } catch (IOException e) {
+            System.out.println(e);
+            failure = e;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package wsa.web;
+
+/**
+ * L'eccezione di un {@link CrawlerResult} ripristinato da un archivio. Nell'archivio di un SiteCrawler
+ * non sono salvate le eccezioni intere ma solamente il nome della loro classe e il loro messaggio,
+ * questa classe le rappresenta in modo che {@link #toString()} dia lo stesso testo dell'eccezione originale.
+ */
+class ArchivedException extends Exception {
+    /** Crea l'eccezione
+     * @param className  il nome della classe dell'eccezione originale
+     * @param message  il messaggio dell'eccezione originale o null */
+    ArchivedException(String className, String message) {
+        super(message, null, false, false);
+        this.className = className;
+    }
+
+    /** @return il nome della classe dell'eccezione originale */
+    String getClassName() {
+        return className;
+    }
+
+    @Override
+    public String toString() {
+        String message = getLocalizedMessage();
+        return message != null ? className + ": " + message : className;
+    }
+
+    private final String className;
+
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,28 @@
+package wsa.web;
+
+import java.net.URL;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/** Un loader asincrono che ritorna dei {@link CompletableFuture}, così chi lo usa può comporre i risultati e
+ * reagire al completamento senza interrogare il Future, e che permette di imporre una scadenza ad ogni
+ * download. Cancellare il Future ritornato interrompe il download: il Loader che lo esegue viene interrotto e
+ * il worker è subito libero per il download successivo. */
+public interface CompletableAsyncLoader extends AsyncLoader {
+    /** Sottomette il downloading della pagina dello specificato URL, senza scadenza.
+     * @param url  un URL di una pagina web
+     * @throws IllegalStateException se il loader è chiuso
+     * @return un CompletableFuture che si completa con il risultato */
+    @Override
+    CompletableFuture<LoadResult> submit(URL url);
+
+    /** Sottomette il downloading della pagina dello specificato URL con una scadenza. Se il download non
+     * termina entro timeout (contato dalla sottomissione) viene interrotto e il Future si completa con un
+     * LoadResult la cui eccezione è una {@link java.util.concurrent.TimeoutException}.
+     * @param url  un URL di una pagina web
+     * @param timeout  il tempo massimo concesso al download, positivo
+     * @throws IllegalStateException se il loader è chiuso
+     * @throws IllegalArgumentException se timeout non è positivo
+     * @return un CompletableFuture che si completa con il risultato */
+    CompletableFuture<LoadResult> submit(URL url, Duration timeout);
+}
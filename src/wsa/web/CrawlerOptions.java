@@ -0,0 +1,346 @@
+package wsa.web;
+
+import java.net.URI;
+import java.util.function.ToIntBiFunction;
+
+/** Le opzioni con cui può essere creato un {@link wsa.web.Crawler} tramite
+ * {@link WebFactory#getCrawler(java.util.Collection, java.util.Collection, java.util.Collection,
+ * java.util.function.Predicate, CrawlerOptions)}. I metodi che impostano le opzioni ritornano
+ * l'oggetto stesso in modo da poter essere concatenati. Un oggetto creato con il costruttore
+ * senza ulteriori impostazioni riproduce il comportamento di default del Crawler. */
+public class CrawlerOptions {
+    /* Nested Classes */
+    /** Quando l'archivio di un SiteCrawler viene reso persistente sul disco (fsync) */
+    public enum SyncPolicy {
+        /** Mai: i dati sono solamente passati al sistema operativo */
+        NONE,
+        /** Al più una volta ogni intervallo impostato con {@link #archiveSync(SyncPolicy, long)} */
+        INTERVAL,
+        /** Dopo ogni blocco di record scritto */
+        EVERY_BATCH
+    }
+
+    /* Constructors */
+    /** Crea le opzioni di default: nessun limite per host e nessun ritardo tra le richieste */
+    public CrawlerOptions() { }
+
+    /* Instance Methods */
+    /** Imposta il numero massimo di download contemporanei verso uno stesso host
+     * @param max  un intero positivo
+     * @throws IllegalArgumentException se max non è positivo
+     * @return queste opzioni */
+    public CrawlerOptions maxInFlightPerHost(int max) {
+        if (max <= 0) {
+            throw new IllegalArgumentException("il numero massimo di download per host deve essere positivo");
+        }
+        maxInFlightPerHost = max;
+        return this;
+    }
+
+    /** Imposta il tempo minimo che deve passare tra l'inizio di due download verso uno stesso host
+     * @param millis  il ritardo minimo in millisecondi, non negativo
+     * @throws IllegalArgumentException se millis è negativo
+     * @return queste opzioni */
+    public CrawlerOptions minDelayPerHost(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("il ritardo minimo per host non può essere negativo");
+        }
+        minDelayPerHost = millis;
+        return this;
+    }
+
+    /** Imposta quando l'archivio di un SiteCrawler viene reso persistente sul disco
+     * @param policy  la politica di sincronizzazione
+     * @param intervalMillis  l'intervallo in millisecondi per {@link SyncPolicy#INTERVAL}, positivo
+     * @throws IllegalArgumentException se policy è null o intervalMillis non è positivo
+     * @return queste opzioni */
+    public CrawlerOptions archiveSync(SyncPolicy policy, long intervalMillis) {
+        if (policy == null) {
+            throw new IllegalArgumentException("la politica di sincronizzazione non può essere null");
+        }
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("l'intervallo di sincronizzazione deve essere positivo");
+        }
+        archiveSyncPolicy = policy;
+        archiveSyncInterval = intervalMillis;
+        return this;
+    }
+
+    /** Imposta quanti record possono essere in attesa di essere scritti nell'archivio di un SiteCrawler.
+     * Quando l'attesa è piena chi produce i risultati aspetta che la scrittura avanzi.
+     * @param capacity  un intero positivo
+     * @throws IllegalArgumentException se capacity non è positivo
+     * @return queste opzioni */
+    public CrawlerOptions archiveQueueCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("la capacità della coda dell'archivio deve essere positiva");
+        }
+        archiveQueueCapacity = capacity;
+        return this;
+    }
+
+    /** Fa eseguire ogni download in un thread virtuale, se la JVM li supporta (Java 21 o successiva), invece che
+     * in un pool di thread di piattaforma. I download contemporanei sono limitati solamente da maxConcurrentLoads
+     * e dai limiti per host, quindi possono essere migliaia senza occupare altrettanti thread del sistema
+     * operativo. Pensata per i Loader che non usano una WebEngine, come quelli di
+     * {@link WebFactory#getHttpLoaderFactory()}. Se la JVM non supporta i thread virtuali i download sono eseguiti
+     * dal pool di thread di piattaforma di default, con al più maxConcurrentLoads thread.
+     * @param maxConcurrentLoads  il numero massimo di download contemporanei, positivo
+     * @throws IllegalArgumentException se maxConcurrentLoads non è positivo
+     * @return queste opzioni */
+    public CrawlerOptions virtualThreads(int maxConcurrentLoads) {
+        if (maxConcurrentLoads <= 0) {
+            throw new IllegalArgumentException("il numero di download contemporanei deve essere positivo");
+        }
+        virtualThreads = true;
+        this.maxConcurrentLoads = maxConcurrentLoads;
+        return this;
+    }
+
+    /** Imposta il tempo massimo concesso ad ogni download: un download che non termina in tempo viene
+     * interrotto e l'URI finisce tra gli errori con una {@link java.util.concurrent.TimeoutException}
+     * @param millis  il tempo massimo in millisecondi, positivo, o 0 per nessun limite
+     * @throws IllegalArgumentException se millis è negativo
+     * @return queste opzioni */
+    public CrawlerOptions loadTimeout(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("il tempo massimo di un download non può essere negativo");
+        }
+        loadTimeout = millis;
+        return this;
+    }
+
+    /** Mette un filtro probabilistico (un filtro di Bloom) davanti agli URI già elaborati che restano sul disco,
+     * come quelli coperti dall'indice dell'archivio di un SiteCrawler ripristinato. Il filtro è dimensionato per
+     * expectedUris URI e occupa circa 10 bit per URI: per un URI che il filtro non ha mai visto, come quasi tutti
+     * quelli nuovi trovati nelle pagine, non serve più cercare sul disco. Se approximate è false il filtro non
+     * cambia i risultati, perché quando risponde che un URI potrebbe essere già elaborato la risposta è
+     * verificata sul disco. Se approximate è true la risposta del filtro è definitiva e il disco non è mai
+     * consultato: circa un URI nuovo su cento è scambiato per uno già elaborato e non viene scaricato. Pensata
+     * per le esplorazioni molto grandi in cui conta più la velocità che la completezza.
+     * @param expectedUris  il numero previsto di URI già elaborati, positivo
+     * @param approximate  se true la risposta del filtro non è verificata
+     * @throws IllegalArgumentException se expectedUris non è positivo
+     * @return queste opzioni */
+    public CrawlerOptions seenFilter(long expectedUris, boolean approximate) {
+        if (expectedUris <= 0) {
+            throw new IllegalArgumentException("il numero di URI previsto deve essere positivo");
+        }
+        this.expectedUris = expectedUris;
+        approximateSeen = approximate;
+        return this;
+    }
+
+    /** Imposta la profondità massima dell'esplorazione: i seed hanno profondità 0 e i link di una pagina a
+     * profondità d hanno profondità d + 1. Gli URI oltre la profondità massima non sono né scaricati né
+     * controllati. La profondità di un URI è quella a cui è stato trovato la prima volta; gli URI da scaricare
+     * ripristinati da un archivio ripartono da 0. Il Crawler registra le profondità fino a
+     * {@link UriStateTable#MAX_DEPTH}, quindi la profondità massima può essere al più MAX_DEPTH - 1; senza
+     * limite le profondità maggiori sono registrate come MAX_DEPTH.
+     * @param depth  la profondità massima, tra 0 e {@link UriStateTable#MAX_DEPTH} - 1
+     * @throws IllegalArgumentException se depth è negativa o maggiore di MAX_DEPTH - 1
+     * @return queste opzioni */
+    public CrawlerOptions maxDepth(int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("la profondità massima non può essere negativa");
+        }
+        if (depth > UriStateTable.MAX_DEPTH - 1) {
+            throw new IllegalArgumentException("la profondità massima non può superare "
+                                               + (UriStateTable.MAX_DEPTH - 1));
+        }
+        maxDepth = depth;
+        return this;
+    }
+
+    /** Imposta il numero massimo di pagine seguite (quelle di cui sono estratti i link) che il Crawler scarica
+     * dal momento in cui è creato. Raggiunto il limite gli URI ancora da scaricare sono scartati: non sono più
+     * tra quelli da scaricare, così l'esplorazione termina appena finiscono i download in corso.
+     * @param pages  il numero massimo di pagine, positivo
+     * @throws IllegalArgumentException se pages non è positivo
+     * @return queste opzioni */
+    public CrawlerOptions maxPages(long pages) {
+        if (pages <= 0) {
+            throw new IllegalArgumentException("il numero massimo di pagine deve essere positivo");
+        }
+        maxPages = pages;
+        return this;
+    }
+
+    /** Imposta il tempo massimo per cui il Crawler può essere in esecuzione, sommando le esecuzioni
+     * interrotte da una sospensione. Scaduto il tempo gli URI ancora da scaricare sono scartati come per
+     * {@link #maxPages(long)}.
+     * @param millis  il tempo massimo in millisecondi, positivo, o 0 per nessun limite
+     * @throws IllegalArgumentException se millis è negativo
+     * @return queste opzioni */
+    public CrawlerOptions maxTime(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("il tempo massimo dell'esplorazione non può essere negativo");
+        }
+        maxTime = millis;
+        return this;
+    }
+
+    /** Limita il numero di pagine seguite con uno stesso prefisso del percorso, formato dallo schema,
+     * dall'autorità e dai primi segments segmenti del percorso: con segments uguale a 1 le pagine
+     * http://h/catalogo/a e http://h/catalogo/b/c hanno lo stesso prefisso http://h/catalogo/. Le pagine oltre
+     * il limite sono scartate. Serve a non esaurire le risorse in sezioni enormi di un sito, come le
+     * paginazioni o le combinazioni di filtri di un catalogo.
+     * @param segments  il numero di segmenti del prefisso, non negativo
+     * @param pages  il numero massimo di pagine per prefisso, positivo
+     * @throws IllegalArgumentException se segments è negativo o pages non è positivo
+     * @return queste opzioni */
+    public CrawlerOptions maxPagesPerPrefix(int segments, int pages) {
+        if (segments < 0) {
+            throw new IllegalArgumentException("il numero di segmenti del prefisso non può essere negativo");
+        }
+        if (pages <= 0) {
+            throw new IllegalArgumentException("il numero massimo di pagine per prefisso deve essere positivo");
+        }
+        prefixSegments = segments;
+        maxPagesPerPrefix = pages;
+        return this;
+    }
+
+    /** Imposta la priorità con cui sono scaricati gli URI. La funzione riceve un URI e la sua profondità e
+     * ritorna un livello tra 0, la priorità più alta, e 31; i valori fuori da questo intervallo sono riportati
+     * al più vicino. Tra gli URI che possono essere scaricati rispettando i limiti per host sono scelti prima
+     * quelli di livello più basso, e a parità di livello quelli aggiunti prima. Di default il livello è la
+     * profondità, quindi l'esplorazione procede in ampiezza e le pagine meno profonde sono scaricate per prime.
+     * La profondità ricevuta non supera {@link UriStateTable#MAX_DEPTH}: gli URI più profondi la ricevono pari
+     * a MAX_DEPTH.
+     * @param priority  la funzione che assegna il livello di priorità
+     * @throws IllegalArgumentException se priority è null
+     * @return queste opzioni */
+    public CrawlerOptions priority(ToIntBiFunction<URI, Integer> priority) {
+        if (priority == null) {
+            throw new IllegalArgumentException("la funzione di priorità non può essere null");
+        }
+        this.priority = priority;
+        return this;
+    }
+
+    /** Imposta la forma canonica dei link trovati nelle pagine. I link sono sempre risolti e normalizzati come
+     * descritto nella RFC 3986 (schema e host in minuscolo, porta di default tolta, segmenti . e .. rimossi,
+     * sequenze di escape normalizzate); queste opzioni aggiungono due regole che possono unire URI che il sito
+     * considera diversi, quindi di default sono disattivate.
+     * @param stripFragment  se true il frammento è eliminato, così http://h/p#a e http://h/p#b sono lo stesso URI
+     * @param sortQuery  se true i parametri della query sono ordinati per nome, così http://h/p?b=1&amp;a=2 e
+     *                   http://h/p?a=2&amp;b=1 sono lo stesso URI
+     * @return queste opzioni */
+    public CrawlerOptions canonicalLinks(boolean stripFragment, boolean sortQuery) {
+        this.stripFragment = stripFragment;
+        this.sortQuery = sortQuery;
+        return this;
+    }
+
+    /** @return il numero massimo di download contemporanei verso uno stesso host */
+    public int getMaxInFlightPerHost() {
+        return maxInFlightPerHost;
+    }
+
+    /** @return il ritardo minimo in millisecondi tra due download verso uno stesso host */
+    public long getMinDelayPerHost() {
+        return minDelayPerHost;
+    }
+
+    /** @return quando l'archivio di un SiteCrawler viene reso persistente sul disco */
+    public SyncPolicy getArchiveSyncPolicy() {
+        return archiveSyncPolicy;
+    }
+
+    /** @return l'intervallo in millisecondi tra due sincronizzazioni dell'archivio */
+    public long getArchiveSyncInterval() {
+        return archiveSyncInterval;
+    }
+
+    /** @return quanti record possono essere in attesa di essere scritti nell'archivio */
+    public int getArchiveQueueCapacity() {
+        return archiveQueueCapacity;
+    }
+
+    /** @return il tempo massimo in millisecondi concesso ad ogni download, 0 se non c'è limite */
+    public long getLoadTimeout() {
+        return loadTimeout;
+    }
+
+    /** @return true se ogni download è eseguito in un thread virtuale */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /** @return il numero massimo di download contemporanei se i download sono eseguiti in thread virtuali,
+     * altrimenti 0 e il numero è quello di default dell'AsyncLoader */
+    public int getMaxConcurrentLoads() {
+        return maxConcurrentLoads;
+    }
+
+    /** @return il numero previsto di URI già elaborati per cui è dimensionato il filtro, 0 se non c'è filtro */
+    public long getExpectedUris() {
+        return expectedUris;
+    }
+
+    /** @return true se la risposta del filtro sugli URI già elaborati è definitiva */
+    public boolean isApproximateSeen() {
+        return approximateSeen;
+    }
+
+    /** @return la profondità massima dell'esplorazione */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /** @return il numero massimo di pagine seguite scaricate */
+    public long getMaxPages() {
+        return maxPages;
+    }
+
+    /** @return il tempo massimo di esecuzione in millisecondi, 0 se non c'è limite */
+    public long getMaxTime() {
+        return maxTime;
+    }
+
+    /** @return il numero di segmenti del percorso dei prefissi limitati da {@link #maxPagesPerPrefix(int, int)} */
+    public int getPrefixSegments() {
+        return prefixSegments;
+    }
+
+    /** @return il numero massimo di pagine seguite per prefisso */
+    public int getMaxPagesPerPrefix() {
+        return maxPagesPerPrefix;
+    }
+
+    /** @return la funzione che assegna il livello di priorità ad un URI data la sua profondità */
+    public ToIntBiFunction<URI, Integer> getPriority() {
+        return priority;
+    }
+
+    /** @return true se il frammento dei link è eliminato */
+    public boolean isStripFragment() {
+        return stripFragment;
+    }
+
+    /** @return true se i parametri della query dei link sono ordinati per nome */
+    public boolean isSortQuery() {
+        return sortQuery;
+    }
+
+    /* Instance Fields */
+    private int maxInFlightPerHost = Integer.MAX_VALUE;
+    private long minDelayPerHost = 0;
+    private SyncPolicy archiveSyncPolicy = SyncPolicy.INTERVAL;
+    private long archiveSyncInterval = 30000;
+    private int archiveQueueCapacity = 4096;
+    private long loadTimeout = 0;
+    private boolean virtualThreads = false;
+    private int maxConcurrentLoads = 0;
+    private long expectedUris = 0;
+    private boolean approximateSeen = false;
+    private int maxDepth = Integer.MAX_VALUE;
+    private long maxPages = Long.MAX_VALUE;
+    private long maxTime = 0;
+    private int prefixSegments = 0;
+    private int maxPagesPerPrefix = Integer.MAX_VALUE;
+    private ToIntBiFunction<URI, Integer> priority = (uri, depth) -> depth;
+    private boolean stripFragment = false;
+    private boolean sortQuery = false;
+}
@@ -1,5 +1,7 @@
 package wsa.web;
 
+import wsa.web.html.PageStats;
+
 import java.net.URI;
 import java.util.List;
 
@@ -19,13 +21,20 @@ public class CrawlerResult {
     /** Se è null, la pagina è stata scaricata altrimenti non è stato possibile
      * scaricarla e l'eccezione ne dà la causa */
     public final Exception exc;
+    /** Le statistiche della pagina scaricata, calcolate mentre è stata analizzata, o null se non sono note */
+    public final PageStats stats;
 
     public CrawlerResult(URI u, boolean lp, List<URI> ll, List<String> erl, Exception e) {
+        this(u, lp, ll, erl, e, null);
+    }
+
+    public CrawlerResult(URI u, boolean lp, List<URI> ll, List<String> erl, Exception e, PageStats ps) {
         uri = u;
         linkPage = lp;
         links = ll;
         errRawLinks = erl;
         exc = e;
+        stats = ps;
     }
 }
 
@@ -0,0 +1,21 @@
+package wsa.web;
+
+import java.util.concurrent.CompletableFuture;
+
+/** Un {@link SiteCrawler} che mantiene il grafo dei link delle pagine esplorate. I SiteCrawler forniti da
+ * {@link WebFactory#getSiteCrawler(java.net.URI, java.nio.file.Path)} implementano questa interfaccia. */
+public interface GraphSiteCrawler extends SiteCrawler {
+    /** Ritorna il grafo dei link di tutte le pagine scaricate o che hanno prodotto errori, compresi i
+     * risultati ripristinati da un archivio, attendendo che questi ultimi siano stati aggiunti. Il grafo si
+     * aggiorna durante l'esplorazione.
+     * @throws IllegalStateException se il SiteCrawler è cancellato
+     * @return il grafo dei link */
+    LinkGraph getLinkGraph();
+
+    /** Ritorna un future che si completa con il grafo dei link quando contiene anche i risultati ripristinati
+     * da un archivio, senza attendere che siano letti dal disco: si usa da un thread che non deve bloccarsi,
+     * come quello dell'interfaccia grafica. Il future è cancellato se il SiteCrawler viene cancellato prima.
+     * @throws IllegalStateException se il SiteCrawler è cancellato
+     * @return il future del grafo dei link */
+    CompletableFuture<LinkGraph> getLinkGraphAsync();
+}
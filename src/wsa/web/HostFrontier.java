@@ -0,0 +1,322 @@
+package wsa.web;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * La frontiera degli URI da scaricare di un {@link SimpleCrawler}, organizzata in una coda per ogni host.
+ * Ogni URI ha una priorità tra 0 (la più alta) e {@link #LEVELS} - 1 e la coda di ogni host è divisa in un
+ * secchio per priorità: l'host serve sempre il primo URI del suo secchio migliore. Gli host sono a loro volta
+ * in un anello per livello, quello del loro secchio migliore, e gli anelli sono visitati dal livello più alto:
+ * a parità di livello gli host sono serviti a turno (round-robin). Un URI viene estratto solamente se il suo
+ * host ha meno di maxInFlight download in corso e se dall'ultimo download verso quell'host è passato almeno
+ * minDelay, altrimenti si passa all'host successivo, anche di un livello inferiore. Un host che raggiunge
+ * maxInFlight download in corso esce dagli anelli e vi rientra quando uno dei suoi download termina, quindi
+ * gli host al limite non sono visitati a vuoto. Così un host lento non occupa tutti i worker, un host veloce
+ * non viene sovraccaricato e trovare il prossimo URI non dipende dal numero di URI in attesa né dal numero di
+ * host al limite.
+ * Le code contengono gli identificativi degli URI nel {@link UriDictionary} del Crawler.
+ * Tutti i metodi sono thread-safe.
+ */
+class HostFrontier {
+    /* Nested Classes */
+    /** Una coda circolare di identificativi */
+    private static class IdQueue {
+        int[] queue = new int[8];
+        int head = 0;
+        int count = 0;
+
+        void addLast(int id) {
+            grow();
+            queue[(head + count++) & (queue.length - 1)] = id;
+        }
+
+        void addFirst(int id) {
+            grow();
+            head = (head - 1) & (queue.length - 1);
+            queue[head] = id;
+            count++;
+        }
+
+        int pollFirst() {
+            int id = queue[head];
+            head = (head + 1) & (queue.length - 1);
+            count--;
+            if (queue.length > 8 && count < queue.length / 4) {
+                resize(queue.length / 2);
+            }
+            return id;
+        }
+
+        void forEach(IntConsumer action) {
+            for (int i = 0; i < count; i++) {
+                action.accept(queue[(head + i) & (queue.length - 1)]);
+            }
+        }
+
+        private void grow() {
+            if (count == queue.length) {
+                resize(queue.length * 2);
+            }
+        }
+
+        private void resize(int length) {
+            int[] resized = new int[length];
+            for (int i = 0; i < count; i++) {
+                resized[i] = queue[(head + i) & (queue.length - 1)];
+            }
+            queue = resized;
+            head = 0;
+        }
+    }
+
+    /** Gli URI di un host, un secchio per priorità, con il relativo stato */
+    private static class HostQueue {
+        final IdQueue[] buckets = new IdQueue[LEVELS];
+        /** Il bit p è 1 se il secchio p non è vuoto */
+        int nonEmpty = 0;
+        int inFlight = 0;
+        long nextAllowed = 0;
+        /** Il livello dell'anello in cui l'host ha un posto valido, -1 se non ne ha, e la generazione di quel
+         * posto: i posti con una generazione diversa sono stati abbandonati e sono scartati quando incontrati */
+        int level = -1;
+        int generation = 0;
+        /** true se l'host ha maxInFlight download in corso: non ha posti negli anelli finché uno non termina */
+        boolean parked = false;
+
+        void add(int priority, int id, boolean first) {
+            IdQueue bucket = buckets[priority];
+            if (bucket == null) {
+                bucket = buckets[priority] = new IdQueue();
+            }
+            if (first) {
+                bucket.addFirst(id);
+            } else {
+                bucket.addLast(id);
+            }
+            nonEmpty |= 1 << priority;
+        }
+
+        /** Estrae il primo URI del secchio migliore */
+        int pollBest() {
+            int priority = best();
+            IdQueue bucket = buckets[priority];
+            int id = bucket.pollFirst();
+            if (bucket.count == 0) {
+                buckets[priority] = null;
+                nonEmpty &= ~(1 << priority);
+            }
+            return id;
+        }
+
+        /** @return la priorità del secchio migliore, -1 se l'host non ha URI in attesa */
+        int best() {
+            return nonEmpty == 0 ? -1 : Integer.numberOfTrailingZeros(nonEmpty);
+        }
+    }
+
+    /** Il posto di un host in un anello */
+    private static class Slot {
+        final HostQueue hq;
+        final int generation;
+        Slot(HostQueue h, int g) {
+            hq = h;
+            generation = g;
+        }
+        boolean isValid() {
+            return hq.generation == generation;
+        }
+    }
+
+    /* Instance Fields */
+    private final UriDictionary dictionary;
+    private final int maxInFlight;
+    private final long minDelay;
+    private final Map<String, HostQueue> hosts = new HashMap<>();
+    /** Per ogni livello gli host il cui secchio migliore è quel livello, nell'ordine in cui devono essere serviti */
+    private final List<ArrayDeque<Slot>> rings = new ArrayList<>(LEVELS);
+    /** Il bit p è 1 se l'anello p potrebbe contenere posti validi */
+    private int ringMask = 0;
+    /** Il numero di URI in attesa */
+    private int size = 0;
+
+    /* Constructors */
+    /** Crea una frontiera vuota
+     * @param options  le opzioni che specificano i limiti per host
+     * @param dictionary  il dizionario degli URI */
+    HostFrontier(CrawlerOptions options, UriDictionary dictionary) {
+        this.dictionary = dictionary;
+        maxInFlight = options.getMaxInFlightPerHost();
+        minDelay = options.getMinDelayPerHost();
+        for (int p = 0; p < LEVELS; p++) {
+            rings.add(new ArrayDeque<>());
+        }
+    }
+
+    /* Instance Methods */
+    /** Aggiunge un URI in fondo al secchio della sua priorità nella coda del suo host
+     * @param uri  un URI assoluto
+     * @param id  il suo identificativo nel dizionario
+     * @param priority  la sua priorità, tra 0 (la più alta) e {@link #LEVELS} - 1
+     * @throws IllegalArgumentException se priority non è valida */
+    synchronized void add(URI uri, int id, int priority) {
+        if (priority < 0 || priority >= LEVELS) {
+            throw new IllegalArgumentException("priorità non valida: " + priority);
+        }
+        addToHost(uri, id, priority, false);
+        size++;
+    }
+
+    /** Estrae il prossimo URI che può essere scaricato rispettando le priorità e i limiti per host e lo
+     * conta tra i download in corso del suo host. Ogni URI estratto deve essere poi segnalato con
+     * {@link #done(URI)}.
+     * @param now  l'istante attuale in millisecondi
+     * @return il prossimo URI da scaricare o null se al momento nessun host può essere servito */
+    synchronized URI poll(long now) {
+        for (int mask = ringMask; mask != 0; mask &= mask - 1) {
+            int p = Integer.numberOfTrailingZeros(mask);
+            ArrayDeque<Slot> ring = rings.get(p);
+            for (int i = ring.size(); i > 0; i--) {
+                Slot slot = ring.pollFirst();
+                if (!slot.isValid()) {
+                    continue;
+                }
+                HostQueue hq = slot.hq;
+                if (now >= hq.nextAllowed) {// gli host al limite dei download non sono negli anelli
+                    URI uri = dictionary.uri(hq.pollBest());
+                    size--;
+                    hq.inFlight++;
+                    hq.nextAllowed = now + minDelay;
+                    if (hq.inFlight < maxInFlight) {
+                        place(hq);
+                    } else {
+                        park(hq);
+                    }
+                    if (ring.isEmpty()) {
+                        ringMask &= ~(1 << p);
+                    }
+                    return uri;
+                }
+                ring.addLast(slot);
+            }
+            if (ring.isEmpty()) {
+                ringMask &= ~(1 << p);
+            }
+        }
+        return null;
+    }
+
+    /** Ritorna fra quanti millisecondi un host in attesa di essere servito rispetterà il ritardo minimo.
+     * @param now  l'istante attuale in millisecondi
+     * @return il numero di millisecondi da attendere, 0 se un host può già essere servito o -1 se
+     * nessun host diventerà servibile solo per il passare del tempo */
+    synchronized long nextDelay(long now) {
+        long delay = -1;
+        for (int mask = ringMask; mask != 0; mask &= mask - 1) {
+            for (Slot slot : rings.get(Integer.numberOfTrailingZeros(mask))) {
+                if (slot.isValid()) {
+                    long d = Math.max(0, slot.hq.nextAllowed - now);
+                    if (delay < 0 || d < delay) {
+                        delay = d;
+                    }
+                }
+            }
+        }
+        return delay;
+    }
+
+    /** Segnala che il download di un URI estratto con {@link #poll(long)} è terminato
+     * @param uri  l'URI estratto */
+    synchronized void done(URI uri) {
+        HostQueue hq = hosts.get(hostOf(uri));
+        if (hq != null && hq.inFlight > 0) {
+            hq.inFlight--;
+            if (hq.parked) {
+                hq.parked = false;
+                place(hq);
+            }
+        }
+    }
+
+    /** Rimette in testa al secchio della sua priorità nella coda del suo host un URI estratto il cui download
+     * è stato interrotto
+     * @param uri  l'URI estratto
+     * @param priority  la sua priorità */
+    synchronized void requeue(URI uri, int priority) {
+        done(uri);
+        addToHost(uri, dictionary.intern(uri), priority, true);
+        size++;
+    }
+
+    /** Toglie dalla frontiera tutti gli URI in attesa
+     * @param action  invocata con l'identificativo di ogni URI tolto */
+    synchronized void drain(IntConsumer action) {
+        for (HostQueue hq : hosts.values()) {
+            for (int p = 0; p < LEVELS; p++) {
+                if (hq.buckets[p] != null) {
+                    hq.buckets[p].forEach(action);
+                    hq.buckets[p] = null;
+                }
+            }
+            hq.nonEmpty = 0;
+            hq.generation++;
+            hq.level = -1;
+        }
+        for (ArrayDeque<Slot> ring : rings) {
+            ring.clear();
+        }
+        ringMask = 0;
+        size = 0;
+    }
+
+    /** @return true se non ci sono URI in attesa */
+    synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Aggiunge un URI alla coda del suo host, in testa o in fondo al secchio della sua priorità */
+    private void addToHost(URI uri, int id, int priority, boolean first) {
+        HostQueue hq = hosts.computeIfAbsent(hostOf(uri), (h) -> new HostQueue());
+        hq.add(priority, id, first);
+        if (!hq.parked && (hq.level < 0 || priority < hq.level)) {
+            place(hq);
+        }
+    }
+
+    /** Dà all'host un posto in fondo all'anello del suo secchio migliore, abbandonando quello che aveva */
+    private void place(HostQueue hq) {
+        hq.generation++;
+        hq.level = hq.best();
+        if (hq.level >= 0) {
+            rings.get(hq.level).addLast(new Slot(hq, hq.generation));
+            ringMask |= 1 << hq.level;
+        }
+    }
+
+    /** Toglie dagli anelli un host che ha raggiunto maxInFlight download in corso, abbandonando il suo posto */
+    private void park(HostQueue hq) {
+        hq.generation++;
+        hq.level = -1;
+        hq.parked = true;
+    }
+
+    /* Static Methods */
+    /** Ritorna la chiave con cui sono raggruppati gli URI: l'host o, se manca, lo schema */
+    private static String hostOf(URI uri) {
+        String host = uri.getHost();
+        if (host == null) {
+            host = uri.getAuthority() != null ? uri.getAuthority() : uri.getScheme();
+        }
+        return host == null ? "" : host.toLowerCase(Locale.ROOT);
+    }
+
+    /* Static Fields */
+    /** Il numero di priorità diverse */
+    static final int LEVELS = 32;
+}
@@ -0,0 +1,181 @@
+package wsa.web;
+
+import wsa.web.html.Parsed;
+import wsa.web.html.ParsedFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * Un Loader che non usa la WebEngine di JavaFX. Le pagine http e https sono scaricate con un
+ * {@link java.net.http.HttpClient} condiviso da tutte le istanze (HTTP/2 quando il server lo supporta,
+ * connessioni riusate), i file locali sono letti direttamente con NIO e ogni altro schema passa per una
+ * {@link java.net.URLConnection}. L'albero di parsing è costruito da
+ * {@link wsa.web.html.ParsedFactory#getFromHtml(String)}, quindi nessuna operazione deve passare per il
+ * JavaFX Application Thread e più istanze possono lavorare davvero in parallelo. Se creato in modalità
+ * "solo link" la pagina non è analizzata interamente: i link sono estratti direttamente dai byte
+ * scaricati e l'albero è costruito solamente se qualcuno lo richiede.
+ */
+class HttpLoader implements Loader {
+    /* Nested Classes */
+    /** I byte di una pagina scaricata con la relativa codifica */
+    private static class Page {
+        final byte[] body;
+        final Charset charset;
+        Page(byte[] b, Charset c) {
+            body = b;
+            charset = c;
+        }
+    }
+
+    /* Constructors */
+    /** Costruisce un HttpLoader che costruisce l'albero di parsing completo di ogni pagina */
+    HttpLoader() {
+        this(false);
+    }
+    /** Costruisce un HttpLoader
+     * @param linksOnly  se true le pagine sono analizzate in modalità "solo link" */
+    HttpLoader(boolean linksOnly) {
+        this.linksOnly = linksOnly;
+    }
+
+    /* Instance Methods */
+    /** Ritorna il risultato del tentativo di scaricare la pagina specificata. È
+     * bloccante, finchè l'operazione non è conclusa non ritorna.
+     * @param url  l'URL di una pagina web
+     * @return il risultato del tentativo di scaricare la pagina */
+    @Override
+    public LoadResult load(URL url) {
+        try {
+            Page page = fetch(url);
+            Parsed parsed = linksOnly ? ParsedFactory.getLinksOnly(page.body, page.charset)
+                                      : ParsedFactory.getFromHtml(new String(page.body, page.charset));
+            return new LoadResult(url, parsed, null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new LoadResult(url, null, e);
+        } catch (IOException | URISyntaxException | IllegalArgumentException e) {
+            return new LoadResult(url, null, e);
+        }
+    }
+    /** Ritorna null se l'URL è scaricabile senza errori, altrimenti ritorna
+     * un'eccezione che riporta l'errore.
+     * @param url  un URL
+     * @return null se l'URL è scaricabile senza errori, altrimenti
+     * l'eccezione */
+    @Override
+    public Exception check(URL url) {
+        Exception exc = null;
+        try {
+            URLConnection urlConnection = url.openConnection();
+            urlConnection.connect();
+        }
+        catch (Exception ex) { exc = ex; }
+        return exc;
+    }
+
+    /** Scarica il contenuto di url e ne determina la codifica
+     * @param url  l'URL di una pagina web
+     * @return i byte della pagina e la loro codifica
+     * @throws IOException se il download fallisce o il server risponde con uno stato diverso da 2xx */
+    private Page fetch(URL url) throws IOException, URISyntaxException, InterruptedException {
+        String protocol = url.getProtocol().toLowerCase(Locale.ROOT);
+        byte[] body;
+        String contentType;
+        if (protocol.equals("http") || protocol.equals("https")) {
+            HttpRequest request = HttpRequest.newBuilder(url.toURI())
+                                             .timeout(REQUEST_TIMEOUT)
+                                             .header("Accept", "text/html,application/xhtml+xml,*/*;q=0.8")
+                                             .GET()
+                                             .build();
+            HttpResponse<byte[]> response = CLIENT.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            // le pagine d'errore (4xx, 5xx) sono un download fallito, non una pagina da analizzare
+            if (response.statusCode() < 200 || response.statusCode() > 299) {
+                throw new IOException("risposta HTTP " + response.statusCode() + " per " + url);
+            }
+            body = response.body();
+            contentType = response.headers().firstValue("Content-Type").orElse(null);
+        } else if (protocol.equals("file")) {
+            Path path = Paths.get(url.toURI());
+            body = Files.readAllBytes(path);
+            contentType = null;
+        } else {
+            URLConnection connection = url.openConnection();
+            try (InputStream is = connection.getInputStream()) {
+                body = is.readAllBytes();
+            }
+            contentType = connection.getContentType();
+        }
+        return new Page(body, charsetOf(contentType, body));
+    }
+
+    /** Determina la codifica di una pagina dall'header Content-Type o, se manca, dal meta charset
+     * contenuto nei primi byte della pagina. In mancanza di indicazioni usa UTF-8.
+     * @param contentType  il valore dell'header Content-Type o null
+     * @param body  i byte della pagina
+     * @return la codifica da usare per decodificare la pagina */
+    static Charset charsetOf(String contentType, byte[] body) {
+        String name = charsetParameter(contentType).orElse(null);
+        if (name == null) {
+            String head = new String(body, 0, Math.min(body.length, 1024), StandardCharsets.ISO_8859_1)
+                          .toLowerCase(Locale.ROOT);
+            int index = head.indexOf("charset=");
+            if (index >= 0) {
+                int start = index + "charset=".length();
+                while (start < head.length() && (head.charAt(start) == '"' || head.charAt(start) == '\'')) start++;
+                int end = start;
+                while (end < head.length() && (Character.isLetterOrDigit(head.charAt(end))
+                                               || head.charAt(end) == '-' || head.charAt(end) == '_')) end++;
+                name = head.substring(start, end);
+            }
+        }
+        try {
+            return name == null || name.isEmpty() ? StandardCharsets.UTF_8 : Charset.forName(name);
+        } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+            return StandardCharsets.UTF_8;
+        }
+    }
+
+    /** Helper di charsetOf, estrae il parametro charset da un Content-Type */
+    private static Optional<String> charsetParameter(String contentType) {
+        if (contentType == null) {
+            return Optional.empty();
+        }
+        for (String param : contentType.split(";")) {
+            String p = param.trim();
+            if (p.regionMatches(true, 0, "charset=", 0, "charset=".length())) {
+                return Optional.of(p.substring("charset=".length()).replace("\"", "").trim());
+            }
+        }
+        return Optional.empty();
+    }
+
+    /* Instance Fields */
+    private final boolean linksOnly;
+
+    /* Static Fields */
+    static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    /** Il client è condiviso da tutti gli HttpLoader in modo che le connessioni siano riusate */
+    static final HttpClient CLIENT = HttpClient.newBuilder()
+                                               .version(HttpClient.Version.HTTP_2)
+                                               .followRedirects(HttpClient.Redirect.NORMAL)
+                                               .connectTimeout(Duration.ofSeconds(10))
+                                               .build();
+}
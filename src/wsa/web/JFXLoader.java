@@ -10,6 +10,8 @@ import wsa.web.html.ParsedFactory;
 import java.io.IOException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Un Loader basato sul WebEngine di JavaFX.
@@ -54,18 +56,41 @@ class JFXLoader implements Loader{
             downloadFailed = false;
             wEngine.load(url.toString());
         });
+        InterruptedException interrupted = null;
         while (urlParsed == null && !downloadFailed)
             try {
                 Thread.sleep(50);
             } catch (InterruptedException e) {
+                // il download è stato cancellato o è scaduto: ferma la WebEngine invece di lasciarla caricare
+                interrupted = e;
+                abort();
                 downloadFailed = true;
             }
 
-        if (downloadFailed) // se il download fallisce urlParsed[0] rimane null, altrimenti exc
+        if (interrupted != null) {
+            exc = interrupted;
+            urlParsed = null;
+            Thread.currentThread().interrupt();
+        } else if (downloadFailed) // se il download fallisce urlParsed[0] rimane null, altrimenti exc
             exc = new IOException("Il download è fallito");
         loadResult = new LoadResult(url, urlParsed, exc);
         return loadResult;
     }
+    /** Interrompe il caricamento in corso nella WebEngine e aspetta, per al più ABORT_TIMEOUT millisecondi, che
+     * il JavaFX Application Thread lo abbia interrotto */
+    private void abort() {
+        CountDownLatch aborted = new CountDownLatch(1);
+        Platform.runLater(() -> {
+            if (wEngine != null)
+                wEngine.getLoadWorker().cancel();
+            aborted.countDown();
+        });
+        try {
+            aborted.await(ABORT_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
     /** Ritorna null se l'URL è scaricabile senza errori, altrimenti ritorna
      * un'eccezione che riporta l'errore.
      * @param url  un URL
@@ -81,4 +106,7 @@ class JFXLoader implements Loader{
         catch (Exception ex) { exc = ex; }
         return exc;
     }
+
+    /* Static Fields */
+    private static final long ABORT_TIMEOUT = 5000;
 }
@@ -0,0 +1,206 @@
+package wsa.web;
+
+import java.net.ConnectException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Controlla in modo asincrono se gli URL delle pagine che non sono seguite sono scaricabili, come
+ * {@link Loader#check(URL)} ma senza un thread per ogni controllo. Gli URL http e https sono controllati
+ * con una richiesta HEAD tramite l'{@link java.net.http.HttpClient} condiviso con {@link HttpLoader}, così
+ * le connessioni sono riusate; se il server rifiuta la HEAD con un errore diverso da una connessione fallita
+ * la richiesta è ripetuta con una GET del solo primo byte. Come per {@link Loader#check(URL)}, che si limita
+ * ad aprire una connessione, un URL è scaricabile se il suo host risponde, qualunque sia lo stato della
+ * risposta: per questo l'esito è salvato per host e gli altri URL dello stesso host non generano altre
+ * richieste. Al più {@link #MAX_IN_FLIGHT} controlli http sono in corso nello stesso momento, gli altri
+ * aspettano il loro turno. Gli altri schemi (ad esempio file) e i Loader diversi da quelli di default sono
+ * controllati con {@link Loader#check(URL)} da un piccolo pool di thread.
+ */
+class LinkChecker {
+    /* Nested Classes */
+    /** Un controllo http in attesa di poter partire */
+    private static class Probe {
+        final URL url;
+        final CompletableFuture<Exception> outcome;
+        Probe(URL u, CompletableFuture<Exception> o) {
+            url = u;
+            outcome = o;
+        }
+    }
+
+    /* Constructors */
+    /** Crea un checker
+     * @param loader  il Loader da usare per gli URL che non sono controllati direttamente */
+    LinkChecker(Loader loader) {
+        this.loader = loader;
+        direct = loader instanceof HttpLoader || loader instanceof JFXLoader;
+    }
+
+    /* Instance Methods */
+    /** Sottomette il controllo dell'URL specificato
+     * @param url  un URL
+     * @throws IllegalStateException se il checker è chiuso
+     * @return un CompletableFuture che si completa con il risultato del controllo, senza albero di parsing */
+    CompletableFuture<LoadResult> submit(URL url) {
+        if (this.isShutdown())
+            throw new IllegalStateException("Il checker è chiuso");
+        String protocol = url.getProtocol().toLowerCase(Locale.ROOT);
+        CompletableFuture<Exception> outcome;
+        if (direct && (protocol.equals("http") || protocol.equals("https"))) {
+            outcome = hostOutcome(url);
+        } else {
+            outcome = CompletableFuture.supplyAsync(() -> loader.check(url), executor);
+        }
+        return outcome.thenApply((exc) -> new LoadResult(url, null, exc));
+    }
+    /** Chiude il checker: i controlli in attesa sono cancellati e quelli in corso terminano da soli. Dopo
+     * di ciò non può più essere usato. */
+    synchronized void shutdown() {
+        if (executor == null) {
+            return;
+        }
+        Queue<Probe> cancelled;
+        synchronized (waiting) {
+            cancelled = new ArrayDeque<>(waiting);
+            waiting.clear();
+        }
+        cancelled.forEach((p) -> p.outcome.cancel(false));
+        executor.shutdown();
+        executor = null;
+    }
+    /** Ritorna true se è chiuso.
+     * @return true se è chiuso */
+    boolean isShutdown() {
+        return executor == null;
+    }
+
+    /** Ritorna l'esito del controllo dell'host di url, avviandolo se non è già stato richiesto */
+    private CompletableFuture<Exception> hostOutcome(URL url) {
+        String host = url.getProtocol().toLowerCase(Locale.ROOT) + "://" + url.getHost().toLowerCase(Locale.ROOT)
+                      + ":" + (url.getPort() < 0 ? url.getDefaultPort() : url.getPort());
+        CompletableFuture<Exception> outcome;
+        synchronized (hosts) {
+            outcome = hosts.get(host);
+            if (outcome != null) {
+                return outcome;
+            }
+            outcome = new CompletableFuture<>();
+            hosts.put(host, outcome);
+        }
+        synchronized (waiting) {
+            if (inFlight >= MAX_IN_FLIGHT) {
+                waiting.add(new Probe(url, outcome));
+                return outcome;
+            }
+            inFlight++;
+        }
+        probe(url, outcome);
+        return outcome;
+    }
+
+    /** Esegue la richiesta HEAD, e se serve la GET, e completa outcome con l'eventuale errore */
+    private void probe(URL url, CompletableFuture<Exception> outcome) {
+        send(url, true).handle((response, t) -> t)
+                       .thenCompose((t) -> t == null || isHostFailure(t) ? CompletableFuture.completedFuture(t)
+                                                                        : send(url, false).handle((r, t2) -> t2))
+                       .whenComplete((t, ignored) -> {
+                           outcome.complete(toException(t));
+                           finished();
+                       });
+    }
+
+    /** Avvia il prossimo controllo in attesa, se c'è, al posto di quello appena terminato */
+    private void finished() {
+        Probe next;
+        synchronized (waiting) {
+            next = waiting.poll();
+            if (next == null) {
+                inFlight--;
+                return;
+            }
+        }
+        probe(next.url, next.outcome);
+    }
+
+    /* Static Methods */
+    /** Invia una richiesta HEAD o, se head è false, una GET del solo primo byte della pagina, ignorando il
+     * contenuto della risposta */
+    private static CompletableFuture<HttpResponse<Void>> send(URL url, boolean head) {
+        HttpRequest.Builder builder;
+        try {
+            builder = HttpRequest.newBuilder(url.toURI()).timeout(HttpLoader.REQUEST_TIMEOUT);
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        builder = head ? builder.method("HEAD", HttpRequest.BodyPublishers.noBody())
+                       : builder.header("Range", "bytes=0-0").GET();
+        return HttpLoader.CLIENT.sendAsync(builder.build(), HttpResponse.BodyHandlers.discarding());
+    }
+
+    /** @return true se t indica che l'host non è raggiungibile, quindi è inutile ripetere la richiesta */
+    private static boolean isHostFailure(Throwable t) {
+        t = unwrap(t);
+        return t instanceof ConnectException || t instanceof UnknownHostException
+               || t instanceof HttpConnectTimeoutException;
+    }
+
+    /** @return l'eccezione che riporta l'errore t, o null se t è null */
+    private static Exception toException(Throwable t) {
+        t = unwrap(t);
+        if (t == null || t instanceof Exception) {
+            return (Exception) t;
+        }
+        return new ExecutionException(t);
+    }
+
+    private static Throwable unwrap(Throwable t) {
+        while (t instanceof CompletionException && t.getCause() != null) {
+            t = t.getCause();
+        }
+        return t;
+    }
+
+    /* Instance Fields */
+    private final Loader loader;
+    /** true se gli URL http sono controllati direttamente, senza passare per loader */
+    private final boolean direct;
+    /** L'esito del controllo di ogni host, dal meno recente */
+    private final Map<String, CompletableFuture<Exception>> hosts =
+            new LinkedHashMap<String, CompletableFuture<Exception>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<Exception>> eldest) {
+                    return size() > HOST_CACHE_SIZE;
+                }
+            };
+    /** I controlli che aspettano il loro turno e quanti sono in corso */
+    private final Queue<Probe> waiting = new ArrayDeque<>();
+    private int inFlight = 0;
+
+    private volatile ExecutorService executor = Executors.newFixedThreadPool(CHECK_THREADS, (runnable) -> {
+        Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /* Static Fields */
+    /** Il numero massimo di controlli http contemporanei */
+    static final int MAX_IN_FLIGHT = 64;
+    /** Il numero di thread per i controlli fatti tramite Loader */
+    private static final int CHECK_THREADS = 8;
+    /** Il numero di host di cui è salvato l'esito */
+    private static final int HOST_CACHE_SIZE = 4096;
+}
@@ -0,0 +1,438 @@
+package wsa.web;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Il grafo dei link di un'esplorazione, costruito da un {@link GraphSiteCrawler} mano a mano che arrivano i
+ * risultati. I nodi sono gli URI dell'esplorazione, identificati da interi densi a partire da 0, e c'è un arco
+ * da u a v se la pagina di u contiene almeno un link verso v. Durante l'esplorazione gli archi uscenti di ogni
+ * pagina sono aggiunti in coda a segmenti di int[] che non vengono mai spostati; le interrogazioni si fanno su
+ * un'istantanea immutabile ({@link #snapshot()}) che contiene archi uscenti ed entranti in forma CSR
+ * (compressed sparse row), cioè in due array di interi per direzione, senza alcun oggetto per nodo o per arco.
+ * Gli archi entranti di ogni nodo sono mantenuti anche durante l'esplorazione, in un blocco degli stessi segmenti
+ * che raddoppia quando è pieno, così le pagine che puntano ad un URI ({@link #pointers(URI)}) si leggono in tempo
+ * proporzionale al loro numero senza costruire un'istantanea.
+ * Il grafo mantiene anche i nodi ordinati per numero di archi entranti, così il nodo con più archi entranti e i
+ * primi k sono disponibili in ogni momento senza scorrere tutti i nodi. Tutti i metodi sono thread-safe.
+ */
+public class LinkGraph {
+    /* Nested Classes */
+    /** Un'istantanea immutabile del grafo. Gli archi uscenti del nodo u sono outTarget(k) per k da outBegin(u)
+     * incluso a outEnd(u) escluso, ordinati per identificativo; analogamente per gli archi entranti. */
+    public static class Snapshot {
+        private final UriDictionary dictionary;
+        private final int size;
+        private final byte[] state;
+        private final int[] outOffsets;
+        private final int[] outTargets;
+        private final int[] inOffsets;
+        private final int[] inSources;
+
+        private Snapshot(UriDictionary dictionary, int size, byte[] state, int[] outOffsets, int[] outTargets) {
+            this.dictionary = dictionary;
+            this.size = size;
+            this.state = state;
+            this.outOffsets = outOffsets;
+            this.outTargets = outTargets;
+            // gli archi entranti sono ricavati da quelli uscenti con un ordinamento per conteggio
+            inOffsets = new int[size + 1];
+            for (int target : outTargets) {
+                inOffsets[target + 1]++;
+            }
+            for (int v = 0; v < size; v++) {
+                inOffsets[v + 1] += inOffsets[v];
+            }
+            inSources = new int[outTargets.length];
+            int[] fill = Arrays.copyOf(inOffsets, size);
+            for (int u = 0; u < size; u++) {
+                for (int k = outOffsets[u]; k < outOffsets[u + 1]; k++) {
+                    inSources[fill[outTargets[k]]++] = u;
+                }
+            }
+        }
+
+        /** @return il numero di nodi, gli identificativi vanno da 0 a size() - 1 */
+        public int size() {
+            return size;
+        }
+
+        /** @return il numero di archi */
+        public int edgeCount() {
+            return outTargets.length;
+        }
+
+        /** @return l'URI del nodo */
+        public URI uri(int node) {
+            return dictionary.uri(node);
+        }
+
+        /** @return il nodo di un URI o -1 se l'URI non è nel grafo */
+        public int nodeOf(URI uri) {
+            int node = dictionary.idOf(uri);
+            return node < size ? node : -1;
+        }
+
+        /** @return true se la pagina del nodo è stata scaricata */
+        public boolean isLoaded(int node) {
+            return state[node] == LOADED;
+        }
+
+        /** @return true se la pagina del nodo ha prodotto un errore */
+        public boolean isError(int node) {
+            return state[node] == ERROR;
+        }
+
+        /** @return true se il nodo ha un risultato, cioè se è stato scaricato o ha prodotto un errore */
+        public boolean hasResult(int node) {
+            return state[node] != NONE;
+        }
+
+        public int outBegin(int node) {
+            return outOffsets[node];
+        }
+
+        public int outEnd(int node) {
+            return outOffsets[node + 1];
+        }
+
+        public int outTarget(int k) {
+            return outTargets[k];
+        }
+
+        public int inBegin(int node) {
+            return inOffsets[node];
+        }
+
+        public int inEnd(int node) {
+            return inOffsets[node + 1];
+        }
+
+        public int inSource(int k) {
+            return inSources[k];
+        }
+
+        /** @return il numero di archi uscenti dal nodo */
+        public int outDegree(int node) {
+            return outOffsets[node + 1] - outOffsets[node];
+        }
+
+        /** @return il numero di archi entranti nel nodo */
+        public int inDegree(int node) {
+            return inOffsets[node + 1] - inOffsets[node];
+        }
+    }
+
+    /* Instance Fields */
+    private final UriDictionary dictionary;
+    /** I segmenti in cui sono aggiunti in coda gli archi uscenti */
+    private int[][] segments = new int[4][];
+    private int segmentCount = 0;
+    private int segmentUsed = SEGMENT_SIZE;
+    /** Per ogni nodo: segmento nei 32 bit alti e posizione nel segmento nei 32 bit bassi dei suoi archi uscenti */
+    private long[] outRef = new long[256];
+    private int[] outDegree = new int[256];
+    /** Per ogni nodo: il blocco dei suoi archi entranti, codificato come outRef, e la sua capacità. Il blocco
+     * contiene inDegree[v] sorgenti in ordine di inserimento */
+    private long[] inRef = new long[256];
+    private int[] inCapacity = new int[256];
+    private int[] inDegree = new int[256];
+    private byte[] state = new byte[256];
+    /** I nodi ordinati per archi entranti decrescenti, position[v] è la posizione di v in order e atLeast[d] è il
+     * numero di nodi con almeno d archi entranti, cioè i nodi con d archi entranti occupano in order le posizioni
+     * da atLeast[d + 1] inclusa ad atLeast[d] esclusa */
+    private int[] order = new int[256];
+    private int[] position = new int[256];
+    private int[] atLeast = new int[16];
+    /** Il numero di nodi: uno in più del massimo identificativo visto */
+    private int size = 0;
+    private long edgeCount = 0;
+    private Snapshot snapshot = null;
+
+    /* Constructors */
+    /** Crea un grafo vuoto
+     * @param dictionary  il dizionario che assegna gli identificativi dei nodi */
+    LinkGraph(UriDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /* Instance Methods */
+    /** Aggiunge al grafo il risultato di una pagina: il suo stato e, se la pagina è seguita, i suoi link.
+     * Se la pagina aveva già un risultato questo è sostituito.
+     * @param cr  il risultato */
+    void add(CrawlerResult cr) {
+        int node = dictionary.intern(cr.uri);
+        int[] targets = null;
+        int n = 0;
+        if (cr.links != null) {
+            targets = new int[cr.links.size()];
+            if (cr.links instanceof UriList) {
+                UriList list = (UriList) cr.links;
+                for (int i = 0; i < targets.length; i++) {
+                    targets[i] = list.id(i);
+                }
+            } else {
+                int i = 0;
+                for (URI link : cr.links) {
+                    targets[i++] = dictionary.intern(link);
+                }
+            }
+            // elimina i link ripetuti
+            Arrays.sort(targets);
+            for (int i = 0; i < targets.length; i++) {
+                if (i == 0 || targets[i] != targets[i - 1]) {
+                    targets[n++] = targets[i];
+                }
+            }
+        }
+        synchronized (this) {
+            ensureNode(node);
+            if (n > 0) {
+                ensureNode(targets[n - 1]);
+            }
+            if (state[node] != NONE) {
+                removeEdges(node);
+            }
+            state[node] = cr.exc == null ? LOADED : ERROR;
+            if (n > 0) {
+                long ref = reserve(n);
+                System.arraycopy(targets, 0, segments[(int) (ref >>> 32)], (int) ref, n);
+                outRef[node] = ref;
+                outDegree[node] = n;
+                for (int i = 0; i < n; i++) {
+                    addInEdge(targets[i], node);
+                    incrementInDegree(targets[i]);
+                }
+                edgeCount += n;
+            }
+            snapshot = null;
+        }
+    }
+
+    /** Ritorna un'istantanea immutabile del grafo. L'istantanea è costruita in tempo lineare nel numero di
+     * archi ed è riusata finché il grafo non cambia.
+     * @return l'istantanea */
+    public synchronized Snapshot snapshot() {
+        if (snapshot == null) {
+            if (edgeCount > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("il grafo ha troppi archi per un'istantanea");
+            }
+            int[] outOffsets = new int[size + 1];
+            int[] outTargets = new int[(int) edgeCount];
+            int k = 0;
+            for (int u = 0; u < size; u++) {
+                outOffsets[u] = k;
+                if (outDegree[u] > 0) {
+                    System.arraycopy(segments[(int) (outRef[u] >>> 32)], (int) outRef[u], outTargets, k, outDegree[u]);
+                    k += outDegree[u];
+                }
+            }
+            outOffsets[size] = k;
+            snapshot = new Snapshot(dictionary, size, Arrays.copyOf(state, size), outOffsets, outTargets);
+        }
+        return snapshot;
+    }
+
+    /** @return il numero di nodi */
+    public synchronized int size() {
+        return size;
+    }
+
+    /** @return il numero di archi */
+    public synchronized long edgeCount() {
+        return edgeCount;
+    }
+
+    /** Ritorna il numero di pagine che hanno un link verso un URI, aggiornato in tempo reale
+     * @param uri  un URI
+     * @return il numero di archi entranti nel nodo di uri */
+    public int inDegree(URI uri) {
+        int node = dictionary.idOf(uri);
+        synchronized (this) {
+            return node >= 0 && node < size ? inDegree[node] : 0;
+        }
+    }
+
+    /** Ritorna gli URI con più archi entranti, cioè a cui puntano più pagine, aggiornati in tempo reale. A parità
+     * di archi entranti l'ordine non è specificato e gli URI senza archi entranti non sono mai ritornati.
+     * @param k  il numero massimo di URI da ritornare
+     * @return al più k URI in ordine decrescente di archi entranti */
+    public List<URI> topInDegree(int k) {
+        int[] nodes;
+        synchronized (this) {
+            int n = Math.min(k, atLeast.length > 1 ? atLeast[1] : 0);
+            nodes = Arrays.copyOf(order, Math.max(n, 0));
+        }
+        List<URI> top = new ArrayList<>(nodes.length);
+        for (int node : nodes) {
+            top.add(dictionary.uri(node));
+        }
+        return top;
+    }
+
+    /** Ritorna il numero di nodi con almeno d archi entranti, aggiornato in tempo reale. Permette di ricavare la
+     * distribuzione degli archi entranti senza scorrere i nodi.
+     * @param d  un numero di archi entranti
+     * @return il numero di nodi con almeno d archi entranti */
+    public synchronized int countInDegreeAtLeast(long d) {
+        if (d <= 0) {
+            return size;
+        }
+        return d < atLeast.length ? atLeast[(int) d] : 0;
+    }
+
+    /** Ritorna true se la pagina di from contiene un link verso to
+     * @param from  l'URI di una pagina
+     * @param to  un URI
+     * @return true se c'è un arco da from a to */
+    public boolean hasLink(URI from, URI to) {
+        int u = dictionary.idOf(from);
+        int v = dictionary.idOf(to);
+        if (u < 0 || v < 0) {
+            return false;
+        }
+        synchronized (this) {
+            if (u >= size || outDegree[u] == 0) {
+                return false;
+            }
+            int start = (int) outRef[u];
+            return Arrays.binarySearch(segments[(int) (outRef[u] >>> 32)], start, start + outDegree[u], v) >= 0;
+        }
+    }
+
+    /** Ritorna gli URI delle pagine che hanno un link verso un URI, aggiornati in tempo reale. Gli archi
+     * entranti sono letti dal blocco del nodo, in tempo proporzionale al loro numero.
+     * @param uri  un URI
+     * @return gli URI delle pagine che puntano ad uri, in ordine non specificato */
+    public List<URI> pointers(URI uri) {
+        int node = dictionary.idOf(uri);
+        int[] sources;
+        synchronized (this) {
+            if (node < 0 || node >= size || inDegree[node] == 0) {
+                return Collections.emptyList();
+            }
+            int start = (int) inRef[node];
+            sources = Arrays.copyOfRange(segments[(int) (inRef[node] >>> 32)], start, start + inDegree[node]);
+        }
+        List<URI> pointers = new ArrayList<>(sources.length);
+        for (int source : sources) {
+            pointers.add(dictionary.uri(source));
+        }
+        return pointers;
+    }
+
+    /** Aggiunge source in coda agli archi entranti di node, spostandoli in un blocco grande il doppio se è pieno */
+    private void addInEdge(int node, int source) {
+        int d = inDegree[node];
+        if (d == inCapacity[node]) {
+            int capacity = Math.max(IN_BLOCK_SIZE, d * 2);
+            long ref = reserve(capacity);
+            if (d > 0) {
+                System.arraycopy(segments[(int) (inRef[node] >>> 32)], (int) inRef[node],
+                                 segments[(int) (ref >>> 32)], (int) ref, d);
+            }
+            inRef[node] = ref;
+            inCapacity[node] = capacity;
+        }
+        segments[(int) (inRef[node] >>> 32)][(int) inRef[node] + d] = source;
+    }
+
+    /** Toglie source dagli archi entranti di node, sostituendolo con l'ultimo */
+    private void removeInEdge(int node, int source) {
+        int[] segment = segments[(int) (inRef[node] >>> 32)];
+        int start = (int) inRef[node];
+        int last = start + inDegree[node] - 1;
+        for (int k = start; k <= last; k++) {
+            if (segment[k] == source) {
+                segment[k] = segment[last];
+                return;
+            }
+        }
+    }
+
+    /** Incrementa gli archi entranti di un nodo spostandolo in testa al suo gruppo, che diventa il gruppo successivo */
+    private void incrementInDegree(int node) {
+        int d = inDegree[node]++;
+        if (d + 1 >= atLeast.length) {
+            atLeast = Arrays.copyOf(atLeast, atLeast.length * 2);
+        }
+        swap(node, atLeast[d + 1]++);
+    }
+
+    /** Decrementa gli archi entranti di un nodo spostandolo in coda al suo gruppo, che diventa il gruppo precedente */
+    private void decrementInDegree(int node) {
+        int d = inDegree[node]--;
+        swap(node, --atLeast[d]);
+    }
+
+    /** Scambia la posizione di un nodo in order con quella del nodo in posizione pos */
+    private void swap(int node, int pos) {
+        int other = order[pos];
+        int old = position[node];
+        order[old] = other;
+        position[other] = old;
+        order[pos] = node;
+        position[node] = pos;
+    }
+
+    /** Toglie gli archi uscenti di un nodo, che restano nei segmenti ma non sono più raggiungibili */
+    private void removeEdges(int node) {
+        int[] segment = segments[(int) (outRef[node] >>> 32)];
+        int start = (int) outRef[node];
+        for (int i = 0; i < outDegree[node]; i++) {
+            removeInEdge(segment[start + i], node);
+            decrementInDegree(segment[start + i]);
+        }
+        edgeCount -= outDegree[node];
+        outDegree[node] = 0;
+    }
+
+    /** Riserva spazio contiguo per n archi in coda all'ultimo segmento o in un nuovo segmento */
+    private long reserve(int n) {
+        if (segmentUsed + n > SEGMENT_SIZE) {
+            if (segmentCount == segments.length) {
+                segments = Arrays.copyOf(segments, segmentCount * 2);
+            }
+            segments[segmentCount++] = new int[Math.max(SEGMENT_SIZE, n)];
+            segmentUsed = 0;
+        }
+        long ref = ((long) (segmentCount - 1) << 32) | segmentUsed;
+        segmentUsed += n;
+        return ref;
+    }
+
+    /** Estende gli array per nodo in modo che contengano node */
+    private void ensureNode(int node) {
+        if (node >= state.length) {
+            int capacity = Math.max(node + 1, state.length * 2);
+            outRef = Arrays.copyOf(outRef, capacity);
+            outDegree = Arrays.copyOf(outDegree, capacity);
+            inRef = Arrays.copyOf(inRef, capacity);
+            inCapacity = Arrays.copyOf(inCapacity, capacity);
+            inDegree = Arrays.copyOf(inDegree, capacity);
+            state = Arrays.copyOf(state, capacity);
+            order = Arrays.copyOf(order, capacity);
+            position = Arrays.copyOf(position, capacity);
+        }
+        // i nuovi nodi non hanno archi entranti, quindi vanno in coda all'ordine
+        for (int v = size; v <= node; v++) {
+            order[v] = v;
+            position[v] = v;
+        }
+        if (node >= size) {
+            size = node + 1;
+            atLeast[0] = size;
+        }
+    }
+
+    /* Static Fields */
+    private static final byte NONE = 0;
+    private static final byte LOADED = 1;
+    private static final byte ERROR = 2;
+    private static final int SEGMENT_SIZE = 1 << 16;
+    /** La capacità del primo blocco di archi entranti di un nodo */
+    private static final int IN_BLOCK_SIZE = 4;
+}
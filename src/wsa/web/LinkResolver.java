@@ -0,0 +1,384 @@
+package wsa.web;
+
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Risolve i link di una pagina rispetto all'URI della pagina e li riduce in forma canonica. La risoluzione
+ * segue l'algoritmo della sezione 5.2 della RFC 3986 ed è fatta direttamente sul testo del link, senza
+ * costruire l'URI relativo, con un solo buffer riusato per tutti i link; l'URI risultante è costruito una volta
+ * sola, dal testo canonico. Le regole di normalizzazione (sezione 6.2 della RFC) sono: schema e host in
+ * minuscolo, porta di default dello schema ed eventuali porte vuote tolte, segmenti . e .. rimossi dal percorso,
+ * sequenze di escape con le cifre esadecimali in maiuscolo e decodificate se rappresentano un carattere non
+ * riservato, percorso vuoto sostituito da / per gli schemi con una porta di default. Opzionalmente il frammento
+ * è eliminato e i parametri della query sono ordinati per nome. Così URI equivalenti scritti in modo diverso
+ * diventano lo stesso URI e sono scaricati una volta sola.
+ * <p>
+ * L'URI della pagina è scomposto una volta sola da {@link #base(URI)} e le forme canoniche dei link già risolti
+ * sono ricordate fino al cambio di pagina, quindi un link che si ripete nella pagina non è analizzato di nuovo.
+ * Non è thread-safe.
+ */
+class LinkResolver {
+    /* Instance Fields */
+    private final boolean stripFragment;
+    private final boolean sortQuery;
+    /** L'URI della pagina e le sue componenti canoniche: autorità e query sono null se mancano */
+    private URI base = null;
+    private String baseScheme = null;
+    private String baseAuthority = null;
+    private String basePath = null;
+    private String baseQuery = null;
+    /** Le forme canoniche dei link della pagina già risolti */
+    private final Map<String, URI> cache = new HashMap<>();
+    /** Il testo canonico in costruzione e un buffer per il percorso prima della rimozione dei segmenti . e .. */
+    private final StringBuilder out = new StringBuilder(256);
+    private final StringBuilder path = new StringBuilder(256);
+    /** Le posizioni in out delle componenti dell'ultimo testo costruito: fine dello schema, inizio e fine di
+     * autorità, percorso e query (-1 se l'autorità o la query mancano) */
+    private int schemeEnd, authorityStart, authorityEnd, pathStart, pathEnd, queryStart, queryEnd;
+
+    /* Constructors */
+    /** Crea un risolutore senza pagina
+     * @param stripFragment  se true il frammento dei link è eliminato
+     * @param sortQuery  se true i parametri della query dei link sono ordinati per nome */
+    LinkResolver(boolean stripFragment, boolean sortQuery) {
+        this.stripFragment = stripFragment;
+        this.sortQuery = sortQuery;
+    }
+
+    /* Instance Methods */
+    /** Imposta la pagina rispetto a cui sono risolti i link. Se è diversa dalla precedente dimentica i link
+     * risolti finora.
+     * @param uri  l'URI assoluto della pagina
+     * @throws URISyntaxException se uri non può essere ridotto in forma canonica */
+    void base(URI uri) throws URISyntaxException {
+        if (uri.equals(base)) {
+            return;
+        }
+        cache.clear();
+        base = null;
+        baseScheme = null;
+        build(uri.toString());
+        baseScheme = out.substring(0, schemeEnd);
+        baseAuthority = authorityStart < 0 ? null : out.substring(authorityStart, authorityEnd);
+        basePath = out.substring(pathStart, pathEnd);
+        baseQuery = queryStart < 0 ? null : out.substring(queryStart, queryEnd);
+        base = uri;
+    }
+
+    /** Ritorna la forma canonica del link risolto rispetto alla pagina impostata con {@link #base(URI)}
+     * @param link  il testo di un link, assoluto o relativo
+     * @return l'URI assoluto canonico
+     * @throws URISyntaxException se il link non è un riferimento valido o è relativo e non c'è una pagina
+     * @throws NullPointerException se link è null */
+    URI resolve(String link) throws URISyntaxException {
+        URI uri = cache.get(link);
+        if (uri == null) {
+            build(link);
+            uri = new URI(out.toString());
+            cache.put(link, uri);
+        }
+        return uri;
+    }
+
+    /** Ritorna la forma canonica di un URI assoluto, con le stesse regole dei link, senza cambiare la pagina
+     * impostata con {@link #base(URI)} né i link risolti finora
+     * @param uri  un URI assoluto
+     * @return l'URI canonico
+     * @throws URISyntaxException se uri non può essere ridotto in forma canonica */
+    URI canonical(URI uri) throws URISyntaxException {
+        build(uri.toString());
+        return new URI(out.toString());
+    }
+
+    /** Costruisce in out il testo canonico del riferimento ref risolto rispetto alla base corrente */
+    private void build(String ref) throws URISyntaxException {
+        int n = ref.length();
+        // scompone ref come nell'appendice B della RFC: schema, autorità, percorso, query e frammento
+        int refScheme = -1;
+        if (n > 0 && isAlpha(ref.charAt(0))) {
+            int i = 1;
+            while (i < n && isSchemeChar(ref.charAt(i))) {
+                i++;
+            }
+            if (i < n && ref.charAt(i) == ':') {
+                refScheme = i;
+            }
+        }
+        int p = refScheme + 1;
+        int refAuthority = -1, refAuthorityEnd = -1;
+        if (ref.startsWith("//", p)) {
+            refAuthority = p + 2;
+            refAuthorityEnd = indexOf(ref, refAuthority, n, "/?#");
+            p = refAuthorityEnd;
+        }
+        int refPath = p;
+        int refPathEnd = indexOf(ref, p, n, "?#");
+        p = refPathEnd;
+        int refQuery = -1, refQueryEnd = -1;
+        if (p < n && ref.charAt(p) == '?') {
+            refQuery = p + 1;
+            refQueryEnd = indexOf(ref, refQuery, n, "#");
+            p = refQueryEnd;
+        }
+        int refFragment = p < n ? p + 1 : -1;
+
+        if (refScheme < 0 && baseScheme == null) {
+            throw new URISyntaxException(ref, "link relativo senza una pagina di base");
+        }
+        out.setLength(0);
+        if (refScheme >= 0) {
+            appendLowerCase(out, ref, 0, refScheme);
+        } else {
+            out.append(baseScheme);
+        }
+        schemeEnd = out.length();
+        int defaultPort = defaultPortIndex(out, schemeEnd);
+        out.append(':');
+        // la risoluzione della sezione 5.2.2: l'autorità e il percorso che non vengono da ref vengono dalla base
+        authorityStart = authorityEnd = -1;
+        if (refScheme >= 0 || refAuthority >= 0) {
+            if (refAuthority >= 0) {
+                out.append("//");
+                authorityStart = out.length();
+                appendAuthority(ref, refAuthority, refAuthorityEnd, defaultPort);
+                authorityEnd = out.length();
+            }
+            pathStart = out.length();
+            path.setLength(0);
+            appendNormalized(path, ref, refPath, refPathEnd, false);
+            removeDotSegments(path, out);
+        } else {
+            if (baseAuthority != null) {
+                out.append("//");
+                authorityStart = out.length();
+                out.append(baseAuthority);
+                authorityEnd = out.length();
+            }
+            pathStart = out.length();
+            if (refPath == refPathEnd) {
+                out.append(basePath);
+            } else {
+                path.setLength(0);
+                if (ref.charAt(refPath) != '/') {// unisce il percorso a quello della base (sezione 5.2.3)
+                    if (baseAuthority != null && basePath.isEmpty()) {
+                        path.append('/');
+                    } else {
+                        path.append(basePath, 0, basePath.lastIndexOf('/') + 1);
+                    }
+                }
+                appendNormalized(path, ref, refPath, refPathEnd, false);
+                removeDotSegments(path, out);
+            }
+        }
+        if (authorityStart >= 0 && defaultPort >= 0 && out.length() == pathStart) {
+            out.append('/');
+        }
+        pathEnd = out.length();
+        queryStart = queryEnd = -1;
+        if (refQuery >= 0) {
+            out.append('?');
+            queryStart = out.length();
+            appendNormalized(out, ref, refQuery, refQueryEnd, false);
+            if (sortQuery) {
+                sortParameters(queryStart);
+            }
+            queryEnd = out.length();
+        } else if (refScheme < 0 && refAuthority < 0 && refPath == refPathEnd && baseQuery != null) {
+            out.append('?');
+            queryStart = out.length();
+            out.append(baseQuery);
+            queryEnd = out.length();
+        }
+        if (refFragment >= 0 && !stripFragment) {
+            out.append('#');
+            appendNormalized(out, ref, refFragment, n, false);
+        }
+    }
+
+    /** Aggiunge a out l'autorità s[from, to) con l'host in minuscolo e senza la porta di default dello schema
+     * di indice defaultPort in {@link #SCHEMES} (-1 se lo schema non ha una porta di default) */
+    private void appendAuthority(String s, int from, int to, int defaultPort) {
+        int host = from;
+        for (int i = to - 1; i >= from; i--) {
+            if (s.charAt(i) == '@') {
+                appendNormalized(out, s, from, i, false);
+                out.append('@');
+                host = i + 1;
+                break;
+            }
+        }
+        int hostEnd = host;
+        if (hostEnd < to && s.charAt(hostEnd) == '[') {// un indirizzo IPv6
+            hostEnd = indexOf(s, hostEnd, to, "]");
+            hostEnd = hostEnd < to ? hostEnd + 1 : to;
+        }
+        hostEnd = indexOf(s, hostEnd, to, ":");
+        appendNormalized(out, s, host, hostEnd, true);
+        int port = hostEnd + 1;
+        if (port < to && !(defaultPort >= 0 && s.regionMatches(port, DEFAULT_PORTS[defaultPort], 0, to - port)
+                                          && DEFAULT_PORTS[defaultPort].length() == to - port)) {
+            out.append(s, hostEnd, to);
+        }
+    }
+
+    /** Ordina per nome, mantenendo l'ordine di quelli con lo stesso nome, i parametri della query che in out
+     * inizia in from e arriva alla fine */
+    private void sortParameters(int from) {
+        if (out.indexOf("&", from) < 0) {
+            return;
+        }
+        String[] params = out.substring(from).split("&", -1);
+        Arrays.sort(params, PARAMETER_ORDER);
+        out.setLength(from);
+        for (int i = 0; i < params.length; i++) {
+            if (i > 0) {
+                out.append('&');
+            }
+            out.append(params[i]);
+        }
+    }
+
+    /* Static Methods */
+    /** Controlla che un URI prodotto da {@link #resolve(String)} possa essere convertito in URL, come
+     * {@link URI#toURL()}. Per gli schemi http e https, gli unici che il Crawler scarica di norma, la
+     * conversione non è tentata perché riesce sempre.
+     * @param uri  un URI assoluto canonico
+     * @throws MalformedURLException se non c'è un gestore per lo schema o la conversione fallisce */
+    static void checkURL(URI uri) throws MalformedURLException {
+        String scheme = uri.getScheme();
+        if (!"http".equals(scheme) && !"https".equals(scheme)) {
+            uri.toURL();
+        }
+    }
+
+    /** Aggiunge a sb i caratteri s[from, to) portando le cifre delle sequenze di escape in maiuscolo e
+     * decodificando quelle dei caratteri non riservati; se lowerCase è true le lettere sono portate in minuscolo */
+    private static void appendNormalized(StringBuilder sb, String s, int from, int to, boolean lowerCase) {
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            int hi, lo;
+            if (c == '%' && i + 2 < to && (hi = hexValue(s.charAt(i + 1))) >= 0
+                                       && (lo = hexValue(s.charAt(i + 2))) >= 0) {
+                char decoded = (char) (hi << 4 | lo);
+                if (isUnreserved(decoded)) {
+                    sb.append(lowerCase ? toLowerCase(decoded) : decoded);
+                } else {
+                    sb.append('%').append(HEX[hi]).append(HEX[lo]);
+                }
+                i += 2;
+            } else {
+                sb.append(lowerCase ? toLowerCase(c) : c);
+            }
+        }
+    }
+
+    /** Aggiunge a out il percorso in senza i segmenti . e .., come l'algoritmo della sezione 5.2.4 della RFC.
+     * I percorsi che non iniziano con / sono aggiunti invariati */
+    private static void removeDotSegments(StringBuilder in, StringBuilder out) {
+        int n = in.length();
+        if (n == 0 || in.charAt(0) != '/') {
+            out.append(in);
+            return;
+        }
+        int root = out.length();
+        int i = 0;
+        while (i < n) {// in[i] è una / e il segmento va da i + 1 alla prossima /
+            int j = i + 1;
+            while (j < n && in.charAt(j) != '/') {
+                j++;
+            }
+            int length = j - i - 1;
+            if (length == 1 && in.charAt(i + 1) == '.') {
+                if (j == n) {
+                    out.append('/');
+                }
+            } else if (length == 2 && in.charAt(i + 1) == '.' && in.charAt(i + 2) == '.') {
+                int last = out.lastIndexOf("/");
+                if (last >= root) {
+                    out.setLength(last);
+                }
+                if (j == n) {
+                    out.append('/');
+                }
+            } else {
+                out.append(in, i, j);
+            }
+            i = j;
+        }
+    }
+
+    /** Aggiunge a sb i caratteri s[from, to) in minuscolo */
+    private static void appendLowerCase(StringBuilder sb, String s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            sb.append(toLowerCase(s.charAt(i)));
+        }
+    }
+
+    /** @return l'indice del primo carattere di s[from, to) che è in chars, o to se non ce ne sono */
+    private static int indexOf(String s, int from, int to, String chars) {
+        for (int i = from; i < to; i++) {
+            if (chars.indexOf(s.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    /** @return l'indice in {@link #SCHEMES} dello schema sb[0, end), -1 se non c'è */
+    private static int defaultPortIndex(StringBuilder sb, int end) {
+        for (int k = 0; k < SCHEMES.length; k++) {
+            String scheme = SCHEMES[k];
+            if (scheme.length() == end) {
+                int i = 0;
+                while (i < end && sb.charAt(i) == scheme.charAt(i)) {
+                    i++;
+                }
+                if (i == end) {
+                    return k;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+        if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+        return -1;
+    }
+
+    private static boolean isAlpha(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isSchemeChar(char c) {
+        return isAlpha(c) || (c >= '0' && c <= '9') || c == '+' || c == '-' || c == '.';
+    }
+
+    private static boolean isUnreserved(char c) {
+        return isAlpha(c) || (c >= '0' && c <= '9') || c == '-' || c == '.' || c == '_' || c == '~';
+    }
+
+    /** Porta in minuscolo le sole lettere ASCII, indipendentemente dalla lingua */
+    private static char toLowerCase(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /* Static Fields */
+    /** Gli schemi con una porta di default e le rispettive porte */
+    private static final String[] SCHEMES = {"http", "https", "ftp", "ws", "wss"};
+    private static final String[] DEFAULT_PORTS = {"80", "443", "21", "80", "443"};
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    /** Confronta i parametri di una query per nome, la parte che precede il primo = */
+    private static final Comparator<String> PARAMETER_ORDER = Comparator.comparing((p) -> {
+        int eq = p.indexOf('=');
+        return eq < 0 ? p : p.substring(0, eq);
+    });
+}
@@ -0,0 +1,106 @@
+package wsa.web;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Una regione di un file mappata in memoria tramite {@link MappedByteBuffer}. Un singolo MappedByteBuffer
+ * non può superare i 2GB, quindi la regione è divisa in segmenti e i valori che cadono a cavallo di due
+ * segmenti sono letti byte per byte. Le posizioni sono relative all'inizio della regione. La lettura è
+ * thread-safe perché usa solamente metodi con posizione assoluta.
+ */
+class MappedFile {
+    /* Static Methods */
+    /** Mappa in memoria una regione di un file. La mappatura resta valida anche dopo la chiusura del canale.
+     * @param channel  il canale del file
+     * @param mode  la modalità di mappatura
+     * @param position  la posizione nel file dell'inizio della regione
+     * @param size  la lunghezza in byte della regione
+     * @return la regione mappata */
+    static MappedFile map(FileChannel channel, FileChannel.MapMode mode, long position, long size)
+            throws IOException {
+        int n = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        MappedByteBuffer[] segments = new MappedByteBuffer[n];
+        for (int i = 0; i < n; i++) {
+            long start = (long) i * SEGMENT_SIZE;
+            segments[i] = channel.map(mode, position + start, Math.min(SEGMENT_SIZE, size - start));
+        }
+        return new MappedFile(segments, size);
+    }
+
+    /* Instance Fields */
+    private final MappedByteBuffer[] segments;
+    private final long size;
+
+    /* Constructors */
+    private MappedFile(MappedByteBuffer[] segments, long size) {
+        this.segments = segments;
+        this.size = size;
+    }
+
+    /* Instance Methods */
+    /** @return la lunghezza in byte della regione */
+    long size() {
+        return size;
+    }
+
+    byte get(long pos) {
+        return segments[(int) (pos / SEGMENT_SIZE)].get((int) (pos % SEGMENT_SIZE));
+    }
+
+    int getInt(long pos) {
+        ByteBuffer segment = segments[(int) (pos / SEGMENT_SIZE)];
+        int offset = (int) (pos % SEGMENT_SIZE);
+        if (offset + 4 <= segment.limit()) {
+            return segment.getInt(offset);
+        }
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = (value << 8) | (get(pos + i) & 0xFF);
+        }
+        return value;
+    }
+
+    long getLong(long pos) {
+        ByteBuffer segment = segments[(int) (pos / SEGMENT_SIZE)];
+        int offset = (int) (pos % SEGMENT_SIZE);
+        if (offset + 8 <= segment.limit()) {
+            return segment.getLong(offset);
+        }
+        return ((long) getInt(pos) << 32) | (getInt(pos + 4) & 0xFFFFFFFFL);
+    }
+
+    /** Copia length byte a partire da pos in dst
+     * @param pos  la posizione del primo byte
+     * @param dst  l'array di destinazione
+     * @param length  il numero di byte da copiare */
+    void get(long pos, byte[] dst, int length) {
+        int copied = 0;
+        while (copied < length) {
+            ByteBuffer segment = segments[(int) ((pos + copied) / SEGMENT_SIZE)].duplicate();
+            int offset = (int) ((pos + copied) % SEGMENT_SIZE);
+            int n = Math.min(length - copied, segment.limit() - offset);
+            segment.position(offset);
+            segment.get(dst, copied, n);
+            copied += n;
+        }
+    }
+
+    /** Scrive un long nella posizione pos, che deve essere multipla di 8 */
+    void putLong(long pos, long value) {
+        segments[(int) (pos / SEGMENT_SIZE)].putLong((int) (pos % SEGMENT_SIZE), value);
+    }
+
+    /** Forza la scrittura su disco delle modifiche fatte con {@link #putLong(long, long)} */
+    void force() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    /* Static Fields */
+    /** La lunghezza di un segmento, multipla di 8 così che i long allineati non siano mai a cavallo */
+    private static final long SEGMENT_SIZE = 1L << 30;
+}
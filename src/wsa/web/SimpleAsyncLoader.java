@@ -1,50 +1,166 @@
 package wsa.web;
 
 import java.net.URL;
+import java.time.Duration;
 import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Un AsyncLoader che per scaricare le pagine usa
  * esclusivamente {@link wsa.web.Loader} forniti da {@link wsa.web.WebFactory#getLoader()}.
+ * Al più un certo numero di download sono eseguiti contemporaneamente, ognuno con un Loader preso da un pool:
+ * i Loader sono creati solo quando servono e riusati, quindi non ce ne sono mai più dei download contemporanei.
+ * I download possono essere eseguiti da un pool di thread di piattaforma, uno per download contemporaneo,
+ * oppure ognuno in un thread virtuale se la JVM li supporta (Java 21 o successiva): in questo caso i download
+ * contemporanei sono limitati solamente da un semaforo e un download in attesa della rete non occupa un thread
+ * del sistema operativo. Se i thread virtuali sono richiesti ma la JVM non li supporta, il pool di thread di
+ * piattaforma non supera comunque la dimensione di default. Un download può avere una scadenza e può essere
+ * cancellato: in entrambi i casi il thread che lo esegue viene interrotto, il Loader abbandona la pagina e il
+ * worker passa al download successivo.
  */
-class SimpleAsyncLoader implements AsyncLoader {
-    /** Costruisce un SimpleAsyncLoader */
+class SimpleAsyncLoader implements CompletableAsyncLoader {
+    /* Nested Classes */
+    /** Un download sottomesso. Quando il suo Future viene completato da altri (perché è stato cancellato o
+     * è scaduto) il thread che sta eseguendo il Loader viene interrotto. */
+    private class Download implements Runnable {
+        final URL url;
+        final CompletableFuture<LoadResult> future = new CompletableFuture<>();
+        /** Il thread che sta eseguendo il Loader o null */
+        private Thread runner = null;
+
+        Download(URL url) {
+            this.url = url;
+            future.whenComplete((r, t) -> abort());
+        }
+
+        @Override
+        public void run() {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                future.complete(new LoadResult(url, null, e));
+                return;
+            }
+            Loader loader = null;
+            try {
+                if ( !setRunner(Thread.currentThread()) ) {
+                    return;// cancellato o scaduto prima di partire
+                }
+                // il semaforo garantisce che ci siano al più tanti Loader quanti permessi
+                loader = loadersQueue.poll();
+                if (loader == null) {
+                    loader = WebFactory.getLoader();
+                }
+                future.complete(loader.load(url));
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            } finally {
+                setRunner(null);
+                Thread.interrupted();// un'interruzione arrivata mentre il download terminava non riguarda il prossimo
+                if (loader != null) {
+                    // shutdown chiude l'executor prima di svuotare il pool: se lo ha già svuotato, il Loader
+                    // appena restituito è tolto qui e non sopravvive alla chiusura
+                    loadersQueue.add(loader);
+                    if (isShutdown()) {
+                        loadersQueue.remove(loader);
+                    }
+                }
+                permits.release();
+            }
+        }
+
+        /** Imposta il thread che esegue il Loader
+         * @return false se il Future è già completato e il download non deve partire */
+        private synchronized boolean setRunner(Thread thread) {
+            if (thread != null && future.isDone()) {
+                return false;
+            }
+            runner = thread;
+            return true;
+        }
+
+        /** Interrompe il thread che esegue il Loader, se non è quello che ha completato il Future */
+        private synchronized void abort() {
+            if (runner != null && runner != Thread.currentThread()) {
+                runner.interrupt();
+            }
+        }
+    }
+
+    /** Costruisce un SimpleAsyncLoader che usa un pool di thread di piattaforma */
     SimpleAsyncLoader() {
-        for (int i = 0; i <= NUM_OF_WORKERS; i++) {
-            loadersQueue.add(WebFactory.getLoader());
+        this(NUM_OF_WORKERS, false);
+    }
+    /** Costruisce un SimpleAsyncLoader
+     * @param maxConcurrent  il numero massimo di download contemporanei
+     * @param virtualThreads  se true ogni download è eseguito in un thread virtuale, se la JVM li supporta;
+     *                        altrimenti i thread di piattaforma non sono più di quelli di default
+     * @throws IllegalArgumentException se maxConcurrent non è positivo */
+    SimpleAsyncLoader(int maxConcurrent, boolean virtualThreads) {
+        if (maxConcurrent <= 0) {
+            throw new IllegalArgumentException("il numero di download contemporanei deve essere positivo");
         }
+        ExecutorService virtual = virtualThreads ? newVirtualThreadExecutor() : null;
+        int threads = virtualThreads ? Math.min(maxConcurrent, NUM_OF_WORKERS) : maxConcurrent;
+        executor = virtual != null ? virtual : Executors.newFixedThreadPool(threads, (runnable) -> {
+            Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+        permits = new Semaphore(maxConcurrent);
     }
     /** Sottomette il downloading della pagina dello specificato URL e ritorna
-     * un Future per ottenere il risultato in modo asincrono.
+     * un Future per ottenere il risultato in modo asincrono. Il Future ritornato è un
+     * {@link CompletableFuture} che viene completato dal worker nel momento stesso in cui
+     * il download termina, così chi lo usa può reagire al completamento senza interrogarlo.
      * @param url  un URL di una pagina web
      * @throws IllegalStateException se il loader è chiuso
      * @return Future per ottenere il risultato in modo asincrono */
     @Override
-    public Future<LoadResult> submit(URL url) {
+    public CompletableFuture<LoadResult> submit(URL url) {
         if (this.isShutdown())
             throw new IllegalStateException("Il loader è chiuso");
-        return executor.submit( () -> {
-            Loader loader = loadersQueue.poll();
-            while (loader == null) {
-                Thread.sleep(50);
-                loader = loadersQueue.poll();
-            }
-            LoadResult result = loader.load(url);
-            loadersQueue.add(loader);
-            return result;
-        });
+        Download download = new Download(url);
+        executor.execute(download);
+        return download.future;
     }
-    /** Chiude il loader e rilascia tutte le risorse. Dopo di ciò non può più
-     * essere usato. */
+    /** Come {@link #submit(URL)}, ma se il download non termina entro timeout viene interrotto e il Future
+     * si completa con un LoadResult la cui eccezione è una {@link TimeoutException}.
+     * @param url  un URL di una pagina web
+     * @param timeout  il tempo massimo concesso al download, positivo
+     * @throws IllegalStateException se il loader è chiuso
+     * @throws IllegalArgumentException se timeout non è positivo
+     * @return Future per ottenere il risultato in modo asincrono */
     @Override
-    public void shutdown() {
-        executor.shutdown();
-        loadersQueue = null;
+    public CompletableFuture<LoadResult> submit(URL url, Duration timeout) {
+        if (timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("il tempo massimo deve essere positivo");
+        }
+        CompletableFuture<LoadResult> future = submit(url);
+        long millis = timeout.toMillis();
+        LoadResult expired = new LoadResult(url, null, new TimeoutException("il download non è terminato entro "
+                                                                            + millis + " ms"));
+        return future.completeOnTimeout(expired, millis, TimeUnit.MILLISECONDS);
+    }
+    /** Chiude il loader e rilascia tutte le risorse: i download in corso sono interrotti e quelli non ancora
+     * partiti sono cancellati. Dopo di ciò non può più essere usato. */
+    @Override
+    public synchronized void shutdown() {
+        if (executor == null) {
+            return;
+        }
+        ExecutorService closing = executor;
         executor = null;
+        for (Runnable pending : closing.shutdownNow()) {
+            ((Download) pending).future.cancel(false);
+        }
+        loadersQueue.clear();
     }
     /** Ritorna true se è chiuso.
      * @return true se è chiuso */
@@ -53,13 +169,21 @@ class SimpleAsyncLoader implements AsyncLoader {
         return (executor == null);
     }
 
-    private Queue<Loader> loadersQueue = new ConcurrentLinkedQueue<>();
+    /** Ritorna un ExecutorService che esegue ogni task in un nuovo thread virtuale, o null se la JVM non
+     * supporta i thread virtuali. È cercato per riflessione così che il codice resti compilabile per Java 11. */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | SecurityException e) {
+            return null;
+        }
+    }
+
+    private final Queue<Loader> loadersQueue = new ConcurrentLinkedQueue<>();
+    /** Limita i download contemporanei, e quindi i Loader creati */
+    private final Semaphore permits;
 
-    private ExecutorService executor = Executors.newFixedThreadPool(NUM_OF_WORKERS, (runnable) -> {
-        Thread thread = Executors.defaultThreadFactory().newThread(runnable);
-        thread.setDaemon(true);
-        return thread;
-    });
+    private volatile ExecutorService executor;
 
     private static final int NUM_OF_WORKERS = 55;
 }
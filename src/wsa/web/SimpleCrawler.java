@@ -1,67 +1,73 @@
 package wsa.web;
 
+import wsa.web.html.PageStats;
+
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.Predicate;
 
 /**
  * Un Crawler che Per scaricare le pagine usa esclusivamente {@link wsa.web.AsyncLoader} fornito da {@link WebFactory#getAsyncLoader()}.
+ * L'AsyncLoader è creato da {@link WebFactory#getAsyncLoader(CrawlerOptions)}, che a seconda delle opzioni esegue
+ * ogni download in un thread virtuale e gli impone una scadenza.
  */
 class SimpleCrawler implements Crawler{
     /* Nested Classes */
-    /** Una classe per controllare se un url è scaricabile in modo asincrono. Simile all'interfaccia AsyncLoader ma
-     * non scarica la pagina, fa solo il check usando il metodo #check di un Loader.
-     */
-    private class AsyncChecker{
-        Future<LoadResult> submit(URL url) {
-            if (this.isShutdown())
-                throw new IllegalStateException("Il loader è chiuso");
-            return executor.submit( () -> {
-                Exception exc = loader.check(url);
-                return new LoadResult(url, null, exc);
-            });
-        }
-        /** Chiude il loader e rilascia tutte le risorse. Dopo di ciò non può più
-         * essere usato. */
-        void shutdown() {
-            executor.shutdown();
-            executor = null;
-        }
-        /** Ritorna true se è chiuso.
-         * @return true se è chiuso */
-        boolean isShutdown(){
-            return (executor == null);
+    /** Il completamento di un download: l'uri sottomesso e il relativo risultato */
+    private static class Completion {
+        final URI uri;
+        final LoadResult result;
+        Completion(URI u, LoadResult lr) {
+            uri = u;
+            result = lr;
         }
-
-        private Loader loader = WebFactory.getLoader();
-
-        private ExecutorService executor = Executors.newFixedThreadPool(65, (runnable) -> {
-            Thread thread = Executors.defaultThreadFactory().newThread(runnable);
-            thread.setDaemon(true);
-            return thread;
-        });
     }
 
     /* Instance Fields */
-    private final Queue<URI> downloadQueue = new ConcurrentLinkedQueue<>();
-    private final Set<URI> toLoadSet = Collections.synchronizedSet(new HashSet<>());
-    private final Set<URI> loadedSet = Collections.synchronizedSet(new HashSet<>());
-    private final Set<URI> errorSet = Collections.synchronizedSet(new HashSet<>());
+    /** Il dizionario degli URI: la tabella degli stati, la frontiera e i link dei risultati contengono solo
+     * identificativi */
+    private final UriDictionary dictionary;
+    private final HostFrontier frontier;
+    /** Lo stato di ogni URI. Gli insiemi ritornati da getLoaded, getToLoad e getErrors sono sue view */
+    private final UriStateTable states;
+    private final Set<URI> toLoadSet;
+    private final Set<URI> loadedSet;
+    private final Set<URI> errorSet;
     private final Predicate<URI> pageLink;
+    private final CrawlerOptions options;
+    /** Riconosce gli URI già elaborati che non sono negli insiemi del Crawler */
+    private final Predicate<URI> known;
+    /** Risolve i link delle pagine e li riduce in forma canonica: è usato solamente dal thread del Crawler */
+    private final LinkResolver resolver;
+    /** Riducono in forma canonica gli URI aggiunti con add, uno per ogni thread che li aggiunge */
+    private final ThreadLocal<LinkResolver> seedResolver;
 
-    private AsyncLoader asyncLoader;
-    private AsyncChecker asyncChecker;
+    private CompletableAsyncLoader asyncLoader;
+    private LinkChecker linkChecker;
     private final Queue<CrawlerResult> resultQueue = new ConcurrentLinkedQueue<>();
-    private final Queue<Future<LoadResult>> futureQueue = new ConcurrentLinkedQueue<>();
+    /** La coda dei download completati dell'esecuzione in corso, null se il Crawler non è in esecuzione */
+    private volatile BlockingQueue<Completion> completionQueue = null;
 
     private Thread runningThread = null;
 
     private short DEBUG = 0;
 
+    /** Le pagine seguite sottomesse, quelle sottomesse per ogni prefisso e il tempo di esecuzione delle
+     * esecuzioni terminate, in millisecondi: sono usati solamente dal thread del Crawler */
+    private long followedPages = 0;
+    private final Map<String, Integer> prefixPages = new HashMap<>();
+    private long runTime = 0;
+    /** true quando il numero di pagine o il tempo dell'esplorazione sono esauriti */
+    private volatile boolean exhausted = false;
+
+    /** Un risultato fittizio che sveglia il thread del Crawler quando viene aggiunto un nuovo uri */
+    private static final Completion WAKE_UP = new Completion(null, null);
+
     /* Constructors */
     /** Costruttore.
     * Si assume che gli URI passati  siano tutti assoluti.
@@ -69,12 +75,42 @@ class SimpleCrawler implements Crawler{
     * @param toLoad  insieme URI da scaricare
     * @param errs  insieme URI con errori
     * @param pageLink  determina gli URI per i quali i link contenuti nelle
-    *                  relative pagine sono usati per continuare il crawling*/
+    *                  relative pagine sono usati per continuare il crawling
+    * @param options  le opzioni del Crawler*/
     SimpleCrawler( Collection<URI> loaded,
                    Collection<URI> toLoad,
                    Collection<URI> errs,
-                   Predicate<URI> pageLink
+                   Predicate<URI> pageLink,
+                   CrawlerOptions options
     ) {
+        this(loaded, toLoad, errs, pageLink, options, (uri) -> false, new UriDictionary());
+    }
+
+    /** Come {@link #SimpleCrawler(Collection, Collection, Collection, Predicate, CrawlerOptions)}, ma gli URI
+     * per cui known è vero sono trattati come già scaricati o andati in errore senza essere copiati negli
+     * insiemi del Crawler: non sono mai aggiunti a quelli da scaricare. Gli URI sono registrati in
+     * dictionary, che può essere condiviso con chi usa il Crawler.
+     * @param known  riconosce gli URI già elaborati
+     * @param dictionary  il dizionario degli URI */
+    SimpleCrawler( Collection<URI> loaded,
+                   Collection<URI> toLoad,
+                   Collection<URI> errs,
+                   Predicate<URI> pageLink,
+                   CrawlerOptions options,
+                   Predicate<URI> known,
+                   UriDictionary dictionary
+    ) {
+        this.known = known;
+        this.dictionary = dictionary;
+        states = new UriStateTable(dictionary);
+        toLoadSet = states.view(UriStateTable.QUEUED, UriStateTable.IN_FLIGHT);
+        loadedSet = states.view(UriStateTable.LOADED);
+        errorSet = states.view(UriStateTable.ERROR);
+        this.options = options;
+        resolver = new LinkResolver(options.isStripFragment(), options.isSortQuery());
+        seedResolver = ThreadLocal.withInitial(() -> new LinkResolver(options.isStripFragment(),
+                                                                      options.isSortQuery()));
+        frontier = new HostFrontier(options, dictionary);
         if (loaded != null) {
             loadedSet.addAll(loaded);
         }
@@ -96,7 +132,8 @@ class SimpleCrawler implements Crawler{
      * tra quelli già scaricati, quelli ancora da scaricare o quelli che sono
      * andati in errore, l'aggiunta non ha nessun effetto. Se invece è un nuovo
      * URI, è aggiunto all'insieme di quelli da scaricare.
-     * Si assume che gli URI passati  siano tutti assoluti.
+     * Si assume che gli URI passati  siano tutti assoluti. L'URI è ridotto nella stessa forma canonica dei link
+     * trovati nelle pagine, così un seed e un link equivalenti sono lo stesso URI.
      * @throws IllegalStateException se il Crawler è cancellato
      * @param uri  un URI che si vuole scaricare */
     @Override
@@ -106,134 +143,127 @@ class SimpleCrawler implements Crawler{
         } else if ( !uri.isAbsolute() ) {
             System.out.println("ERRORE: si sta cercando di aggiungere al crawler un uri non assoluto. " +
                                                                              "Questa azione sarà ingorata.");
-        } else if( !loadedSet.contains(uri)
-                   && !errorSet.contains(uri)
-                   && !toLoadSet.contains(uri) ) {
-            downloadQueue.add(uri);
-            toLoadSet.add(uri);
+        } else {
+            try {
+                URI canonical = seedResolver.get().canonical(uri);
+                add(canonical, dictionary.intern(canonical), 0);
+            } catch (URISyntaxException e) {
+                System.out.println("ERRORE: l'uri " + uri + " non può essere ridotto in forma canonica. " +
+                                   "Questa azione sarà ignorata.");
+            }
+        }
+    }
+
+    /** Helper di add e dell'estrazione dei link, aggiunge uri se è nuovo e non è oltre la profondità massima.
+     * Lo stato dell'uri è letto e cambiato senza lock: se più thread aggiungono lo stesso uri solo uno riesce a
+     * reclamarlo e lo mette nella frontiera, quindi ogni uri è scaricato una volta sola. Se i limiti
+     * dell'esplorazione sono esauriti l'uri è scartato.
+     * @param uri  un URI assoluto
+     * @param id  il suo identificativo nel dizionario
+     * @param depth  la profondità a cui è stato trovato */
+    private void add(URI uri, int id, int depth) {
+        if ( depth <= options.getMaxDepth()
+             && states.state(id) == UriStateTable.UNSEEN
+             && !known.test(uri)
+             && states.claim(id, depth) ) {
+            if (exhausted) {
+                states.set(id, UriStateTable.SKIPPED);
+                return;
+            }
+            frontier.add(uri, id, priorityOf(uri, depth));
+            // sveglia il thread del Crawler, a meno che non sia lui stesso ad aggiungere l'uri
+            BlockingQueue<Completion> completed = completionQueue;
+            if (completed != null && Thread.currentThread() != runningThread) {
+                completed.add(WAKE_UP);
+            }
         }
     }
 
     /** Inizia l'esecuzione del Crawler se non è già in esecuzione e ci sono URI
      * da scaricare, altrimenti l'invocazione è ignorata. Quando è in esecuzione
      * il metodo isRunning ritorna true.
+     * Il thread del Crawler non interroga i download in corso: ogni download, appena
+     * termina, deposita il suo risultato in una coda su cui il thread è in attesa, così
+     * l'estrazione dei link e la pubblicazione del risultato avvengono immediatamente.
+     * Gli uri sono estratti dalla frontiera rispettando le priorità e i limiti per host impostati nelle
+     * {@link CrawlerOptions}, e sono scartati quando superano i limiti dell'esplorazione: la profondità
+     * massima, le pagine per prefisso, il numero di pagine e il tempo di esecuzione.
      * @throws IllegalStateException se il Crawler è cancellato */
     @Override
     public void start() {
         if (this.isCancelled()) throw new IllegalStateException("Il Crawler è cancellato");
         if ( ( runningThread == null || !runningThread.isAlive() )
-                && ( !downloadQueue.isEmpty() || !toLoadSet.isEmpty() ) )
+                && ( !frontier.isEmpty() || !toLoadSet.isEmpty() ) )
         {
+            BlockingQueue<Completion> completed = new LinkedBlockingQueue<>();
+            completionQueue = completed;
             runningThread = new Thread( () -> {
-                asyncLoader = WebFactory.getAsyncLoader();
-                asyncChecker = new AsyncChecker();
-                Set<URI> currentlyDownloadingSet = new HashSet<>();
-                boolean isInterrupted = false;
-                while (!isInterrupted) {
-                    //Mette il prossimo uri a scaricare o lo aggiunge
-                    //agli errori se non è possibile convertirlo in url
-                    URI uri = downloadQueue.poll();
-                    if (uri != null){// se c'è un uri che deve essere scaricato
-                        currentlyDownloadingSet.add(uri);
-                        try {
-                            URL url = uri.toURL();
-                            // se l'uri è da seguire lo elabora con asyncLoader, altrimenti con asyncChecker
+                // cancel può azzerare i campi mentre il thread termina, quindi li chiude tramite le variabili locali
+                CompletableAsyncLoader loader = WebFactory.getAsyncLoader(options);
+                LinkChecker checker = new LinkChecker(WebFactory.getLoader());
+                asyncLoader = loader;
+                linkChecker = checker;
+                long startedAt = System.currentTimeMillis();
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        // Sottomette tutti gli uri che la frontiera permette di scaricare ora
+                        checkBudget(runTime + System.currentTimeMillis() - startedAt);
+                        URI uri = frontier.poll(System.currentTimeMillis());
+                        while (uri != null) {
                             boolean isToFollow = pageLink.test(uri);
-                            Future<LoadResult> future;
-                            if (isToFollow)
-                                future = asyncLoader.submit(url);
-                            else
-                                future = asyncChecker.submit(url);
-                            futureQueue.add(future);
+                            if (isToFollow && !takePage(uri)) {
+                                // il prefisso dell'uri ha esaurito le sue pagine
+                                frontier.done(uri);
+                                states.transition(dictionary.idOf(uri), UriStateTable.QUEUED, UriStateTable.SKIPPED);
+                            } else {
+                                submit(uri, isToFollow, completed);
+                            }
+                            checkBudget(runTime + System.currentTimeMillis() - startedAt);
+                            uri = frontier.poll(System.currentTimeMillis());
                         }
-                        catch (IllegalArgumentException | MalformedURLException exc){
-                            //aggiunge l'url agli errori
-                            currentlyDownloadingSet.remove(uri);
-                            CrawlerResult crawlerResult = new CrawlerResult(uri, false, null, null, exc);
-                            resultQueue.add(crawlerResult);
-                            errorSet.add(uri);
-                            toLoadSet.remove(uri);
+                        // Attende il prossimo download completato, un nuovo uri aggiunto,
+                        // il momento in cui un host in attesa potrà essere servito o la fine del tempo
+                        long delay = frontier.nextDelay(System.currentTimeMillis());
+                        if (options.getMaxTime() > 0 && !exhausted) {
+                            long left = options.getMaxTime() - (runTime + System.currentTimeMillis() - startedAt);
+                            delay = delay < 0 ? Math.max(left, 1) : Math.max(Math.min(delay, left), 1);
                         }
-                    }
-                    //Controlla se il prossimo uri ha scaricato
-                    //ed eventualmente ne elabora il risultato
-                    Future<LoadResult> future = futureQueue.poll();
-                    if ( future != null ) {
-                        if ( future.isDone() ) {
-                            try {
-                                LoadResult lr = future.get();// can throw InterruptedException, ExecutionException.
-                                uri = lr.url.toURI();// can throw URISyntaxException.
-                                currentlyDownloadingSet.remove(uri);
-                                if (lr.exc != null) {// se si è verificata un'eccezione durante il download
-                                    boolean linkPage = pageLink.test(uri);
-                                    List<URI> links = linkPage ? new ArrayList<>() : null;
-                                    List<String> errRawLinks = linkPage ? new ArrayList<>() : null;
-                                    CrawlerResult crawlerResult = new CrawlerResult(uri, linkPage, links, errRawLinks, lr.exc);
-                                    resultQueue.add(crawlerResult);
-                                    errorSet.add(uri);
-                                    toLoadSet.remove(uri);
-                                }else {// se il download è andato a buon fine
-                                    boolean linkPage = false;
-                                    List<URI> links = null;
-                                    List<String> errRawLinks = null;
-                                    if (pageLink.test(uri)) {// se la pagina di questo uri è usata per continuate il crawling
-                                        linkPage = true;
-                                        links = new ArrayList<>();
-                                        errRawLinks = new ArrayList<>();
-                                        for (String link : lr.parsed.getLinks()) {
-                                            try {
-                                                URI linkURI = new URI(link);//throws URISyntaxException, NullPointerException
-                                                if (!linkURI.isAbsolute())
-                                                    linkURI = uri.resolve(linkURI);
-                                                try {
-                                                    linkURI = linkURI.toURL().toURI();// elimina eventuali problemi di conversione uri-url-uri, throws MalformesURLException
-                                                    this.add(linkURI);
-                                                }catch (MalformedURLException e){
-                                                    CrawlerResult cr = new CrawlerResult(linkURI, false, null, null, e);
-                                                    resultQueue.add(cr);
-                                                    errorSet.add(linkURI);
-                                                    //errorSet.add(uri);
-                                                }
-                                                links.add(linkURI);
-                                            }catch (URISyntaxException | NullPointerException e){
-                                                errRawLinks.add(link);
-                                            }
-                                        }
+                        Completion c = delay < 0 ? completed.take()
+                                                 : completed.poll(delay, TimeUnit.MILLISECONDS);
+                        while (c != null) {
+                            if (c != WAKE_UP) {
+                                frontier.done(c.uri);
+                                try {
+                                    process(c);
+                                } catch (URISyntaxException | RuntimeException e) {
+                                    // un errore nell'elaborazione di un download riguarda solo il suo uri
+                                    int id = dictionary.idOf(c.uri);
+                                    if (states.transition(id, UriStateTable.IN_FLIGHT, UriStateTable.ERROR)) {
+                                        resultQueue.add(new CrawlerResult(c.uri, false, null, null, e));
                                     }
-                                    CrawlerResult crawlerResult = new CrawlerResult(uri, linkPage, links, errRawLinks, null);
-                                    resultQueue.add(crawlerResult);
-                                    loadedSet.add(uri);
-                                    toLoadSet.remove(uri);
                                 }
-                            }catch (ExecutionException | URISyntaxException | InterruptedException e) {
-                                e.printStackTrace();
                             }
-                        }
-                        else {
-                            futureQueue.add(future);
+                            c = completed.poll();
                         }
                     }
-                    if (uri == null && future == null) {
-                        try {
-                            Thread.sleep(50);
-                        } catch (InterruptedException e) {
-                            if (DEBUG > 0)
-                                System.out.println("stopping crawler");
-                            asyncLoader.shutdown();
-                            asyncChecker.shutdown();
-                            downloadQueue.addAll(currentlyDownloadingSet);
-                            futureQueue.clear();
-                            isInterrupted = true;
-                        }
+                } catch (InterruptedException e) {
+                    if (DEBUG > 0)
+                        System.out.println("stopping crawler");
+                } finally {
+                    runTime += System.currentTimeMillis() - startedAt;
+                    completionQueue = null;
+                    if (!loader.isShutdown()) {
+                        loader.shutdown();
                     }
-                    if (Thread.currentThread().isInterrupted()) {
-                        if (DEBUG > 0)
-                            System.out.println("stopping crawler");
-                        asyncLoader.shutdown();
-                        asyncChecker.shutdown();
-                        downloadQueue.addAll(currentlyDownloadingSet);
-                        futureQueue.clear();
-                        isInterrupted = true;
+                    if (!checker.isShutdown()) {
+                        checker.shutdown();
+                    }
+                    // i download interrotti tornano in coda
+                    for (URI uri : states.view(UriStateTable.IN_FLIGHT)) {
+                        int id = dictionary.idOf(uri);
+                        if (states.transition(id, UriStateTable.IN_FLIGHT, UriStateTable.QUEUED)) {
+                            frontier.requeue(uri, priorityOf(uri, states.depth(id)));
+                        }
                     }
                 }
             });
@@ -242,6 +272,131 @@ class SimpleCrawler implements Crawler{
         }
     }
 
+    /** Se il numero di pagine o il tempo dell'esplorazione sono esauriti scarta tutti gli uri in attesa e
+     * quelli che saranno aggiunti. Invocato solamente dal thread del Crawler.
+     * @param elapsed  il tempo di esecuzione del Crawler in millisecondi */
+    private void checkBudget(long elapsed) {
+        if (!exhausted && (followedPages >= options.getMaxPages()
+                           || (options.getMaxTime() > 0 && elapsed >= options.getMaxTime()))) {
+            exhausted = true;
+            frontier.drain((id) -> states.transition(id, UriStateTable.QUEUED, UriStateTable.SKIPPED));
+        }
+    }
+
+    /** Conta una pagina seguita che sta per essere scaricata, se il suo prefisso non ha esaurito le pagine.
+     * Invocato solamente dal thread del Crawler.
+     * @param uri  l'uri della pagina
+     * @return false se il prefisso di uri ha esaurito le pagine */
+    private boolean takePage(URI uri) {
+        if (options.getMaxPagesPerPrefix() < Integer.MAX_VALUE) {
+            String prefix = prefixOf(uri, options.getPrefixSegments());
+            int pages = prefixPages.getOrDefault(prefix, 0);
+            if (pages >= options.getMaxPagesPerPrefix()) {
+                return false;
+            }
+            prefixPages.put(prefix, pages + 1);
+        }
+        followedPages++;
+        return true;
+    }
+
+    /** @return il livello di priorità di uri alla profondità depth, tra 0 e {@link HostFrontier#LEVELS} - 1 */
+    private int priorityOf(URI uri, int depth) {
+        int level = options.getPriority().applyAsInt(uri, depth);
+        return Math.max(0, Math.min(level, HostFrontier.LEVELS - 1));
+    }
+
+    /** Sottomette il download (o il solo controllo, se le pagine di uri non sono seguite) di uri.
+     * Quando il download termina il risultato è depositato in completed. Se uri non può essere
+     * convertito in URL è aggiunto subito agli errori.
+     * @param uri  l'uri da scaricare
+     * @param isToFollow  true se la pagina di uri è seguita
+     * @param completed  la coda dei download completati */
+    private void submit(URI uri, boolean isToFollow, BlockingQueue<Completion> completed) {
+        int id = dictionary.idOf(uri);
+        states.transition(id, UriStateTable.QUEUED, UriStateTable.IN_FLIGHT);
+        try {
+            URL url = uri.toURL();
+            // se l'uri è da seguire lo elabora con asyncLoader, altrimenti con linkChecker
+            long timeout = options.getLoadTimeout();
+            CompletableFuture<LoadResult> future = !isToFollow ? linkChecker.submit(url)
+                                                   : timeout > 0 ? asyncLoader.submit(url, Duration.ofMillis(timeout))
+                                                                 : asyncLoader.submit(url);
+            future.whenComplete( (lr, t) -> {
+                if (lr == null) {// il download è terminato in modo anomalo
+                    Exception exc = t instanceof Exception ? (Exception) t : new ExecutionException(t);
+                    lr = new LoadResult(url, null, exc);
+                }
+                completed.add(new Completion(uri, lr));
+            });
+        }
+        catch (IllegalArgumentException | MalformedURLException exc){
+            //aggiunge l'url agli errori
+            frontier.done(uri);
+            CrawlerResult crawlerResult = new CrawlerResult(uri, false, null, null, exc);
+            resultQueue.add(crawlerResult);
+            states.set(id, UriStateTable.ERROR);
+        }
+    }
+
+    /** Elabora il risultato di un download: estrae i link, aggiunge quelli nuovi agli uri da
+     * scaricare e pubblica il CrawlerResult.
+     * @param c  il download completato */
+    private void process(Completion c) throws URISyntaxException {
+        LoadResult lr = c.result;
+        int id = dictionary.idOf(c.uri);
+        int depth = states.depth(id);
+        URI uri = lr.url.toURI();// can throw URISyntaxException.
+        if (lr.exc != null) {// se si è verificata un'eccezione durante il download
+            boolean linkPage = pageLink.test(uri);
+            List<URI> links = linkPage ? new ArrayList<>() : null;
+            List<String> errRawLinks = linkPage ? new ArrayList<>() : null;
+            CrawlerResult crawlerResult = new CrawlerResult(uri, linkPage, links, errRawLinks, lr.exc);
+            resultQueue.add(crawlerResult);
+            states.set(id, UriStateTable.ERROR);
+        }else {// se il download è andato a buon fine
+            boolean linkPage = false;
+            List<URI> links = null;
+            List<String> errRawLinks = null;
+            if (pageLink.test(uri)) {// se la pagina di questo uri è usata per continuate il crawling
+                linkPage = true;
+                int[] linkIds = new int[16];
+                int linkCount = 0;
+                errRawLinks = new ArrayList<>();
+                resolver.base(uri);// can throw URISyntaxException.
+                for (String link : lr.parsed.getLinks()) {
+                    try {
+                        URI linkURI = resolver.resolve(link);//throws URISyntaxException, NullPointerException
+                        int linkId;
+                        try {
+                            LinkResolver.checkURL(linkURI);// throws MalformedURLException
+                            linkId = dictionary.intern(linkURI);
+                            this.add(linkURI, linkId, depth + 1);
+                        }catch (MalformedURLException e){
+                            linkId = dictionary.intern(linkURI);
+                            // il risultato è pubblicato solo dal primo che trova il link
+                            if (states.transition(linkId, UriStateTable.UNSEEN, UriStateTable.ERROR)) {
+                                CrawlerResult cr = new CrawlerResult(linkURI, false, null, null, e);
+                                resultQueue.add(cr);
+                            }
+                        }
+                        if (linkCount == linkIds.length) {
+                            linkIds = Arrays.copyOf(linkIds, linkCount * 2);
+                        }
+                        linkIds[linkCount++] = linkId;
+                    }catch (URISyntaxException | NullPointerException | IllegalArgumentException e){
+                        errRawLinks.add(link);
+                    }
+                }
+                links = new UriList(dictionary, Arrays.copyOf(linkIds, linkCount));
+            }
+            PageStats stats = lr.parsed != null ? PageStats.of(lr.parsed) : null;
+            CrawlerResult crawlerResult = new CrawlerResult(uri, linkPage, links, errRawLinks, null, stats);
+            resultQueue.add(crawlerResult);
+            states.set(id, UriStateTable.LOADED);
+        }
+    }
+
     /** Sospende l'esecuzione del Crawler. Se non è in esecuzione, ignora
      * l'invocazione. L'esecuzione può essere ripresa invocando start. Durante
      * la sospensione l'attività del Crawler dovrebbe essere ridotta al minimo
@@ -263,14 +418,14 @@ class SimpleCrawler implements Crawler{
     @Override
     public void cancel() {
         if (runningThread != null) runningThread.interrupt();
-        if (asyncLoader != null) {
+        if (asyncLoader != null && !asyncLoader.isShutdown()) {
             asyncLoader.shutdown();
         }
-        if (asyncChecker != null) {
-            asyncChecker.shutdown();
+        if (linkChecker != null && !linkChecker.isShutdown()) {
+            linkChecker.shutdown();
         }
         asyncLoader = null;
-        asyncChecker = null;
+        linkChecker = null;
         runningThread = null;
     }
 
@@ -305,8 +460,7 @@ class SimpleCrawler implements Crawler{
 
     /** Ritorna l'insieme, possibilmente vuoto, degli URI che devono essere
      * ancora scaricati. Quando l'esecuzione del crawler termina normalmente
-     * l'insieme è vuoto.
-     * ATTENZIONE: non è una view ma una copia!
+     * l'insieme è vuoto. È una view: contiene sia gli URI in attesa che quelli in download.
      * @throws IllegalStateException se il Crawler è cancellato
      * @return l'insieme degli URI ancora da scaricare (mai null) */
     @Override
@@ -345,6 +499,24 @@ class SimpleCrawler implements Crawler{
         return (this.runningThread != null && this.runningThread.isAlive());
     }
 
+    /** Ritorna il prefisso del percorso di uri formato dallo schema, dall'autorità e dai primi segments
+     * segmenti del percorso, terminato da '/'
+     * @param uri  un URI assoluto
+     * @param segments  il numero di segmenti
+     * @return il prefisso */
+    private static String prefixOf(URI uri, int segments) {
+        String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        int end = 0;
+        for (int i = 0; i < segments && end >= 0 && end < path.length() - 1; i++) {
+            end = path.indexOf('/', end + 1);
+        }
+        String prefix = end < 0 ? path : path.substring(0, end + 1);
+        if (!prefix.endsWith("/")) {
+            prefix += "/";
+        }
+        return uri.getScheme() + "://" + (uri.getRawAuthority() == null ? "" : uri.getRawAuthority()) + prefix;
+    }
+
     /** Ritorna true se il Crawler è stato cancellato. In tal caso non può più
      * essere usato.
      * @return true se il Crawler è stato cancellato */
@@ -1,59 +1,139 @@
 package wsa.web;
 
-import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.util.AbstractSet;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
-import java.util.List;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.function.Predicate;
 
-import wsa.AppendableObjectOutputStream;
-
 /**
  * Created by user on 01/06/15.
  */
-class SimpleSiteCrawler implements SiteCrawler {
+class SimpleSiteCrawler implements GraphSiteCrawler {
     /* Nested Classes */
     /** Classe interna che si occupa di gestire tutti i dati che un SiteCrawler deve fornire nell'implementazione della
-     * sua interfaccia e il loro eventuale salvataggio su memoria secondaria per poter essere recuperati in seguito*/
+     * sua interfaccia e il loro eventuale salvataggio su memoria secondaria per poter essere recuperati in seguito.
+     * L'archivio è un {@link ArchiveLog}: i nuovi risultati e i nuovi seed sono aggiunti in coda da un
+     * {@link ArchiveWriter} su un thread dedicato, gli URI ancora da scaricare sono ricavati da questi durante
+     * il ripristino.
+     * Se l'archivio ha un {@link ArchiveIndex} i risultati che questo copre restano sul disco: gli insiemi degli
+     * URI scaricati e di quelli con errori sono viste che uniscono l'indice con i risultati di questa sessione,
+     * e i risultati sono ricostruiti dall'archivio quando vengono richiesti, tenendo in memoria solamente gli
+     * ultimi usati */
     private class Data {
-        final Set<URI> loadedSet = Collections.synchronizedSet(new HashSet<>());
-        final Set<URI> errorSet = Collections.synchronizedSet(new HashSet<>());
+        /** Un insieme di URI che unisce quelli coperti dall'indice con quelli di questa sessione */
+        private class ArchivedSet extends AbstractSet<URI> {
+            private final Set<URI> session;
+            private final boolean errors;
+
+            ArchivedSet(Set<URI> session, boolean errors) {
+                this.session = session;
+                this.errors = errors;
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                if (session.contains(o)) {
+                    return true;
+                }
+                ArchiveIndex ix = index;
+                if (ix == null || !(o instanceof URI)) {
+                    return false;
+                }
+                int id = ix.idOf((URI) o);
+                return errors ? ix.isError(id) : ix.isLoaded(id);
+            }
+
+            @Override
+            public int size() {
+                ArchiveIndex ix = index;
+                int archived = ix == null ? 0 : (errors ? ix.errorCount() : ix.loadedCount());
+                return archived + session.size();
+            }
+
+            @Override
+            public Iterator<URI> iterator() {
+                ArchiveIndex ix = index;
+                if (ix == null) {
+                    return session.iterator();
+                }
+                Iterator<URI> archived = ix.iterator(errors);
+                Iterator<URI> current = session.iterator();
+                return new Iterator<URI>() {
+                    @Override
+                    public boolean hasNext() {
+                        return archived.hasNext() || current.hasNext();
+                    }
+
+                    @Override
+                    public URI next() {
+                        return archived.hasNext() ? archived.next() : current.next();
+                    }
+                };
+            }
+        }
+
+        /** Gli URI scaricati e quelli con errori non coperti dall'indice */
+        final Set<URI> loadedSet = new UriSet(dictionary);
+        final Set<URI> errorSet = new UriSet(dictionary);
+        /** Tutti gli URI scaricati e tutti quelli con errori */
+        final Set<URI> loadedView = new ArchivedSet(loadedSet, false);
+        final Set<URI> errorView = new ArchivedSet(errorSet, true);
+        /** Gli URI da scaricare ricavati dall'archivio durante il ripristino, nell'ordine in cui erano stati aggiunti */
+        final Set<URI> restoredToLoad = new LinkedHashSet<>();
 
         final Queue<CrawlerResult> resultQueue = new ConcurrentLinkedQueue<>();
+        /** I risultati non coperti dall'indice */
         final Map<URI, CrawlerResult> uriMap = new ConcurrentHashMap<>();
+        /** Gli ultimi risultati ricostruiti dall'indice */
+        private final Map<URI, CrawlerResult> cache = Collections.synchronizedMap(
+                new LinkedHashMap<URI, CrawlerResult>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<URI, CrawlerResult> eldest) {
+                        return size() > CACHE_SIZE;
+                    }
+                });
+        private volatile ArchiveIndex index = null;
+        /** Il filtro degli URI che hanno un risultato nell'indice, o null, e se la sua risposta è definitiva */
+        private UriFilter archivedFilter = null;
+        private boolean approximateArchived = false;
+        /** Il grafo dei link e il suo completamento: i risultati coperti dall'indice vi sono aggiunti in
+         * background da un thread dedicato, il future si completa quando sono stati aggiunti tutti */
+        private final LinkGraph graph = new LinkGraph(dictionary);
+        private final CompletableFuture<LinkGraph> graphReady = new CompletableFuture<>();
 
         final URI domain;
         final Path directory;
 
-        private final Queue<CrawlerResult> toBeStored;
+        private final ArchiveWriter writer;
 
         /** Inizializza le strutture dati opportune per la gestione dei dati.
          * Se dom è null e dir è diverso da null ripristina i dati dell'esplorazione
          * archiviata in dir
          * Si assume che dom e dir non siano mai entrambi null! */
-        Data(URI dom, Path dir) throws IOException {
+        Data(URI dom, Path dir, CrawlerOptions options) throws IOException {
             if ( dir != null && !Files.isDirectory(dir) ) {
                 throw new IllegalArgumentException("il percorso dato non è una directory");
             }
             directory = dir;
-            toBeStored = directory == null ? null : new LinkedBlockingQueue<>();
+            ArchiveLog log;
             if (dom != null) {
                 domain = dom;
                 if (directory != null) {
@@ -62,106 +142,193 @@ class SimpleSiteCrawler implements SiteCrawler {
                     ObjectOutputStream domainOOS = new ObjectOutputStream( Files.newOutputStream(domainPath) );
                     domainOOS.writeObject(domain);
                     domainOOS.close();
-                    // crea il file dove mano a mano verranno archiviati i CrawlerResult
-                    Path resultsPath = directory.resolve("results");
-                    ObjectOutputStream resultsOOS = new ObjectOutputStream( Files.newOutputStream(resultsPath) );
-                    resultsOOS.close();
+                    // crea l'archivio dove mano a mano verranno archiviati i CrawlerResult
+                    log = ArchiveLog.create(directory);
+                } else {
+                    log = null;
                 }
 
             } else /* dom == null && dir != null */ {
                 try ( ObjectInputStream domainIS = new ObjectInputStream(
-                                                        Files.newInputStream(directory.resolve("domain")) );
-                      ObjectInputStream resultsIS = new ObjectInputStream(
-                                                        Files.newInputStream( directory.resolve("results") ))
+                                                        Files.newInputStream(directory.resolve("domain")) )
                 ) {
                     // Ripristina il dominio
                     domain = (URI) domainIS.readObject();
-                    // Ripristina i risultati già scaricati
-                    boolean eof = false;
-                    while (!eof) {
-                        try {
-                            URI uri = (URI) resultsIS.readObject();
-                            boolean linkPage = resultsIS.readBoolean();
-                            List<URI> links = (List<URI>) resultsIS.readObject();
-                            List<String> errRawLinks = (List<String>) resultsIS.readObject();
-                            Exception exc = (Exception) resultsIS.readObject();
-                            CrawlerResult cr = new CrawlerResult(uri, linkPage, links, errRawLinks, exc);
-                            uriMap.put(uri, cr);
-                            if (cr.exc != null) {
-                                errorSet.add(cr.uri);
-                            } else {
-                                loadedSet.add(cr.uri);
-                            }
-                        } catch (EOFException e) {
-                            eof = true;
-                        }
-                    }
                 } catch (ClassNotFoundException e) {
                     throw new IllegalArgumentException("archivio non valido!");
                 }
+                // Gli URI dell'indice ancora da scaricare sono quelli senza risultato
+                ArchiveIndex ix = ArchiveIndex.open(directory);
+                if (ix != null) {
+                    ix.forEachPending((id) -> restoredToLoad.add(ix.uri(id)));
+                    if (options.getExpectedUris() > 0) {
+                        long expected = Math.max(options.getExpectedUris(), ix.loadedCount() + ix.errorCount());
+                        UriFilter filter = new UriFilter(expected, UriFilter.DEFAULT_FALSE_POSITIVE);
+                        ix.forEachResultHash(filter::put);
+                        archivedFilter = filter;
+                        approximateArchived = options.isApproximateSeen();
+                    }
+                }
+                index = ix;
+                // Ripristina i risultati e gli URI da scaricare che non sono coperti dall'indice
+                log = ArchiveLog.open(directory, ix, new ArchiveLog.Visitor() {
+                    @Override
+                    public void result(CrawlerResult cr) {
+                        if (cr.links != null) {
+                            cr = new CrawlerResult(cr.uri, cr.linkPage, UriList.of(dictionary, cr.links),
+                                                   cr.errRawLinks, cr.exc, cr.stats);
+                        }
+                        uriMap.put(cr.uri, cr);
+                        graph.add(cr);
+                        if (cr.exc != null) {
+                            errorSet.add(cr.uri);
+                        } else {
+                            loadedSet.add(cr.uri);
+                        }
+                        restoredToLoad.remove(cr.uri);
+                        // il Crawler aggiunge agli URI da scaricare tutti i link delle pagine seguite
+                        if (cr.linkPage && cr.links != null) {
+                            cr.links.forEach(this::seed);
+                        }
+                    }
+                    @Override
+                    public void seed(URI uri) {
+                        if (!uriMap.containsKey(uri) && !isArchived(uri)) {
+                            restoredToLoad.add(uri);
+                        }
+                    }
+                });
+            }
+            writer = log == null ? null : new ArchiveWriter(log, options);
+            ArchiveIndex ix = index;
+            if (ix == null) {
+                graphReady.complete(graph);
+            } else {
+                Thread builder = new Thread(() -> buildGraph(ix), "wsa-graph-builder");
+                builder.setDaemon(true);
+                builder.start();
+            }
+        }
 
+        /** Ritorna true se l'URI ha un risultato coperto dall'indice. Se c'è il filtro degli URI dell'indice
+         * l'indice è consultato solamente per gli URI che il filtro potrebbe contenere, e nemmeno per quelli
+         * se il filtro è approssimato */
+        boolean isArchived(URI uri) {
+            ArchiveIndex ix = index;
+            if (ix == null) {
+                return false;
+            }
+            UriFilter filter = archivedFilter;
+            if (filter != null) {
+                if (!filter.mightContain(uri)) {
+                    return false;
+                } else if (approximateArchived) {
+                    return true;
+                }
+            }
+            return ix.hasResult(ix.idOf(uri));
+        }
+
+        /** Ritorna il risultato di un URI, ricostruendolo dall'archivio se è coperto dall'indice
+         * @return il risultato o null se l'URI non ha risultati */
+        CrawlerResult result(URI uri) {
+            CrawlerResult cr = uriMap.get(uri);
+            ArchiveIndex ix = index;
+            if (cr == null && ix != null) {
+                cr = cache.get(uri);
+                if (cr == null) {
+                    int id = ix.idOf(uri);
+                    cr = ix.hasResult(id) ? ix.result(id) : null;
+                    if (cr != null) {
+                        // chi lo riceve può conservarlo a lungo: i link sono tenuti come identificativi
+                        if (cr.links != null) {
+                            cr = new CrawlerResult(cr.uri, cr.linkPage, UriList.of(dictionary, cr.links),
+                                                   cr.errRawLinks, cr.exc, cr.stats);
+                        }
+                        cache.put(uri, cr);
+                    }
+                }
+            }
+            return cr;
+        }
+
+        /** Ritorna il future del grafo dei link, che si completa quando il grafo contiene i risultati coperti
+         * dall'indice */
+        CompletableFuture<LinkGraph> graph() {
+            return graphReady;
+        }
+
+        /** Aggiunge al grafo i risultati coperti dall'indice leggendoli dal disco e completa il future del grafo.
+         * Si interrompe se i dati sono cancellati */
+        private void buildGraph(ArchiveIndex ix) {
+            try {
+                for (int id = 0; id < ix.uriCount() && index == ix; id++) {
+                    if (ix.hasResult(id)) {
+                        graph.add(ix.result(id));
+                    }
+                }
+                if (index == ix) {
+                    graphReady.complete(graph);
+                } else {
+                    graphReady.cancel(false);
+                }
+            } catch (RuntimeException | Error e) {
+                graphReady.completeExceptionally(e);
             }
         }
 
         void put(CrawlerResult cr) {
             uriMap.put(cr.uri, cr);
+            graph.add(cr);
             resultQueue.add(cr);
             if (cr.exc != null) {
                 errorSet.add(cr.uri);
             } else {
                 loadedSet.add(cr.uri);
             }
-            if (toBeStored != null) {
-                toBeStored.add(cr);
+            if (writer != null) {
+                writer.put(cr);
             }
         }
-        /** Salva lo stato attuale del SiteCrawler su memoria secondaria.
-         * ATTENZIONE: se viene chiamato da più thread contemporaneamente
-         * potrebbe dare risultati non deterministici !!! */
-        void store() {
-            try (
-                    ObjectOutputStream toLoadOutputStream = new ObjectOutputStream(
-                                                            Files.newOutputStream(directory.resolve("toLoad")) );
-                    ObjectOutputStream resultsOutputStream = new AppendableObjectOutputStream(
-                                                             Files.newOutputStream( directory.resolve("results"),
-                                                                                    StandardOpenOption.APPEND) )
-            ) {
-                // Archivia gli URI che sono ancora in attesa di essere scaricati
-                Set<URI> toLoadUris = getToLoad();
-                toLoadOutputStream.writeObject(toLoadUris);
-                // Archivia i CrawlerResult
-                for ( CrawlerResult cr : toBeStored ) {
-                    resultsOutputStream.writeObject(cr.uri);
-                    resultsOutputStream.writeBoolean(cr.linkPage);
-                    resultsOutputStream.writeObject(cr.links);
-                    resultsOutputStream.writeObject(cr.errRawLinks);
-                    resultsOutputStream.writeObject(cr.exc);
-                }
-                toBeStored.clear();
-            } catch (IOException e) {
-                System.out.println(e);
-                throw new IllegalArgumentException("si sta cercando di scrivere su un file inesistente " +
-                                                   "o di salvare oggetti che non sono Serializable");
+        /** Accoda un seed per l'archiviazione */
+        void putSeed(URI uri) {
+            if (writer != null) {
+                writer.putSeed(uri);
             }
         }
-
-        Set<URI> retrieveToLoadURIsFromDisk() throws IOException, ClassNotFoundException {
-            InputStream toLoadFileStream = Files.newInputStream( directory.resolve("toLoad") );
-            ObjectInputStream toLoadInputStream = new ObjectInputStream(toLoadFileStream);
-            Set<URI> toLoadURIs = (Set<URI>) toLoadInputStream.readObject();
-            toLoadInputStream.close();
-            return toLoadURIs;
+        /** Salva lo stato attuale del SiteCrawler su memoria secondaria: aspetta che i seed e i risultati
+         * accodati finora siano scritti e resi persistenti sul disco */
+        void store() {
+            if (writer != null) {
+                writer.flush();
+            }
         }
 
         void cancel() {
+            index = null;
+            graphReady.cancel(false);
+            cache.clear();
             uriMap.clear();
             loadedSet.clear();
             errorSet.clear();
             resultQueue.clear();
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IllegalStateException e) {
+                    System.out.println(e);
+                }
+            }
         }
+
+        /** Il numero massimo di risultati ricostruiti dall'indice tenuti in memoria */
+        private static final int CACHE_SIZE = 4096;
     }
 
     /* Instance Fields */
+    /** Il dizionario degli URI condiviso con il Crawler */
+    private final UriDictionary dictionary = new UriDictionary();
+
     private final Crawler crawler;
 
     private final Data data;
@@ -172,22 +339,28 @@ class SimpleSiteCrawler implements SiteCrawler {
 
     /** Ripristina l'esplorazione da una directory */
     SimpleSiteCrawler(Path dir) throws IOException {
+        this(dir, new CrawlerOptions());
+    }
+    /** Ripristina l'esplorazione da una directory usando le opzioni date per il Crawler e per l'archivio */
+    SimpleSiteCrawler(Path dir, CrawlerOptions options) throws IOException {
         if (dir == null) {
             throw new IllegalArgumentException("la directory di archiviazione non può essere null!");
         }
-        data = new Data(null, dir);
         try {
-            // Ripristina gli URI che sono in attesa di essere scaricati
-            Set<URI> toLoadURIs = data.retrieveToLoadURIsFromDisk();
-            // Ripristina le pagine già scaricate
-            crawler = WebFactory.getCrawler( data.loadedSet,
-                                             toLoadURIs,
-                                             data.errorSet,
-                                             (u) -> SiteCrawler.checkSeed(data.domain, u) );
-        } catch (IOException | ClassNotFoundException e) {
+            data = new Data(null, dir, options);
+        } catch (IOException e) {
             System.out.println(e);
             throw new IllegalArgumentException( "la directory di archiviazione non esiste o non è valida" );
         }
+        // Ripristina le pagine già scaricate e gli URI che sono in attesa di essere scaricati
+        // Gli URI coperti dall'indice non sono copiati nel Crawler, che li riconosce tramite l'indice
+        crawler = WebFactory.getCrawler( data.loadedSet,
+                                         data.restoredToLoad,
+                                         data.errorSet,
+                                         (u) -> SiteCrawler.checkSeed(data.domain, u),
+                                         options,
+                                         data::isArchived,
+                                         dictionary );
     }
     /**Costruisce un nuovo SimpleSiteCrawler.      Se dom e directory sono entrambi non null,
      * assume che sia un nuovo web site con dominio dom da archiviare nella directory
@@ -205,11 +378,17 @@ class SimpleSiteCrawler implements SiteCrawler {
      * @throws IOException se accade un errore durante l'accesso all'archivio
      * del SiteCrawler*/
     SimpleSiteCrawler(URI dom, Path dir) throws IOException {
+        this(dom, dir, new CrawlerOptions());
+    }
+    /** Costruisce un nuovo SimpleSiteCrawler come {@link #SimpleSiteCrawler(URI, Path)} usando le opzioni date
+     * per il Crawler e per l'archivio */
+    SimpleSiteCrawler(URI dom, Path dir, CrawlerOptions options) throws IOException {
         if ( dom == null || !SiteCrawler.checkDomain(dom) ) {
             throw new IllegalArgumentException("il dominio non è valido");
         }
-        data = new Data(dom, dir);
-        crawler = WebFactory.getCrawler( null, null, null, (u) -> SiteCrawler.checkSeed(data.domain, u) );
+        data = new Data(dom, dir, options);
+        crawler = WebFactory.getCrawler( null, null, null, (u) -> SiteCrawler.checkSeed(data.domain, u), options,
+                                         (u) -> false, dictionary );
     }
 
     /* Instance Methods */
@@ -229,6 +408,7 @@ class SimpleSiteCrawler implements SiteCrawler {
             throw new IllegalArgumentException("L'uri non appartiene al dominio di questo SiteCrawler");
         }
         crawler.add(uri);
+        data.putSeed(uri);
     }
     /** Inizia l'esecuzione del SiteCrawler se non è già in esecuzione e ci sono
      * URI da scaricare, altrimenti l'invocazione è ignorata. Quando è in
@@ -245,7 +425,6 @@ class SimpleSiteCrawler implements SiteCrawler {
         }
         runningThread = new Thread( () -> {
             crawler.start();
-            long lastArchiveTime = System.currentTimeMillis();
             boolean mustStop = false;
             while (!mustStop) {
                 try {
@@ -266,12 +445,6 @@ class SimpleSiteCrawler implements SiteCrawler {
                 if (Thread.currentThread().isInterrupted()) {
                     mustStop = true;
                 }
-                // se sono passati più di 30 secondi dall'ultimo backup lo rifà
-                boolean isTimeToBackup = (System.currentTimeMillis() - lastArchiveTime) >= 30000;
-                if (data.directory != null && isTimeToBackup) {
-                    data.store();
-                    lastArchiveTime = System.currentTimeMillis();
-                }
             }
             // Fa il get di eventuali risultati rimasti prima di sospendere il Crawler
             CrawlerResult crawlerResult = crawler.get().get();
@@ -280,9 +453,7 @@ class SimpleSiteCrawler implements SiteCrawler {
                 crawlerResult = crawler.get().get();
             }
             crawler.suspend();
-            if (data.directory != null) {
-                data.store();
-            }
+            data.store();
         });
         this.runningThread.setDaemon(true);
         this.runningThread.start();
@@ -364,11 +535,13 @@ class SimpleSiteCrawler implements SiteCrawler {
     public CrawlerResult get(URI uri) {
         if (isCancelled()) {
             throw new IllegalStateException("Il Crawler è cancellato");
-        } else if ( !data.loadedSet.contains(uri) && !data.errorSet.contains(uri) ) {
+        }
+        CrawlerResult result = data.result(uri);
+        if (result == null) {
             throw new IllegalArgumentException( "uri non è nell'insieme degli URI scaricati " +
                                                 "né nell'insieme degli URI che hanno prodotto errori");
         }
-        return data.uriMap.get(uri);
+        return result;
     }
 
     /** Ritorna l'insieme di tutti gli URI scaricati, possibilmente vuoto.
@@ -379,7 +552,7 @@ class SimpleSiteCrawler implements SiteCrawler {
         if (isCancelled()) {
             throw new IllegalStateException("Il Crawler è cancellato");
         }
-        return data.loadedSet;
+        return data.loadedView;
     }
 
     /** Ritorna l'insieme, possibilmente vuoto, degli URI che devono essere
@@ -404,7 +577,34 @@ class SimpleSiteCrawler implements SiteCrawler {
         if (isCancelled()) {
             throw new IllegalStateException("Il Crawler è cancellato");
         }
-        return data.errorSet;
+        return data.errorView;
+    }
+
+    /** Ritorna il grafo dei link di tutte le pagine scaricate o che hanno prodotto errori. Se l'esplorazione è
+     * stata ripristinata da un archivio indicizzato, i risultati archiviati sono aggiunti al grafo in background
+     * e il metodo attende che lo siano tutti.
+     * @throws IllegalStateException se il SiteCrawler è cancellato
+     * @return il grafo dei link */
+    @Override
+    public LinkGraph getLinkGraph() {
+        try {
+            return getLinkGraphAsync().join();
+        } catch (CancellationException e) {
+            throw new IllegalStateException("Il Crawler è cancellato");
+        }
+    }
+
+    /** Ritorna un future che si completa con il grafo dei link quando vi sono stati aggiunti i risultati
+     * archiviati coperti dall'indice; se l'esplorazione non è stata ripristinata da un archivio indicizzato è
+     * già completato. Il future è cancellato se il SiteCrawler viene cancellato prima.
+     * @throws IllegalStateException se il SiteCrawler è cancellato
+     * @return il future del grafo dei link */
+    @Override
+    public CompletableFuture<LinkGraph> getLinkGraphAsync() {
+        if (isCancelled()) {
+            throw new IllegalStateException("Il Crawler è cancellato");
+        }
+        return data.graph();
     }
 
     /** Ritorna true se il SiteCrawler è in esecuzione.
@@ -0,0 +1,236 @@
+package wsa.web;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Il dizionario degli URI di un'esplorazione: associa ad ogni URI distinto un identificativo intero, assegnato
+ * in ordine crescente a partire da 0, e ne conserva il testo una sola volta, codificato in UTF-8 in un'arena
+ * di blocchi di byte. Gli insiemi e le liste di URI del Crawler ({@link UriSet}, {@link UriList}) contengono
+ * solamente identificativi e creano gli oggetti {@link URI} quando vengono letti, così un URI presente in molti
+ * insiemi e in molte liste di link occupa memoria una volta sola. URI uguali secondo {@link URI#equals(Object)}
+ * hanno lo stesso identificativo anche se il loro testo è diverso: è conservato il testo del primo.
+ * Tutti i metodi sono thread-safe. Le letture non prendono lock: solo l'aggiunta di un URI nuovo è
+ * sincronizzata. Chi aggiunge un URI scrive il testo e l'hash prima di pubblicare l'identificativo nella tabella
+ * hash con una scrittura volatile, quindi chi lo trova nella tabella vede anche il resto; una lettura
+ * contemporanea al raddoppio della tabella lavora sulla tabella vecchia, che resta valida.
+ */
+class UriDictionary {
+    /* Static Methods */
+    /** Ritorna l'hash di un URI. È calcolato sulle componenti dell'URI in modo che URI uguali secondo
+     * {@link URI#equals(Object)} (ad esempio file:///a e file:/a) abbiano lo stesso hash, e non dipende da
+     * {@link URI#hashCode()}, che potrebbe cambiare tra versioni diverse della piattaforma, quindi può essere
+     * salvato su disco.
+     * @param uri  un URI
+     * @return l'hash */
+    static int hash(URI uri) {
+        int h = hashIgnoreCase(uri.getScheme());
+        h = 31 * h + hash(uri.getRawFragment());
+        if (uri.isOpaque()) {
+            return 31 * h + hash(uri.getRawSchemeSpecificPart());
+        }
+        h = 31 * h + hash(uri.getRawPath());
+        h = 31 * h + hash(uri.getRawQuery());
+        if (uri.getHost() != null) {
+            h = 31 * h + hash(uri.getRawUserInfo());
+            h = 31 * h + hashIgnoreCase(uri.getHost());
+            return 31 * h + uri.getPort();
+        }
+        return 31 * h + hash(uri.getRawAuthority());
+    }
+
+    /** Hash di una stringa che ignora le maiuscole nelle sequenze di escape, come {@link URI#equals(Object)} */
+    private static int hash(String s) {
+        if (s == null) {
+            return 0;
+        }
+        int h = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '%' && i + 2 < s.length()) {
+                h = 31 * (31 * (31 * h + c) + Character.toUpperCase(s.charAt(i + 1)))
+                    + Character.toUpperCase(s.charAt(i + 2));
+                i += 2;
+            } else {
+                h = 31 * h + c;
+            }
+        }
+        return h;
+    }
+
+    private static int hashIgnoreCase(String s) {
+        return s == null ? 0 : s.toLowerCase(Locale.ROOT).hashCode();
+    }
+
+    private static URI toURI(String s) {
+        try {
+            return new URI(s);
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException("URI non valido nel dizionario: " + s);
+        }
+    }
+
+    /* Instance Fields */
+    /** L'arena: ogni testo è preceduto dalla sua lunghezza in byte (varint) */
+    private volatile byte[][] chunks = new byte[4][];
+    private int chunkCount = 0;
+    private int chunkUsed = CHUNK_SIZE;
+    /** Per ogni identificativo: blocco nei 32 bit alti, posizione nel blocco nei 32 bit bassi */
+    private volatile long[] refs = new long[256];
+    private volatile int[] hashes = new int[256];
+    /** Scritto dopo il testo e l'hash dell'ultimo identificativo, che sono quindi visibili a chi lo legge */
+    private volatile int size = 0;
+    /** Tabella hash ad indirizzamento aperto: identificativo + 1, 0 se vuoto */
+    private volatile AtomicIntegerArray table = new AtomicIntegerArray(512);
+
+    /* Instance Methods */
+    /** Ritorna l'identificativo di un URI, aggiungendolo al dizionario se non è presente
+     * @param uri  un URI
+     * @return il suo identificativo */
+    int intern(URI uri) {
+        String s = uri.toString();
+        int hash = hash(uri);
+        AtomicIntegerArray current = table;
+        int found = current.get(find(current, uri, s, hash)) - 1;
+        if (found >= 0) {
+            return found;
+        }
+        synchronized (this) {
+            current = table;
+            int i = find(current, uri, s, hash);
+            if (current.get(i) != 0) {// aggiunto da un altro thread dopo la ricerca senza lock
+                return current.get(i) - 1;
+            }
+            int id = size;
+            if (id == refs.length) {
+                refs = Arrays.copyOf(refs, id * 2);
+                hashes = Arrays.copyOf(hashes, id * 2);
+            }
+            refs[id] = store(s.getBytes(StandardCharsets.UTF_8));
+            hashes[id] = hash;
+            size = id + 1;
+            current.set(i, id + 1);
+            if (size * 2 > current.length()) {
+                rehash();
+            }
+            return id;
+        }
+    }
+
+    /** Ritorna l'identificativo di un URI senza aggiungerlo al dizionario
+     * @param uri  un URI
+     * @return il suo identificativo o -1 se non è nel dizionario */
+    int idOf(URI uri) {
+        String s = uri.toString();
+        int hash = hash(uri);
+        AtomicIntegerArray current = table;
+        return current.get(find(current, uri, s, hash)) - 1;
+    }
+
+    /** Ritorna l'URI con un dato identificativo. Ogni invocazione crea un nuovo oggetto URI.
+     * @param id  un identificativo ritornato da {@link #intern(URI)}
+     * @return l'URI */
+    URI uri(int id) {
+        return toURI(text(id));
+    }
+
+    /** Ritorna il testo dell'URI con un dato identificativo
+     * @param id  un identificativo ritornato da {@link #intern(URI)}
+     * @return il testo dell'URI */
+    String text(int id) {
+        if (id < 0 || id >= size) {
+            throw new IllegalArgumentException("identificativo non valido: " + id);
+        }
+        long ref = refs[id];
+        byte[] chunk = chunks[(int) (ref >>> 32)];
+        int pos = (int) ref;
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = chunk[pos++];
+            length |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                break;
+            }
+        }
+        return new String(chunk, pos, length, StandardCharsets.UTF_8);
+    }
+
+    /** Ritorna l'hash dell'URI con un dato identificativo, senza ricostruire l'URI
+     * @param id  un identificativo ritornato da {@link #intern(URI)}
+     * @return l'hash ritornato da {@link #hash(URI)} */
+    int hashOf(int id) {
+        if (id < 0 || id >= size) {
+            throw new IllegalArgumentException("identificativo non valido: " + id);
+        }
+        return hashes[id];
+    }
+
+    /** @return il numero di URI nel dizionario */
+    int size() {
+        return size;
+    }
+
+    /** Cerca un URI in una tabella hash
+     * @return la posizione dell'URI nella tabella o della casella vuota dove andrebbe inserito */
+    private int find(AtomicIntegerArray table, URI uri, String s, int hash) {
+        int mask = table.length() - 1;
+        int i = (hash ^ (hash >>> 16)) & mask;
+        int slot;
+        while ((slot = table.get(i)) != 0) {
+            int id = slot - 1;
+            if (hashOf(id) == hash) {
+                String other = text(id);
+                if (other.equals(s) || toURI(other).equals(uri)) {
+                    return i;
+                }
+            }
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /** Raddoppia la tabella hash. La nuova tabella è riempita prima di essere pubblicata. */
+    private void rehash() {
+        int[] newTable = new int[table.length() * 2];
+        int mask = newTable.length - 1;
+        for (int id = 0; id < size; id++) {
+            int i = (hashes[id] ^ (hashes[id] >>> 16)) & mask;
+            while (newTable[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            newTable[i] = id + 1;
+        }
+        table = new AtomicIntegerArray(newTable);
+    }
+
+    /** Copia un testo nell'arena preceduto dalla sua lunghezza
+     * @return il riferimento al testo */
+    private long store(byte[] bytes) {
+        int needed = bytes.length + 5;
+        if (chunkUsed + needed > CHUNK_SIZE) {
+            if (chunkCount == chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunkCount * 2);
+            }
+            chunks[chunkCount++] = new byte[Math.max(CHUNK_SIZE, needed)];
+            chunkUsed = 0;
+        }
+        byte[] chunk = chunks[chunkCount - 1];
+        long ref = ((long) (chunkCount - 1) << 32) | chunkUsed;
+        int length = bytes.length;
+        while ((length & ~0x7F) != 0) {
+            chunk[chunkUsed++] = (byte) ((length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+        chunk[chunkUsed++] = (byte) length;
+        System.arraycopy(bytes, 0, chunk, chunkUsed, bytes.length);
+        chunkUsed += bytes.length;
+        return ref;
+    }
+
+    /* Static Fields */
+    private static final int CHUNK_SIZE = 1 << 16;
+}
@@ -0,0 +1,105 @@
+package wsa.web;
+
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Un filtro di Bloom sugli URI: dice con certezza che un URI non è stato aggiunto, mentre se risponde che potrebbe
+ * esserlo sbaglia con una probabilità prefissata. È costruito sull'hash {@link UriDictionary#hash(URI)}, quindi
+ * URI uguali secondo {@link URI#equals(Object)} danno sempre la stessa risposta e non ci sono mai falsi negativi,
+ * e può essere riempito anche con gli hash salvati su disco senza ricostruire gli URI. Per n URI e una
+ * probabilità di falso positivo p usa -n ln p / (ln 2)^2 bit (circa 10 bit per URI con p = 1%). I bit sono in un
+ * {@link AtomicLongArray}, quindi aggiunte e interrogazioni possono essere concorrenti e non prendono lock.
+ */
+class UriFilter {
+    /* Instance Fields */
+    private final AtomicLongArray bits;
+    /** Il numero di bit del filtro */
+    private final long size;
+    /** Il numero di bit impostati per ogni URI */
+    private final int hashes;
+
+    /* Constructors */
+    /** Crea un filtro vuoto dimensionato per il numero di URI previsto
+     * @param expected  il numero di URI che saranno aggiunti, positivo
+     * @param falsePositive  la probabilità di falso positivo desiderata, tra 0 e 1 esclusi
+     * @throws IllegalArgumentException se expected non è positivo o falsePositive non è tra 0 e 1 */
+    UriFilter(long expected, double falsePositive) {
+        if (expected <= 0) {
+            throw new IllegalArgumentException("il numero di URI previsto deve essere positivo");
+        }
+        if (!(falsePositive > 0 && falsePositive < 1)) {
+            throw new IllegalArgumentException("la probabilità di falso positivo deve essere tra 0 e 1");
+        }
+        double ln2 = Math.log(2);
+        long m = (long) Math.ceil(-expected * Math.log(falsePositive) / (ln2 * ln2));
+        int words = (int) Math.min(MAX_WORDS, Math.max(1, (m + 63) / 64));
+        bits = new AtomicLongArray(words);
+        size = 64L * words;
+        hashes = (int) Math.max(1, Math.min(MAX_HASHES, Math.round((double) size / expected * ln2)));
+    }
+
+    /* Instance Methods */
+    /** Aggiunge un URI al filtro
+     * @param uri  un URI */
+    void put(URI uri) {
+        put(UriDictionary.hash(uri));
+    }
+
+    /** Aggiunge al filtro l'URI con l'hash dato
+     * @param hash  l'hash dell'URI ritornato da {@link UriDictionary#hash(URI)} */
+    void put(int hash) {
+        long h1 = mix(hash);
+        long h2 = mix(h1) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, size);
+            int index = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long word = bits.get(index);
+            while ((word & mask) == 0 && !bits.compareAndSet(index, word, word | mask)) {
+                word = bits.get(index);
+            }
+        }
+    }
+
+    /** Ritorna false se l'URI non è mai stato aggiunto al filtro, true se potrebbe esserlo stato
+     * @param uri  un URI
+     * @return false solo se l'URI non è sicuramente nel filtro */
+    boolean mightContain(URI uri) {
+        return mightContain(UriDictionary.hash(uri));
+    }
+
+    /** Come {@link #mightContain(URI)} per l'URI con l'hash dato
+     * @param hash  l'hash dell'URI ritornato da {@link UriDictionary#hash(URI)}
+     * @return false solo se l'URI non è sicuramente nel filtro */
+    boolean mightContain(int hash) {
+        long h1 = mix(hash);
+        long h2 = mix(h1) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, size);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* Static Methods */
+    /** Distribuisce i bit di h su tutti i 64 bit del risultato (il finalizzatore di MurmurHash3) */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /* Static Fields */
+    /** La probabilità di falso positivo usata quando non ne serve una particolare */
+    static final double DEFAULT_FALSE_POSITIVE = 0.01;
+
+    /** Il numero massimo di parole del filtro, circa 16 GiB */
+    private static final int MAX_WORDS = Integer.MAX_VALUE - 8;
+    private static final int MAX_HASHES = 16;
+}
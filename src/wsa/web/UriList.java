@@ -0,0 +1,58 @@
+package wsa.web;
+
+import java.net.URI;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Una lista immutabile di URI che contiene solamente gli identificativi assegnati da un {@link UriDictionary}.
+ * È usata per i link dei {@link CrawlerResult}: gli URI sono creati dal dizionario quando vengono letti.
+ */
+class UriList extends AbstractList<URI> implements RandomAccess {
+    /* Static Methods */
+    /** Ritorna una lista con gli stessi URI di list, registrandoli nel dizionario
+     * @param dictionary  il dizionario
+     * @param list  una lista di URI
+     * @return la lista basata sugli identificativi */
+    static UriList of(UriDictionary dictionary, List<URI> list) {
+        if (list instanceof UriList && ((UriList) list).dictionary == dictionary) {
+            return (UriList) list;
+        }
+        int[] ids = new int[list.size()];
+        int i = 0;
+        for (URI uri : list) {
+            ids[i++] = dictionary.intern(uri);
+        }
+        return new UriList(dictionary, ids);
+    }
+
+    /* Instance Fields */
+    private final UriDictionary dictionary;
+    private final int[] ids;
+
+    /* Constructors */
+    /** Crea la lista
+     * @param dictionary  il dizionario che ha assegnato gli identificativi
+     * @param ids  gli identificativi degli URI, l'array non deve essere più modificato */
+    UriList(UriDictionary dictionary, int[] ids) {
+        this.dictionary = dictionary;
+        this.ids = ids;
+    }
+
+    /* Instance Methods */
+    @Override
+    public URI get(int index) {
+        return dictionary.uri(ids[index]);
+    }
+
+    /** @return l'identificativo dell'URI in posizione index */
+    int id(int index) {
+        return ids[index];
+    }
+
+    @Override
+    public int size() {
+        return ids.length;
+    }
+}
@@ -0,0 +1,118 @@
+package wsa.web;
+
+import java.net.URI;
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Un insieme di URI che contiene solamente gli identificativi assegnati da un {@link UriDictionary}, in un
+ * {@link BitSet}. Poiché gli identificativi sono densi ogni URI dell'esplorazione occupa un bit per insieme.
+ * Gli URI sono creati dal dizionario quando l'insieme viene iterato. Tutti i metodi sono thread-safe e
+ * l'iterazione non lancia mai {@link java.util.ConcurrentModificationException}: vede gli URI presenti
+ * mano a mano che avanza.
+ */
+class UriSet extends AbstractSet<URI> {
+    /* Instance Fields */
+    private final UriDictionary dictionary;
+    private final BitSet ids = new BitSet();
+    private int size = 0;
+
+    /* Constructors */
+    /** Crea un insieme vuoto
+     * @param dictionary  il dizionario che assegna gli identificativi */
+    UriSet(UriDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /* Instance Methods */
+    @Override
+    public boolean add(URI uri) {
+        return addId(dictionary.intern(uri));
+    }
+
+    /** Aggiunge l'URI con l'identificativo dato
+     * @return true se l'URI non era presente */
+    synchronized boolean addId(int id) {
+        if (ids.get(id)) {
+            return false;
+        }
+        ids.set(id);
+        size++;
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof URI && containsId(dictionary.idOf((URI) o));
+    }
+
+    /** @return true se l'URI con l'identificativo dato è presente */
+    synchronized boolean containsId(int id) {
+        return id >= 0 && ids.get(id);
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return o instanceof URI && removeId(dictionary.idOf((URI) o));
+    }
+
+    /** Toglie l'URI con l'identificativo dato
+     * @return true se l'URI era presente */
+    synchronized boolean removeId(int id) {
+        if (id < 0 || !ids.get(id)) {
+            return false;
+        }
+        ids.clear(id);
+        size--;
+        return true;
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void clear() {
+        ids.clear();
+        size = 0;
+    }
+
+    @Override
+    public Iterator<URI> iterator() {
+        return new Iterator<URI>() {
+            private int next = nextId(0);
+            private int last = -1;
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public URI next() {
+                if (next < 0) {
+                    throw new NoSuchElementException();
+                }
+                last = next;
+                next = nextId(next + 1);
+                return dictionary.uri(last);
+            }
+
+            @Override
+            public void remove() {
+                if (last < 0) {
+                    throw new IllegalStateException();
+                }
+                removeId(last);
+                last = -1;
+            }
+        };
+    }
+
+    private synchronized int nextId(int from) {
+        return ids.nextSetBit(from);
+    }
+}
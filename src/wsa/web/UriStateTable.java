@@ -0,0 +1,331 @@
+package wsa.web;
+
+import java.net.URI;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Lo stato di ogni URI di un'esplorazione, indicizzato dagli identificativi di un {@link UriDictionary}: mai
+ * visto, in coda, in download, scaricato, in errore o scartato, con la profondità a cui l'URI è stato trovato
+ * la prima volta. Ogni URI occupa 4 bit per lo stato e 8 per la profondità in {@link AtomicIntegerArray} e
+ * ogni cambiamento di stato è una compare-and-set, quindi nessuna operazione su un URI prende un lock e
+ * {@link #claim(int)} garantisce che un URI sia messo in coda una volta sola anche se più thread lo trovano
+ * contemporaneamente. Gli array sono divisi in pagine create quando servono: solo la creazione di una pagina è
+ * sincronizzata. Gli insiemi degli URI scaricati, da scaricare e in errore sono view della tabella ottenute con
+ * {@link #view(int...)}.
+ */
+class UriStateTable {
+    /* Nested Classes */
+    /** Gli stati e le profondità di 2^PAGE_SHIFT URI consecutivi */
+    private static class Page {
+        final AtomicIntegerArray states = new AtomicIntegerArray(PAGE_WORDS);
+        final AtomicIntegerArray depths = new AtomicIntegerArray((1 << PAGE_SHIFT) / 4);
+    }
+
+    /** Una view dell'insieme degli URI che sono in uno degli stati dati. Aggiungere un URI lo porta nel primo
+     * degli stati, toglierlo lo riporta in {@link #UNSEEN}. L'iterazione non lancia mai
+     * {@link java.util.ConcurrentModificationException}: vede gli URI presenti mano a mano che avanza. */
+    private class View extends AbstractSet<URI> {
+        final int first;
+        /** Il bit s è 1 se la view contiene gli URI nello stato s */
+        final int mask;
+
+        View(int[] states) {
+            first = states[0];
+            int m = 0;
+            for (int s : states) {
+                m |= 1 << s;
+            }
+            mask = m;
+        }
+
+        @Override
+        public boolean add(URI uri) {
+            return !has(set(dictionary.intern(uri), first));
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof URI && has(state(dictionary.idOf((URI) o)));
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return o instanceof URI && removeId(dictionary.idOf((URI) o));
+        }
+
+        boolean removeId(int id) {
+            while (true) {
+                int current = state(id);
+                if (!has(current)) {
+                    return false;
+                }
+                if (transition(id, current, UNSEEN)) {
+                    return true;
+                }
+            }
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (int s = QUEUED; s < STATES; s++) {
+                if (has(s)) {
+                    size += counts.get(s);
+                }
+            }
+            return size;
+        }
+
+        @Override
+        public Iterator<URI> iterator() {
+            return new Iterator<URI>() {
+                private int next = nextId(0, mask);
+                private int last = -1;
+
+                @Override
+                public boolean hasNext() {
+                    return next >= 0;
+                }
+
+                @Override
+                public URI next() {
+                    if (next < 0) {
+                        throw new NoSuchElementException();
+                    }
+                    last = next;
+                    next = nextId(next + 1, mask);
+                    return dictionary.uri(last);
+                }
+
+                @Override
+                public void remove() {
+                    if (last < 0) {
+                        throw new IllegalStateException();
+                    }
+                    removeId(last);
+                    last = -1;
+                }
+            };
+        }
+
+        private boolean has(int state) {
+            return state != UNSEEN && (mask & (1 << state)) != 0;
+        }
+    }
+
+    /* Instance Fields */
+    private final UriDictionary dictionary;
+    /** Le pagine della tabella, null quelle che non contengono ancora nessun URI visto */
+    private volatile Page[] pages = new Page[16];
+    /** Il numero di URI in ogni stato, tranne UNSEEN */
+    private final AtomicIntegerArray counts = new AtomicIntegerArray(STATES);
+
+    /* Constructors */
+    /** Crea una tabella in cui tutti gli URI sono nello stato {@link #UNSEEN}
+     * @param dictionary  il dizionario che assegna gli identificativi */
+    UriStateTable(UriDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /* Instance Methods */
+    /** @return lo stato dell'URI con l'identificativo dato, {@link #UNSEEN} se id è negativo */
+    int state(int id) {
+        if (id < 0) {
+            return UNSEEN;
+        }
+        Page page = page(id, false);
+        return page == null ? UNSEEN : (page.states.get(word(id)) >>> shift(id)) & STATE_MASK;
+    }
+
+    /** @return la profondità dell'URI con l'identificativo dato, 0 se non è mai stato messo in coda */
+    int depth(int id) {
+        Page page = id < 0 ? null : page(id, false);
+        return page == null ? 0 : (page.depths.get((id & ((1 << PAGE_SHIFT) - 1)) >>> 2) >>> ((id & 3) * 8)) & 0xFF;
+    }
+
+    /** Mette in coda l'URI con l'identificativo dato se non è mai stato visto. Se più thread lo invocano
+     * contemporaneamente per lo stesso URI solo uno ottiene true.
+     * @param id  l'identificativo dell'URI
+     * @return true se l'URI era in {@link #UNSEEN} ed è ora in {@link #QUEUED} */
+    boolean claim(int id) {
+        return transition(id, UNSEEN, QUEUED);
+    }
+
+    /** Come {@link #claim(int)}, ma chi reclama l'URI ne imposta anche la profondità
+     * @param id  l'identificativo dell'URI
+     * @param depth  la profondità a cui l'URI è stato trovato, non negativa; oltre {@link #MAX_DEPTH} è
+     *               registrata come MAX_DEPTH
+     * @return true se l'URI era in {@link #UNSEEN} ed è ora in {@link #QUEUED} */
+    boolean claim(int id, int depth) {
+        if (!claim(id)) {
+            return false;
+        }
+        AtomicIntegerArray depths = page(id, true).depths;
+        int index = (id & ((1 << PAGE_SHIFT) - 1)) >>> 2;
+        int shift = (id & 3) * 8;
+        int value = Math.min(Math.max(depth, 0), MAX_DEPTH);
+        while (true) {
+            int word = depths.get(index);
+            if (depths.compareAndSet(index, word, (word & ~(0xFF << shift)) | (value << shift))) {
+                return true;
+            }
+        }
+    }
+
+    /** Cambia lo stato dell'URI con l'identificativo dato solo se è quello atteso
+     * @param id  l'identificativo dell'URI
+     * @param from  lo stato atteso
+     * @param to  il nuovo stato, diverso da from
+     * @return true se lo stato è stato cambiato */
+    boolean transition(int id, int from, int to) {
+        return update(id, from, to) == from;
+    }
+
+    /** Porta l'URI con l'identificativo dato nello stato specificato, qualunque sia il suo stato attuale
+     * @param id  l'identificativo dell'URI
+     * @param to  il nuovo stato
+     * @return lo stato precedente */
+    int set(int id, int to) {
+        return update(id, -1, to);
+    }
+
+    /** Ritorna una view dell'insieme degli URI che sono in uno degli stati specificati
+     * @param states  uno o più stati diversi da {@link #UNSEEN}
+     * @return la view */
+    Set<URI> view(int... states) {
+        if (states.length == 0) {
+            throw new IllegalArgumentException("la view deve avere almeno uno stato");
+        }
+        for (int s : states) {
+            if (s <= UNSEEN || s >= STATES) {
+                throw new IllegalArgumentException("stato non valido per una view: " + s);
+            }
+        }
+        return new View(states);
+    }
+
+    /** Porta un URI in to se il suo stato è from, o qualunque esso sia se from è negativo
+     * @return lo stato dell'URI prima dell'operazione */
+    private int update(int id, int from, int to) {
+        if (id < 0) {
+            throw new IllegalArgumentException("identificativo non valido: " + id);
+        }
+        Page p = page(id, to != UNSEEN);
+        if (p == null) {
+            return UNSEEN;// già in UNSEEN
+        }
+        AtomicIntegerArray page = p.states;
+        int index = word(id);
+        int shift = shift(id);
+        while (true) {
+            int word = page.get(index);
+            int current = (word >>> shift) & STATE_MASK;
+            if ((from >= 0 && current != from) || current == to) {
+                return current;
+            }
+            if (page.compareAndSet(index, word, (word & ~(STATE_MASK << shift)) | (to << shift))) {
+                if (current != UNSEEN) {
+                    counts.decrementAndGet(current);
+                }
+                if (to != UNSEEN) {
+                    counts.incrementAndGet(to);
+                }
+                return current;
+            }
+        }
+    }
+
+    /** Ritorna la pagina che contiene l'URI id
+     * @param create  se true la pagina è creata se non esiste
+     * @return la pagina o null se non esiste e create è false */
+    private Page page(int id, boolean create) {
+        int p = id >>> PAGE_SHIFT;
+        Page[] current = pages;
+        if (p < current.length && current[p] != null) {
+            return current[p];
+        }
+        if (!create) {
+            return null;
+        }
+        synchronized (this) {
+            current = pages;
+            if (p >= current.length) {
+                Page[] grown = new Page[Math.max(p + 1, current.length * 2)];
+                System.arraycopy(current, 0, grown, 0, current.length);
+                current = grown;
+            }
+            if (current[p] == null) {
+                current[p] = new Page();
+            }
+            pages = current;// pubblica la pagina nuova
+            return current[p];
+        }
+    }
+
+    /** Ritorna il primo identificativo non minore di from di un URI in uno degli stati di mask
+     * @return l'identificativo o -1 se non c'è */
+    private int nextId(int from, int mask) {
+        Page[] current = pages;
+        for (int p = from >>> PAGE_SHIFT; p < current.length; p++) {
+            if (current[p] == null) {
+                continue;
+            }
+            AtomicIntegerArray page = current[p].states;
+            int start = p == from >>> PAGE_SHIFT ? from : p << PAGE_SHIFT;
+            long end = (long) (p + 1) << PAGE_SHIFT;
+            for (int id = start; id < end; id++) {
+                int word = page.get(word(id));
+                if (word == 0) {// tutti UNSEEN
+                    id |= PER_WORD - 1;
+                    continue;
+                }
+                int state = (word >>> shift(id)) & STATE_MASK;
+                if (state != UNSEEN && (mask & (1 << state)) != 0) {
+                    return id;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /* Static Methods */
+    /** @return la posizione nella pagina dell'intero che contiene lo stato dell'URI id */
+    private static int word(int id) {
+        return (id & ((1 << PAGE_SHIFT) - 1)) / PER_WORD;
+    }
+
+    /** @return la posizione dei bit dello stato dell'URI id nel suo intero */
+    private static int shift(int id) {
+        return (id % PER_WORD) * BITS;
+    }
+
+    /* Static Fields */
+    /** L'URI non è mai stato visto */
+    static final int UNSEEN = 0;
+    /** L'URI è in attesa di essere scaricato */
+    static final int QUEUED = 1;
+    /** L'URI è in download */
+    static final int IN_FLIGHT = 2;
+    /** L'URI è stato scaricato */
+    static final int LOADED = 3;
+    /** Il download dell'URI è andato in errore */
+    static final int ERROR = 4;
+    /** L'URI è stato scartato senza essere scaricato, ad esempio perché è oltre i limiti dell'esplorazione, e non
+     * sarà messo in coda di nuovo */
+    static final int SKIPPED = 5;
+
+    /** La profondità massima registrata */
+    static final int MAX_DEPTH = 255;
+
+    private static final int STATES = 6;
+    private static final int BITS = 4;
+    private static final int STATE_MASK = (1 << BITS) - 1;
+    private static final int PER_WORD = Integer.SIZE / BITS;
+    /** Ogni pagina contiene gli stati di 2^PAGE_SHIFT URI */
+    private static final int PAGE_SHIFT = 15;
+    private static final int PAGE_WORDS = (1 << PAGE_SHIFT) / PER_WORD;
+}
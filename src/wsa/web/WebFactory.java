@@ -32,6 +32,30 @@ public class WebFactory {
         loaderFactory = lf;
     }
 
+    /** Ritorna una factory per {@link wsa.web.Loader} che non usano una
+     * {@link javafx.scene.web.WebEngine}: le pagine sono scaricate con un
+     * {@link java.net.http.HttpClient} condiviso (o lette da disco se sono file locali) e
+     * analizzate da un tokenizzatore html interno. Può essere impostata con
+     * {@link WebFactory#setLoaderFactory(LoaderFactory)} per esplorazioni in cui il
+     * numero di pagine al secondo non deve dipendere dal JavaFX Application Thread.
+     * @return una factory per Loader basati su HttpClient */
+    public static LoaderFactory getHttpLoaderFactory() {
+        return getHttpLoaderFactory(false);
+    }
+
+    /** Come {@link WebFactory#getHttpLoaderFactory()}, ma se linksOnly è true i Loader
+     * creati lavorano in modalità "solo link": dai byte di ogni pagina sono estratti in un
+     * solo passaggio gli href dei tag A (risolti rispetto all'eventuale tag BASE) senza
+     * costruire l'albero di parsing, che è costruito solamente se viene richiesto tramite
+     * {@link wsa.web.html.Parsed#visit(java.util.function.Consumer)} o
+     * {@link wsa.web.html.Parsed#getByTag(String)}. Adatta alle esplorazioni che non
+     * visualizzano le pagine.
+     * @param linksOnly  true per la modalità "solo link"
+     * @return una factory per Loader basati su HttpClient */
+    public static LoaderFactory getHttpLoaderFactory(boolean linksOnly) {
+        return () -> new HttpLoader(linksOnly);
+    }
+
     /** Ritorna un nuovo {@link wsa.web.Loader}. Se non è stata impostata una factory
      * tramite il metodo {@link WebFactory#setLoaderFactory(LoaderFactory)}, il Loader
      * è creato tramite l'implementazione di default, altrimenti il Loader è creato
@@ -70,6 +94,18 @@ public class WebFactory {
         return new SimpleAsyncLoader();
     }
 
+    /** Come {@link WebFactory#getAsyncLoader()}, ma ritorna un loader asincrono che permette di comporre i
+     * risultati e di imporre una scadenza ai download. Se le opzioni lo richiedono
+     * ({@link CrawlerOptions#virtualThreads(int)}) ogni download è eseguito in un thread virtuale.
+     * @param options  le opzioni di un Crawler
+     * @return un nuovo loader asincrono. */
+    public static CompletableAsyncLoader getAsyncLoader(CrawlerOptions options) {
+        if (options.isVirtualThreads()) {
+            return new SimpleAsyncLoader(options.getMaxConcurrentLoads(), true);
+        }
+        return new SimpleAsyncLoader();
+    }
+
     /** Ritorna un {@link wsa.web.Crawler} che inizia con gli specificati insiemi di URI.
      * Per scaricare le pagine usa esclusivamente {@link wsa.web.AsyncLoader} fornito da
      * {@link WebFactory#getAsyncLoader()}.
@@ -84,7 +120,42 @@ public class WebFactory {
                                      Collection<URI> toLoad,
                                      Collection<URI> errs,
                                      Predicate<URI> pageLink) {
-        return new SimpleCrawler(loaded, toLoad, errs, pageLink);
+        return getCrawler(loaded, toLoad, errs, pageLink, new CrawlerOptions());
+    }
+
+    /** Come {@link WebFactory#getCrawler(Collection, Collection, Collection, Predicate)}, ma
+     * il Crawler ritornato rispetta le opzioni specificate. In particolare gli URI da scaricare
+     * sono raggruppati per host e gli host sono serviti a turno, con al più
+     * {@link CrawlerOptions#getMaxInFlightPerHost()} download contemporanei per host e almeno
+     * {@link CrawlerOptions#getMinDelayPerHost()} millisecondi tra due download verso lo stesso host.
+     * @param loaded  insieme URI scaricati
+     * @param toLoad  insieme URI da scaricare
+     * @param errs  insieme URI con errori
+     * @param pageLink  determina gli URI per i quali i link contenuti nelle
+     *                  relative pagine sono usati per continuare il crawling
+     * @param options  le opzioni del Crawler
+     * @return un Crawler con le proprietà specificate */
+    public static Crawler getCrawler(Collection<URI> loaded,
+                                     Collection<URI> toLoad,
+                                     Collection<URI> errs,
+                                     Predicate<URI> pageLink,
+                                     CrawlerOptions options) {
+        return new SimpleCrawler(loaded, toLoad, errs, pageLink, options);
+    }
+
+    /** Come {@link WebFactory#getCrawler(Collection, Collection, Collection, Predicate, CrawlerOptions)}, ma
+     * gli URI per cui known è vero sono considerati già elaborati senza dover essere elencati in loaded o errs,
+     * e gli URI sono registrati nel dizionario dato. Serve ad un {@link wsa.web.SiteCrawler} per condividere il
+     * dizionario con il Crawler e, quando ripristina un archivio indicizzato, per non caricare in memoria
+     * tutti gli URI già scaricati. */
+    static Crawler getCrawler(Collection<URI> loaded,
+                              Collection<URI> toLoad,
+                              Collection<URI> errs,
+                              Predicate<URI> pageLink,
+                              CrawlerOptions options,
+                              Predicate<URI> known,
+                              UriDictionary dictionary) {
+        return new SimpleCrawler(loaded, toLoad, errs, pageLink, options, known, dictionary);
     }
 
     /** Ritorna un {@link wsa.web.SiteCrawler}. Se dom e directory sono entrambi non null,
@@ -107,6 +178,22 @@ public class WebFactory {
         return dom == null ? new SimpleSiteCrawler(dir) : new SimpleSiteCrawler(dom, dir);
     }
 
+    /** Ritorna un SiteCrawler come {@link WebFactory#getSiteCrawler(URI, Path)} che usa le opzioni date
+     * sia per il {@link wsa.web.Crawler} sottostante sia per l'archivio, che è scritto su un thread
+     * dedicato secondo {@link CrawlerOptions#archiveSync(CrawlerOptions.SyncPolicy, long)}.
+     * @param dom  un dominio o null
+     * @param dir  un percorso di una directory o null
+     * @param options  le opzioni del SiteCrawler
+     * @throws IllegalArgumentException se dom e dir sono entrambi null o options è null
+     * @throws IOException se accade un errore durante l'accesso all'archivio del SiteCrawler
+     * @return un SiteCrawler */
+    public static SiteCrawler getSiteCrawler(URI dom, Path dir, CrawlerOptions options) throws IOException {
+        if (options == null) {
+            throw new IllegalArgumentException("le opzioni non possono essere null");
+        }
+        return dom == null ? new SimpleSiteCrawler(dir, options) : new SimpleSiteCrawler(dom, dir, options);
+    }
+
     //LoaderFactory
     private static LoaderFactory loaderFactory = JFXLoader::new;
 }
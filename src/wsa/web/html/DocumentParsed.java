@@ -2,35 +2,58 @@ package wsa.web.html;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.NodeList;
 
 import java.util.*;
 import java.util.function.Consumer;
 
 /**
- * Rappresenta l'albero di analisi sintattica (parsing) di una pagina web
+ * Rappresenta l'albero di analisi sintattica (parsing) di una pagina web. I nodi sono memorizzati per colonne,
+ * nell'ordine del documento: ogni nodo è un indice negli array del tag, del padre, del primo figlio e del
+ * fratello successivo, gli attributi sono in una tabella comune con i nomi condivisi tra tutti i nodi. Per ogni
+ * tag c'è la lista ordinata dei nodi che lo hanno, così {@link #getByTag(String)} e {@link #getLinks()} costano
+ * tempo proporzionale al risultato. Gli oggetti {@link Parsed.Node} sono creati solamente quando vengono
+ * richiesti, una volta sola per nodo.
  */
 class DocumentParsed implements Parsed{
     /**Crea l'albero di parsing di una pagina web a partire da un Document
      * @param doc  il document che rappresenta la pagina web*/
     DocumentParsed(Document doc){
-        Set<Node> nodeSet = new HashSet<>();
-        fillNodeSet(nodeSet, doc);
-        this.nodeSet = nodeSet;
+        fill(doc);
+        tagNodes = new int[tagNames.size()][];
+        int[] counts = new int[tagNames.size()];
+        for (int i = 0; i < size; i++) {
+            if (tagId[i] >= 0) counts[tagId[i]]++;
+        }
+        for (int t = 0; t < counts.length; t++) {
+            tagNodes[t] = new int[counts[t]];
+            counts[t] = 0;
+        }
+        for (int i = 0; i < size; i++) {
+            if (tagId[i] >= 0) tagNodes[tagId[i]][counts[tagId[i]]++] = i;
+        }
+        nodes = new Node[size];
     }
-    /** Esegue la visita dell'intero albero di parsing
+    /** Esegue la visita dell'intero albero di parsing, nell'ordine del documento
      * @param visitor  visitatore invocato su ogni nodo dell'albero */
     @Override
     public void visit (Consumer< Node > visitor) {
-        nodeSet.stream().forEach(visitor::accept);
+        for (int i = 0; i < size; i++) {
+            visitor.accept(node(i));
+        }
     }
     /** Ritorna la lista (possibilmente vuota) dei links contenuti nella pagina
      * @return la lista dei links (mai null) */
     @Override
     public List<String> getLinks () {
-        List<String> linkList = new ArrayList<>();
-        nodeSet.stream().filter(node -> node.tag != null && node.tag.equals("A"))
-                        .forEach(node -> linkList.add(node.attr.get("href")));
+        Integer a = tagIndex.get("A");
+        Integer href = attrNameIndex.get("href");
+        if (a == null) {
+            return new ArrayList<>();
+        }
+        List<String> linkList = new ArrayList<>(tagNodes[a].length);
+        for (int i : tagNodes[a]) {
+            linkList.add(href != null ? attribute(i, href) : null);
+        }
         return linkList;
     }
     /** Ritorna la lista (possibilmente vuota) dei nodi con lo specificato tag
@@ -38,36 +61,157 @@ class DocumentParsed implements Parsed{
      * @return la lista dei nodi con il dato tag (mai null) */
     @Override
     public List<Node> getByTag (String tag){
-        List<Node> nodeList = new ArrayList<>();
-        nodeSet.stream().filter(node -> node.tag != null && node.tag.equals(tag))
-                        .forEach(nodeList::add);
+        Integer t = tagIndex.get(tag);
+        if (t == null) {
+            return new ArrayList<>();
+        }
+        List<Node> nodeList = new ArrayList<>(tagNodes[t].length);
+        for (int i : tagNodes[t]) {
+            nodeList.add(node(i));
+        }
         return nodeList;
     }
-    /** riempie il nodeSet con l'insieme dei nodi di t
-     * @param nodeSet  insieme in cui verranno inseriti i nodi di t
+
+    /** @return il padre del nodo i o -1 per il nodo documento */
+    int parent(int i) {
+        return parent[i];
+    }
+
+    /** @return il primo figlio del nodo i o -1 se non ha figli */
+    int firstChild(int i) {
+        return firstChild[i];
+    }
+
+    /** @return il fratello successivo del nodo i o -1 se è l'ultimo figlio */
+    int nextSibling(int i) {
+        return nextSibling[i];
+    }
+
+    /** Ritorna il Node del nodo i, creandolo se non è ancora stato richiesto */
+    private synchronized Node node(int i) {
+        Node node = nodes[i];
+        if (node == null) {
+            Map<String, String> attributes = null;
+            if (tagId[i] >= 0) {
+                attributes = new HashMap<>();
+                for (int k = attrStart[i]; k < attrStart[i + 1]; k++) {
+                    attributes.put(attrNames.get(attrName[k]), attrValue[k]);
+                }
+            }
+            node = new Node(tagId[i] >= 0 ? tagNames.get(tagId[i]) : null, attributes, content[i]);
+            nodes[i] = node;
+        }
+        return node;
+    }
+
+    /** @return il valore dell'attributo con nome name del nodo i o null */
+    private String attribute(int i, int name) {
+        for (int k = attrStart[i]; k < attrStart[i + 1]; k++) {
+            if (attrName[k] == name) {
+                return attrValue[k];
+            }
+        }
+        return null;
+    }
+
+    /** Riempie le colonne con i nodi dell'albero di t, in preordine e senza ricorsione
      * @param t la radice di un albero albero org.w3c.dom.Node*/
-    private static void fillNodeSet(Set<Node> nodeSet, org.w3c.dom.Node t) {
-        String tag = null;
-        String content = null;
-        Map<String, String> attributes = null;
-        if (t.getNodeType() == org.w3c.dom.Node.ELEMENT_NODE) {
-            tag = t.getNodeName();
-            attributes = new HashMap<>();
-            NamedNodeMap nodeMap = t.getAttributes();
-            for (int i = 0; i < nodeMap.getLength(); i++) {
-                org.w3c.dom.Node attrNode = nodeMap.item(i);
-                String key = attrNode.getNodeName();
-                String value = attrNode.getNodeValue();
-                attributes.put(key, value);
+    private void fill(org.w3c.dom.Node t) {
+        int current = -1; // il padre del prossimo nodo
+        int last = -1;    // l'ultimo figlio di current già aggiunto
+        org.w3c.dom.Node n = t;
+        Deque<Integer> ancestors = new ArrayDeque<>();
+        while (n != null) {
+            int i = add(n, current);
+            if (last >= 0) {
+                nextSibling[last] = i;
+            } else if (current >= 0) {
+                firstChild[current] = i;
+            }
+            if (n.getFirstChild() != null) {
+                ancestors.push(i);
+                current = i;
+                last = -1;
+                n = n.getFirstChild();
+                continue;
+            }
+            last = i;
+            while (n != t && n.getNextSibling() == null) {
+                n = n.getParentNode();
+                last = ancestors.pop();
+                current = parent[last];
             }
-        } else if (t.getNodeType() == org.w3c.dom.Node.TEXT_NODE) content = t.getNodeValue();
-        nodeSet.add(new Parsed.Node(tag, attributes, content));
-        NodeList list = t.getChildNodes();
-        for (int i = 0; i < list.getLength(); i++) {
-            org.w3c.dom.Node n = list.item(i);
-            fillNodeSet(nodeSet, n);
+            n = n == t ? null : n.getNextSibling();
+        }
+    }
+
+    /** Aggiunge in coda alle colonne il nodo n, figlio del nodo p
+     * @return l'indice del nodo */
+    private int add(org.w3c.dom.Node n, int p) {
+        if (size == tagId.length) {
+            int capacity = size * 2;
+            tagId = Arrays.copyOf(tagId, capacity);
+            parent = Arrays.copyOf(parent, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+            content = Arrays.copyOf(content, capacity);
+            attrStart = Arrays.copyOf(attrStart, capacity + 1);
+        }
+        int i = size++;
+        tagId[i] = -1;
+        parent[i] = p;
+        firstChild[i] = -1;
+        nextSibling[i] = -1;
+        if (n.getNodeType() == org.w3c.dom.Node.ELEMENT_NODE) {
+            tagId[i] = intern(n.getNodeName(), tagNames, tagIndex);
+            NamedNodeMap nodeMap = n.getAttributes();
+            for (int k = 0; k < nodeMap.getLength(); k++) {
+                org.w3c.dom.Node attrNode = nodeMap.item(k);
+                if (attrCount == attrName.length) {
+                    attrName = Arrays.copyOf(attrName, attrCount * 2);
+                    attrValue = Arrays.copyOf(attrValue, attrCount * 2);
+                }
+                attrName[attrCount] = intern(attrNode.getNodeName(), attrNames, attrNameIndex);
+                attrValue[attrCount] = attrNode.getNodeValue();
+                attrCount++;
+            }
+        } else if (n.getNodeType() == org.w3c.dom.Node.TEXT_NODE) {
+            content[i] = n.getNodeValue();
+        }
+        attrStart[i + 1] = attrCount;
+        return i;
+    }
+
+    /** @return l'identificativo di name nella tabella names, aggiungendolo se non c'è */
+    private static int intern(String name, List<String> names, Map<String, Integer> index) {
+        Integer id = index.get(name);
+        if (id == null) {
+            id = names.size();
+            names.add(name);
+            index.put(name, id);
         }
+        return id;
     }
 
-    private final Set<Node> nodeSet;
-}
\ No newline at end of file
+    private int size = 0;
+    /** Per ogni nodo l'identificativo del tag o -1 se non è un elemento */
+    private int[] tagId = new int[64];
+    private int[] parent = new int[64];
+    private int[] firstChild = new int[64];
+    private int[] nextSibling = new int[64];
+    /** Per ogni nodo di testo il suo contenuto, per gli altri nodi null */
+    private String[] content = new String[64];
+    /** Gli attributi del nodo i sono quelli tra attrStart[i] (incluso) e attrStart[i + 1] (escluso) */
+    private int[] attrStart = new int[65];
+    private int[] attrName = new int[64];
+    private String[] attrValue = new String[64];
+    private int attrCount = 0;
+    private final List<String> tagNames = new ArrayList<>();
+    private final Map<String, Integer> tagIndex = new HashMap<>();
+    private final List<String> attrNames = new ArrayList<>();
+    private final Map<String, Integer> attrNameIndex = new HashMap<>();
+    /** Per ogni tag gli indici dei nodi che lo hanno, in ordine crescente */
+    private final int[][] tagNodes;
+    /** I Node già richiesti */
+    private final Node[] nodes;
+}
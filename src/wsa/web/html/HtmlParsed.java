@@ -0,0 +1,90 @@
+package wsa.web.html;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Rappresenta l'albero di analisi sintattica (parsing) di una pagina web ottenuto direttamente dal testo html
+ * tramite {@link HtmlTokenizer}, senza bisogno di una WebEngine. I nodi sono mantenuti nell'ordine in cui
+ * compaiono nel documento.
+ */
+class HtmlParsed implements Parsed {
+    /** Crea l'albero di parsing di una pagina web a partire dal suo testo html
+     * @param html  il testo della pagina web */
+    HtmlParsed(String html) {
+        List<Node> nodeList = new ArrayList<>();
+        PageStats.Builder stats = new PageStats.Builder();
+        nodeList.add(new Node(null, null, null)); // il nodo documento, come in DocumentParsed
+        stats.node();
+        HtmlTokenizer.tokenize(html, new HtmlTokenizer.Handler() {
+            @Override
+            public void startTag(String tag, Map<String, String> attr, boolean selfClosing) {
+                nodeList.add(new Node(tag, attr, null));
+                stats.element(tag);
+            }
+            @Override
+            public void endTag(String tag) { }
+            @Override
+            public void text(String text) {
+                nodeList.add(new Node(null, null, text));
+                stats.text(PageStats.utf8Length(text));
+            }
+            @Override
+            public void comment() {
+                nodeList.add(new Node(null, null, null));
+                stats.node();
+            }
+        });
+        this.nodeList = nodeList;
+        this.stats = stats.build();
+    }
+    /** Esegue la visita dell'intero albero di parsing
+     * @param visitor  visitatore invocato su ogni nodo dell'albero */
+    @Override
+    public void visit(Consumer<Node> visitor) {
+        nodeList.forEach(visitor);
+    }
+    /** Ritorna la lista (possibilmente vuota) dei links contenuti nella pagina. Se la pagina ha un
+     * tag BASE i link sono risolti rispetto al suo href.
+     * @return la lista dei links (mai null) */
+    @Override
+    public List<String> getLinks() {
+        String base = null;
+        for (Node node : nodeList) {
+            if ("BASE".equals(node.tag) && node.attr.get("href") != null) {
+                base = node.attr.get("href");
+                break;
+            }
+        }
+        List<String> linkList = new ArrayList<>();
+        for (Node node : nodeList) {
+            if ("A".equals(node.tag)) {
+                linkList.add(LinkScanner.resolveAgainstBase(base, node.attr.get("href")));
+            }
+        }
+        return linkList;
+    }
+    /** Ritorna la lista (possibilmente vuota) dei nodi con lo specificato tag
+     * @param tag  un nome di tag
+     * @return la lista dei nodi con il dato tag (mai null) */
+    @Override
+    public List<Node> getByTag(String tag) {
+        List<Node> result = new ArrayList<>();
+        for (Node node : nodeList) {
+            if (node.tag != null && node.tag.equals(tag)) {
+                result.add(node);
+            }
+        }
+        return result;
+    }
+
+    /** @return le statistiche della pagina, calcolate durante il parsing */
+    PageStats stats() {
+        return stats;
+    }
+
+    private final List<Node> nodeList;
+    private final PageStats stats;
+}
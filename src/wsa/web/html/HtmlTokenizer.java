@@ -0,0 +1,287 @@
+package wsa.web.html;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Un semplice tokenizzatore HTML che scorre il testo di una pagina una sola volta e notifica ad un
+ * {@link HtmlTokenizer.Handler} i tag di apertura, i tag di chiusura, il testo e i commenti nell'ordine
+ * in cui compaiono. Non costruisce alcun albero e non valida il documento: è tollerante come un browser
+ * verso l'HTML malformato. I nomi dei tag sono riportati in maiuscolo (come nel DOM di una WebEngine),
+ * i nomi degli attributi in minuscolo.
+ */
+class HtmlTokenizer {
+    /* Nested Classes */
+    /** Riceve i token prodotti dal tokenizzatore */
+    interface Handler {
+        /** Invocato per ogni tag di apertura
+         * @param tag  il nome del tag in maiuscolo
+         * @param attr  gli attributi del tag (mai null)
+         * @param selfClosing  true se il tag termina con "/>" */
+        void startTag(String tag, Map<String, String> attr, boolean selfClosing);
+
+        /** Invocato per ogni tag di chiusura
+         * @param tag  il nome del tag in maiuscolo */
+        void endTag(String tag);
+
+        /** Invocato per ogni porzione di testo, con le entità già decodificate
+         * @param text  il testo */
+        void text(String text);
+
+        /** Invocato per ogni commento, doctype o processing instruction */
+        void comment();
+    }
+
+    /* Static Methods */
+    /** Scorre l'intero testo html e notifica i token trovati ad handler
+     * @param html  il testo di una pagina web
+     * @param handler  chi riceve i token */
+    static void tokenize(String html, Handler handler) {
+        new HtmlTokenizer(html, handler).run();
+    }
+
+    /** Decodifica le entità carattere (nominali più comuni e numeriche) contenute in s
+     * @param s  un testo html
+     * @return il testo con le entità decodificate */
+    static String decodeEntities(String s) {
+        int amp = s.indexOf('&');
+        if (amp < 0) {
+            return s;
+        }
+        StringBuilder sb = new StringBuilder(s.length());
+        sb.append(s, 0, amp);
+        int i = amp;
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            if (c != '&') {
+                sb.append(c);
+                i++;
+                continue;
+            }
+            int semi = s.indexOf(';', i + 1);
+            if (semi < 0 || semi - i > 10) {
+                sb.append(c);
+                i++;
+                continue;
+            }
+            String name = s.substring(i + 1, semi);
+            int codePoint = -1;
+            if (name.startsWith("#x") || name.startsWith("#X")) {
+                codePoint = parseCodePoint(name.substring(2), 16);
+            } else if (name.startsWith("#")) {
+                codePoint = parseCodePoint(name.substring(1), 10);
+            } else {
+                Character named = ENTITIES.get(name);
+                if (named != null) {
+                    codePoint = named;
+                }
+            }
+            if (codePoint < 0) {
+                sb.append(c);
+                i++;
+            } else {
+                sb.appendCodePoint(codePoint);
+                i = semi + 1;
+            }
+        }
+        return sb.toString();
+    }
+
+    /** Helper di decodeEntities, ritorna -1 se s non è un code point valido */
+    private static int parseCodePoint(String s, int radix) {
+        try {
+            int cp = Integer.parseInt(s, radix);
+            return Character.isValidCodePoint(cp) ? cp : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /* Instance Fields */
+    private final String html;
+    private final Handler handler;
+    private int pos = 0;
+
+    /* Constructors */
+    private HtmlTokenizer(String html, Handler handler) {
+        this.html = html;
+        this.handler = handler;
+    }
+
+    /* Instance Methods */
+    /** Ciclo principale: alterna testo e markup fino alla fine del documento */
+    private void run() {
+        int length = html.length();
+        while (pos < length) {
+            int lt = html.indexOf('<', pos);
+            if (lt < 0) {
+                emitText(pos, length);
+                pos = length;
+            } else {
+                if (lt > pos) {
+                    emitText(pos, lt);
+                }
+                pos = lt;
+                readMarkup();
+            }
+        }
+    }
+
+    /** Legge il markup che inizia in pos (che punta ad un '<') */
+    private void readMarkup() {
+        if (html.startsWith("<!--", pos)) {
+            int end = html.indexOf("-->", pos + 4);
+            pos = end < 0 ? html.length() : end + 3;
+            handler.comment();
+        } else if (html.startsWith("<!", pos) || html.startsWith("<?", pos)) {
+            int end = html.indexOf('>', pos + 2);
+            pos = end < 0 ? html.length() : end + 1;
+            handler.comment();
+        } else if (html.startsWith("</", pos) && pos + 2 < html.length() && isLetter(html.charAt(pos + 2))) {
+            int start = pos + 2;
+            int end = start;
+            while (end < html.length() && isNameChar(html.charAt(end))) end++;
+            String tag = html.substring(start, end).toUpperCase(Locale.ROOT);
+            int gt = html.indexOf('>', end);
+            pos = gt < 0 ? html.length() : gt + 1;
+            handler.endTag(tag);
+        } else if (pos + 1 < html.length() && isLetter(html.charAt(pos + 1))) {
+            readStartTag();
+        } else {
+            // un '<' isolato è semplice testo
+            handler.text("<");
+            pos++;
+        }
+    }
+
+    /** Legge un tag di apertura con i suoi attributi */
+    private void readStartTag() {
+        int length = html.length();
+        int start = pos + 1;
+        int end = start;
+        while (end < length && isNameChar(html.charAt(end))) end++;
+        String tag = html.substring(start, end).toUpperCase(Locale.ROOT);
+        Map<String, String> attr = new HashMap<>();
+        boolean selfClosing = false;
+        pos = end;
+        while (pos < length) {
+            char c = html.charAt(pos);
+            if (c == '>') {
+                pos++;
+                break;
+            } else if (c == '/') {
+                selfClosing = pos + 1 < length && html.charAt(pos + 1) == '>';
+                pos++;
+            } else if (Character.isWhitespace(c)) {
+                pos++;
+            } else {
+                readAttribute(attr);
+                selfClosing = false;
+            }
+        }
+        handler.startTag(tag, attr, selfClosing);
+        if (!selfClosing && RAW_TEXT_TAGS.containsKey(tag)) {
+            readRawText(tag, RAW_TEXT_TAGS.get(tag));
+        }
+    }
+
+    /** Legge un attributo (con l'eventuale valore) e lo inserisce in attr */
+    private void readAttribute(Map<String, String> attr) {
+        int length = html.length();
+        int start = pos;
+        while (pos < length) {
+            char c = html.charAt(pos);
+            if (c == '=' || c == '>' || c == '/' || Character.isWhitespace(c)) break;
+            pos++;
+        }
+        if (pos == start) {
+            // carattere non valido come inizio di un nome: lo salta
+            pos++;
+            return;
+        }
+        String name = html.substring(start, pos).toLowerCase(Locale.ROOT);
+        while (pos < length && Character.isWhitespace(html.charAt(pos))) pos++;
+        String value = "";
+        if (pos < length && html.charAt(pos) == '=') {
+            pos++;
+            while (pos < length && Character.isWhitespace(html.charAt(pos))) pos++;
+            if (pos < length && (html.charAt(pos) == '"' || html.charAt(pos) == '\'')) {
+                char quote = html.charAt(pos);
+                int close = html.indexOf(quote, pos + 1);
+                if (close < 0) close = length;
+                value = html.substring(pos + 1, close);
+                pos = Math.min(close + 1, length);
+            } else {
+                int vStart = pos;
+                while (pos < length && html.charAt(pos) != '>' && !Character.isWhitespace(html.charAt(pos))) pos++;
+                value = html.substring(vStart, pos);
+            }
+            value = decodeEntities(value);
+        }
+        attr.putIfAbsent(name, value);
+    }
+
+    /** Legge il contenuto di un elemento come script o style fino al suo tag di chiusura
+     * @param tag  il nome del tag in maiuscolo
+     * @param decode  true se nel contenuto vanno decodificate le entità */
+    private void readRawText(String tag, boolean decode) {
+        int length = html.length();
+        int end = pos;
+        while (true) {
+            end = html.indexOf("</", end);
+            if (end < 0) {
+                end = length;
+                break;
+            }
+            if (html.regionMatches(true, end + 2, tag, 0, tag.length())) {
+                break;
+            }
+            end += 2;
+        }
+        if (end > pos) {
+            String text = html.substring(pos, end);
+            handler.text(decode ? decodeEntities(text) : text);
+        }
+        pos = end;
+    }
+
+    /** Notifica il testo compreso tra start e end */
+    private void emitText(int start, int end) {
+        handler.text(decodeEntities(html.substring(start, end)));
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isNameChar(char c) {
+        return isLetter(c) || (c >= '0' && c <= '9') || c == '-' || c == ':' || c == '_';
+    }
+
+    /* Static Fields */
+    /** I tag il cui contenuto non è markup, con l'indicazione se le entità vanno decodificate */
+    private static final Map<String, Boolean> RAW_TEXT_TAGS = new HashMap<>();
+    private static final Map<String, Character> ENTITIES = new HashMap<>();
+    static {
+        RAW_TEXT_TAGS.put("SCRIPT", false);
+        RAW_TEXT_TAGS.put("STYLE", false);
+        RAW_TEXT_TAGS.put("TEXTAREA", true);
+        RAW_TEXT_TAGS.put("TITLE", true);
+        ENTITIES.put("amp", '&');
+        ENTITIES.put("lt", '<');
+        ENTITIES.put("gt", '>');
+        ENTITIES.put("quot", '"');
+        ENTITIES.put("apos", '\'');
+        ENTITIES.put("nbsp", '\u00A0');
+        ENTITIES.put("copy", '©');
+        ENTITIES.put("reg", '®');
+        ENTITIES.put("euro", '€');
+        ENTITIES.put("agrave", 'à');
+        ENTITIES.put("egrave", 'è');
+        ENTITIES.put("eacute", 'é');
+        ENTITIES.put("igrave", 'ì');
+        ENTITIES.put("ograve", 'ò');
+        ENTITIES.put("ugrave", 'ù');
+    }
+}
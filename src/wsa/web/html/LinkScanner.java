@@ -0,0 +1,227 @@
+package wsa.web.html;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Uno scanner che scorre i byte di una pagina html una sola volta e riporta solamente i valori
+ * dell'attributo href dei tag A e BASE, senza decodificare l'intera pagina e senza costruire alcun
+ * albero. Il contenuto di commenti, script e style è saltato. Nella stessa passata possono essere raccolte le
+ * statistiche della pagina ({@link PageStats}). Si assume che la codifica della pagina sia compatibile con ASCII
+ * (UTF-8, ISO-8859-*, windows-125*, ...).
+ */
+class LinkScanner {
+    /* Nested Classes */
+    /** Riceve i link trovati dallo scanner */
+    interface Handler {
+        /** Invocato per ogni tag A o BASE, nell'ordine del documento
+         * @param tag  "A" oppure "BASE"
+         * @param href  il valore dell'attributo href con le entità decodificate o null se manca */
+        void link(String tag, String href);
+    }
+
+    /* Static Methods */
+    /** Scorre i byte di una pagina e notifica ad handler i link trovati
+     * @param body  i byte della pagina
+     * @param charset  la codifica della pagina, usata solo per decodificare i valori di href
+     * @param handler  chi riceve i link */
+    static void scan(byte[] body, Charset charset, Handler handler) {
+        scan(body, charset, handler, new PageStats.Builder());
+    }
+
+    /** Scorre i byte di una pagina, notifica ad handler i link trovati e raccoglie in stats le statistiche della
+     * pagina, contando i nodi come {@link HtmlTokenizer}. La lunghezza del testo è misurata sui byte della pagina,
+     * senza decodificare le entità.
+     * @param body  i byte della pagina
+     * @param charset  la codifica della pagina
+     * @param handler  chi riceve i link
+     * @param stats  chi raccoglie le statistiche */
+    static void scan(byte[] body, Charset charset, Handler handler, PageStats.Builder stats) {
+        int length = body.length;
+        int pos = 0;
+        stats.node(); // il nodo documento
+        while (pos < length) {
+            int lt = indexOf(body, (byte) '<', pos);
+            int textEnd = lt < 0 ? length : lt;
+            if (textEnd > pos) {
+                stats.text(textLength(body, pos, textEnd, charset));
+            }
+            if (lt < 0) {
+                return;
+            }
+            pos = lt + 1;
+            if (startsWith(body, pos, "!--")) {
+                int end = indexOf(body, "-->", pos + 3);
+                pos = end < 0 ? length : end + 3;
+                stats.node();
+            } else if (pos < length && (body[pos] == '!' || body[pos] == '?')) {
+                int end = indexOf(body, (byte) '>', pos + 1);
+                pos = end < 0 ? length : end + 1;
+                stats.node();
+            } else if (pos + 1 < length && body[pos] == '/' && isLetter(body[pos + 1])) {
+                int end = indexOf(body, (byte) '>', pos + 2);
+                pos = end < 0 ? length : end + 1;
+            } else if (pos < length && isLetter(body[pos])) {
+                int nameEnd = pos;
+                while (nameEnd < length && isNameChar(body[nameEnd])) nameEnd++;
+                String tag = new String(body, pos, nameEnd - pos, StandardCharsets.ISO_8859_1)
+                             .toUpperCase(Locale.ROOT);
+                stats.element(tag);
+                boolean isLink = tag.equals("A") || tag.equals("BASE");
+                pos = readHref(body, nameEnd, charset, tag, isLink ? handler : null);
+                boolean selfClosing = pos >= 2 && body[pos - 1] == '>' && body[pos - 2] == '/';
+                if (!selfClosing && RAW_TEXT_TAGS.contains(tag)) {
+                    // il contenuto di script, style, ... è un unico nodo di testo
+                    int end = rawTextEnd(body, pos, tag);
+                    if (end > pos) {
+                        stats.text(textLength(body, pos, end, charset));
+                    }
+                    pos = end;
+                }
+            } else {
+                stats.text(1); // un '<' isolato è semplice testo
+            }
+        }
+    }
+
+    /** Risolve href rispetto all'href del tag BASE della pagina, se presente. Se la risoluzione
+     * non è possibile ritorna href invariato.
+     * @param base  l'href del tag BASE o null
+     * @param href  un link della pagina o null
+     * @return il link risolto rispetto a base */
+    static String resolveAgainstBase(String base, String href) {
+        if (base == null || href == null) {
+            return href;
+        }
+        try {
+            return new URI(base).resolve(new URI(href)).toString();
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return href;
+        }
+    }
+
+    /** Legge gli attributi di un tag fino al '>' e notifica ad handler, se non è null, il valore di href
+     * @return la posizione successiva alla fine del tag */
+    private static int readHref(byte[] b, int pos, Charset charset, String tag, Handler handler) {
+        int length = b.length;
+        String href = null;
+        while (pos < length && b[pos] != '>') {
+            byte c = b[pos];
+            if (isSpace(c) || c == '/') {
+                pos++;
+                continue;
+            }
+            int nameStart = pos;
+            while (pos < length && b[pos] != '=' && b[pos] != '>' && b[pos] != '/' && !isSpace(b[pos])) pos++;
+            if (pos == nameStart) {
+                // carattere non valido come inizio di un nome: lo salta, come HtmlTokenizer
+                pos++;
+                continue;
+            }
+            boolean isHref = pos - nameStart == 4 && startsWith(b, nameStart, "href");
+            while (pos < length && isSpace(b[pos])) pos++;
+            if (pos < length && b[pos] == '=') {
+                pos++;
+                while (pos < length && isSpace(b[pos])) pos++;
+                int valueStart;
+                int valueEnd;
+                if (pos < length && (b[pos] == '"' || b[pos] == '\'')) {
+                    byte quote = b[pos];
+                    valueStart = pos + 1;
+                    valueEnd = indexOf(b, quote, valueStart);
+                    if (valueEnd < 0) valueEnd = length;
+                    pos = Math.min(valueEnd + 1, length);
+                } else {
+                    valueStart = pos;
+                    while (pos < length && b[pos] != '>' && !isSpace(b[pos])) pos++;
+                    valueEnd = pos;
+                }
+                if (isHref && href == null && handler != null) {
+                    href = HtmlTokenizer.decodeEntities(new String(b, valueStart, valueEnd - valueStart, charset));
+                }
+            } else if (isHref && href == null) {
+                href = "";
+            }
+        }
+        if (handler != null) {
+            handler.link(tag, href);
+        }
+        return Math.min(pos + 1, length);
+    }
+
+    /** Ritorna la posizione del tag di chiusura di tag (in maiuscolo) a partire da pos, o la fine della pagina */
+    private static int rawTextEnd(byte[] b, int pos, String tag) {
+        String name = tag.toLowerCase(Locale.ROOT);
+        while (true) {
+            int end = indexOf(b, "</", pos);
+            if (end < 0) {
+                return b.length;
+            }
+            if (startsWith(b, end + 2, name)) {
+                return end;
+            }
+            pos = end + 2;
+        }
+    }
+
+    /** @return la lunghezza in byte nella codifica UTF-8 del testo tra start e end */
+    private static long textLength(byte[] b, int start, int end, Charset charset) {
+        if (charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII)) {
+            return end - start;
+        }
+        return PageStats.utf8Length(new String(b, start, end - start, charset));
+    }
+
+    private static boolean isLetter(byte c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isNameChar(byte c) {
+        return isLetter(c) || (c >= '0' && c <= '9') || c == '-' || c == ':' || c == '_';
+    }
+
+    /** Confronta i byte a partire da pos con s (in minuscolo, solo ASCII) ignorando maiuscole e minuscole */
+    private static boolean startsWith(byte[] b, int pos, String s) {
+        if (pos + s.length() > b.length) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            int c = b[pos + i];
+            if (c >= 'A' && c <= 'Z') c += 'a' - 'A';
+            if (c != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] b, byte c, int from) {
+        for (int i = from; i < b.length; i++) {
+            if (b[i] == c) return i;
+        }
+        return -1;
+    }
+
+    private static int indexOf(byte[] b, String s, int from) {
+        byte first = (byte) s.charAt(0);
+        for (int i = indexOf(b, first, from); i >= 0; i = indexOf(b, first, i + 1)) {
+            if (startsWith(b, i, s)) return i;
+        }
+        return -1;
+    }
+
+    private static boolean isSpace(byte c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f';
+    }
+
+    /* Static Fields */
+    /** I tag il cui contenuto non è markup, come in {@link HtmlTokenizer} */
+    private static final Set<String> RAW_TEXT_TAGS = new HashSet<>(Arrays.asList("SCRIPT", "STYLE", "TEXTAREA",
+                                                                                  "TITLE"));
+}
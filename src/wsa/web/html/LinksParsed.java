@@ -0,0 +1,86 @@
+package wsa.web.html;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Un Parsed pensato per le esplorazioni che usano solamente i link delle pagine. Alla costruzione i byte
+ * della pagina sono scorsi una sola volta da {@link LinkScanner} che estrae gli href dei tag A (risolti
+ * rispetto all'eventuale tag BASE) e le statistiche della pagina, senza costruire alcun albero. L'albero
+ * completo, necessario solamente per {@link #visit(Consumer)} e {@link #getByTag(String)}, è costruito la
+ * prima volta che viene richiesto.
+ */
+class LinksParsed implements Parsed {
+    /** Estrae i link dai byte di una pagina
+     * @param body  i byte della pagina
+     * @param charset  la codifica della pagina */
+    LinksParsed(byte[] body, Charset charset) {
+        if (!charset.equals(StandardCharsets.UTF_8)
+            && (!charset.canEncode() || charset.newEncoder().maxBytesPerChar() > 1)) {
+            // codifica non compatibile con ASCII (UTF-16, UTF-32, ...) o che si può solo decodificare, e di cui
+            // quindi non si conosce l'ampiezza dei caratteri: la riporta a UTF-8
+            body = new String(body, charset).getBytes(StandardCharsets.UTF_8);
+            charset = StandardCharsets.UTF_8;
+        }
+        List<String> links = new ArrayList<>();
+        String[] base = {null};
+        PageStats.Builder stats = new PageStats.Builder();
+        LinkScanner.scan(body, charset, (tag, href) -> {
+            if (tag.equals("A")) {
+                links.add(href);
+            } else if (base[0] == null && href != null) {
+                base[0] = href;
+            }
+        }, stats);
+        if (base[0] != null) {
+            links.replaceAll((href) -> LinkScanner.resolveAgainstBase(base[0], href));
+        }
+        this.links = Collections.unmodifiableList(links);
+        this.stats = stats.build();
+        this.body = body;
+        this.charset = charset;
+    }
+    /** Esegue la visita dell'intero albero di parsing. Alla prima invocazione costruisce l'albero.
+     * @param visitor  visitatore invocato su ogni nodo dell'albero */
+    @Override
+    public void visit(Consumer<Node> visitor) {
+        tree().visit(visitor);
+    }
+    /** Ritorna la lista (possibilmente vuota) dei links contenuti nella pagina
+     * @return la lista dei links (mai null) */
+    @Override
+    public List<String> getLinks() {
+        return new ArrayList<>(links);
+    }
+    /** Ritorna la lista (possibilmente vuota) dei nodi con lo specificato tag. Alla prima invocazione
+     * costruisce l'albero.
+     * @param tag  un nome di tag
+     * @return la lista dei nodi con il dato tag (mai null) */
+    @Override
+    public List<Node> getByTag(String tag) {
+        return tree().getByTag(tag);
+    }
+
+    /** @return le statistiche della pagina, raccolte mentre sono estratti i link */
+    PageStats stats() {
+        return stats;
+    }
+
+    /** Ritorna l'albero completo della pagina, costruendolo se necessario */
+    private synchronized Parsed tree() {
+        if (tree == null) {
+            tree = new HtmlParsed(new String(body, charset));
+        }
+        return tree;
+    }
+
+    private final List<String> links;
+    private final PageStats stats;
+    private final byte[] body;
+    private final Charset charset;
+    private Parsed tree = null;
+}
@@ -0,0 +1,163 @@
+package wsa.web.html;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Alcune statistiche sulla struttura di una pagina: il numero di nodi dell'albero di parsing, il numero di
+ * immagini, la lunghezza in byte (UTF-8) del testo e quante volte compare ogni tag. Sono calcolate una sola volta
+ * mentre la pagina viene analizzata, così possono essere conservate insieme al risultato dell'esplorazione senza
+ * dover riscaricare la pagina. I nomi dei tag sono condivisi tra tutte le pagine e i conteggi sono in un array di
+ * interi, ordinati per nome di tag. Gli oggetti di questa classe sono immutabili.
+ */
+public class PageStats {
+    /* Nested Classes */
+    /** Raccoglie le statistiche di una pagina mentre viene analizzata */
+    public static class Builder {
+        private int nodeCount = 0;
+        private long textBytes = 0;
+        private final Map<String, int[]> tags = new HashMap<>();
+
+        /** Conta un nodo che non è un elemento, ad esempio un commento o il nodo documento */
+        public Builder node() {
+            nodeCount++;
+            return this;
+        }
+
+        /** Conta un elemento
+         * @param tag  il nome del tag in maiuscolo */
+        public Builder element(String tag) {
+            nodeCount++;
+            tags.computeIfAbsent(tag, (t) -> new int[1])[0]++;
+            return this;
+        }
+
+        /** Conta un nodo di testo
+         * @param bytes  la lunghezza in byte (UTF-8) del testo */
+        public Builder text(long bytes) {
+            nodeCount++;
+            textBytes += bytes;
+            return this;
+        }
+
+        /** @return le statistiche raccolte */
+        public PageStats build() {
+            String[] names = tags.keySet().toArray(new String[0]);
+            Arrays.sort(names);
+            int[] counts = new int[names.length];
+            for (int i = 0; i < names.length; i++) {
+                counts[i] = tags.get(names[i])[0];
+                names[i] = names[i].intern();
+            }
+            return new PageStats(nodeCount, textBytes, names, counts);
+        }
+    }
+
+    /* Static Methods */
+    /** Ritorna le statistiche di una pagina analizzata. Se il Parsed le ha già calcolate durante l'analisi sono
+     * ritornate immediatamente, altrimenti sono calcolate visitando l'albero.
+     * @param parsed  l'analisi di una pagina
+     * @return le statistiche della pagina */
+    public static PageStats of(Parsed parsed) {
+        if (parsed instanceof HtmlParsed) {
+            return ((HtmlParsed) parsed).stats();
+        }
+        if (parsed instanceof LinksParsed) {
+            return ((LinksParsed) parsed).stats();
+        }
+        Builder builder = new Builder();
+        parsed.visit((n) -> {
+            if (n.tag != null) {
+                builder.element(n.tag.toUpperCase(Locale.ROOT));
+            } else if (n.content != null) {
+                builder.text(utf8Length(n.content));
+            } else {
+                builder.node();
+            }
+        });
+        return builder.build();
+    }
+
+    /** @return la lunghezza in byte della codifica UTF-8 di s, senza codificarla */
+    static long utf8Length(CharSequence s) {
+        long length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /* Instance Fields */
+    /** Il numero di nodi dell'albero di parsing, compreso il nodo documento */
+    public final int nodeCount;
+    /** La lunghezza in byte, nella codifica UTF-8, del testo della pagina */
+    public final long textBytes;
+    private final String[] tags;
+    private final int[] counts;
+
+    /* Constructors */
+    /** Crea le statistiche di una pagina
+     * @param nodeCount  il numero di nodi
+     * @param textBytes  la lunghezza del testo in byte
+     * @param tags  i nomi dei tag in maiuscolo, in ordine crescente
+     * @param counts  per ogni tag, il numero di elementi con quel tag */
+    public PageStats(int nodeCount, long textBytes, String[] tags, int[] counts) {
+        if (tags.length != counts.length) {
+            throw new IllegalArgumentException("tag e conteggi hanno lunghezze diverse");
+        }
+        this.nodeCount = nodeCount;
+        this.textBytes = textBytes;
+        this.tags = tags.clone();
+        this.counts = counts.clone();
+    }
+
+    /* Instance Methods */
+    /** @return il numero di elementi con il tag dato */
+    public int count(String tag) {
+        int i = Arrays.binarySearch(tags, tag.toUpperCase(Locale.ROOT));
+        return i >= 0 ? counts[i] : 0;
+    }
+
+    /** @return il numero di immagini, cioè di tag IMG */
+    public int imageCount() {
+        return count("IMG");
+    }
+
+    /** @return il numero di tag diversi */
+    public int distinctTags() {
+        return tags.length;
+    }
+
+    /** @return il nome dell'i-esimo tag, in ordine alfabetico */
+    public String tag(int i) {
+        return tags[i];
+    }
+
+    /** @return il numero di elementi dell'i-esimo tag */
+    public int tagCount(int i) {
+        return counts[i];
+    }
+
+    /** @return il numero di elementi per ogni tag, in ordine alfabetico di tag */
+    public Map<String, Integer> tagHistogram() {
+        Map<String, Integer> histogram = new LinkedHashMap<>();
+        for (int i = 0; i < tags.length; i++) {
+            histogram.put(tags[i], counts[i]);
+        }
+        return Collections.unmodifiableMap(histogram);
+    }
+}
@@ -2,6 +2,8 @@ package wsa.web.html;
 
 import org.w3c.dom.Document;
 
+import java.nio.charset.Charset;
+
 /**
  * Una factory per Parsed
  */
@@ -10,4 +12,19 @@ public class ParsedFactory {
     public static Parsed getFromDocument(Document doc) {
         return new DocumentParsed(doc);
     }
+
+    /** Ritorna un Parsed a partire dal testo html di una pagina, analizzato con un tokenizzatore
+     * interno che non richiede una {@link javafx.scene.web.WebEngine} */
+    public static Parsed getFromHtml(String html) {
+        return new HtmlParsed(html);
+    }
+
+    /** Ritorna un Parsed che estrae i link direttamente dai byte di una pagina senza costruire
+     * l'albero di parsing. L'albero è costruito solamente se sono invocati
+     * {@link Parsed#visit(java.util.function.Consumer)} o {@link Parsed#getByTag(String)}.
+     * @param body  i byte della pagina
+     * @param charset  la codifica della pagina */
+    public static Parsed getLinksOnly(byte[] body, Charset charset) {
+        return new LinksParsed(body, charset);
+    }
 }